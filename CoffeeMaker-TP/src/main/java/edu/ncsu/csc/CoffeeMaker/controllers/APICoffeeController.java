@@ -1,14 +1,15 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
-import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
@@ -51,16 +52,21 @@ public class APICoffeeController extends APIController {
      *            recipe name
      * @param amtPaid
      *            amount paid
+     * @param location
+     *            the store or machine making the coffee; the default
+     *            inventory is used if none is given
      * @return The change the customer is due if successful
      */
     @PostMapping ( BASE_PATH + "/makecoffee/{name}" )
-    public ResponseEntity makeCoffee ( @PathVariable ( "name" ) final String name, @RequestBody final int amtPaid ) {
+    public ResponseEntity makeCoffee ( @PathVariable ( "name" ) final String name, @RequestBody final int amtPaid,
+            @RequestParam ( required = false ) final String location ) {
         final Recipe recipe = recipeService.findByName( name );
         if ( recipe == null ) {
             return new ResponseEntity( errorResponse( "No recipe selected" ), HttpStatus.NOT_FOUND );
         }
+        inventoryService.checkLocation( location );
 
-        final int change = makeCoffee( recipe, amtPaid );
+        final int change = makeCoffee( recipe, amtPaid, location );
         if ( change == amtPaid ) {
             if ( amtPaid < recipe.getPrice() ) {
                 return new ResponseEntity( errorResponse( "Not enough money paid" ), HttpStatus.CONFLICT );
@@ -84,22 +90,39 @@ public class APICoffeeController extends APIController {
      *         exceptions if not
      */
     public int makeCoffee ( final Recipe toPurchase, final int amtPaid ) {
+        return makeCoffee( toPurchase, amtPaid, null );
+    }
+
+    /**
+     * Helper method to make coffee at a location
+     *
+     * @param toPurchase
+     *            recipe that we want to make
+     * @param amtPaid
+     *            money that the user has given the machine
+     * @param location
+     *            the location whose inventory is used, or null for the default
+     * @return change if there was enough money to make the coffee, throws
+     *         exceptions if not
+     */
+    public int makeCoffee ( final Recipe toPurchase, final int amtPaid, final String location ) {
         int change = amtPaid;
-        final Inventory inventory = inventoryService.getInventory();
 
         if ( toPurchase == null ) {
             throw new IllegalArgumentException( "Recipe not found" );
         }
         else if ( toPurchase.getPrice() <= amtPaid ) {
-            if ( inventory.useIngredients( toPurchase ) ) {
-                inventoryService.save( inventory );
-                change = amtPaid - toPurchase.getPrice();
-                return change;
+            try {
+                if ( inventoryService.useIngredients( toPurchase, location ) ) {
+                    change = amtPaid - toPurchase.getPrice();
+                    return change;
+                }
             }
-            else {
-                // not enough inventory
-                return change;
+            catch ( final OptimisticLockingFailureException e ) {
+                // the inventory held less than expected; nothing was used
             }
+            // not enough inventory
+            return change;
         }
         // not enough money
         return change;
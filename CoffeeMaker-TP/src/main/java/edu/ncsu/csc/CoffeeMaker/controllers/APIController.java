@@ -1,7 +1,13 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
 import com.google.gson.Gson;
 
+import edu.ncsu.csc.CoffeeMaker.services.UnknownLocationException;
+
 /**
  * Base class for all of the API controllers for manipulating DomainObjects. Add
  * in any fields or functionality that ought to be shared throughout.
@@ -99,6 +105,20 @@ public abstract class APIController {
         return responseMessage( "success", message );
     }
 
+    /**
+     * Answers any request that names a location with no Inventory, wherever
+     * in the request that was found.
+     *
+     * @param e
+     *            the exception naming the location
+     * @return NOT_FOUND, with a message naming the location
+     */
+    @SuppressWarnings ( { "unchecked", "rawtypes" } )
+    @ExceptionHandler ( UnknownLocationException.class )
+    public ResponseEntity unknownLocation ( final UnknownLocationException e ) {
+        return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.NOT_FOUND );
+    }
+
     /**
      * Small class used for creating simple success/error messages to return via
      * the REST API. Contains a status of the action and an message.
@@ -1,19 +1,30 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement.Kind;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryJournal;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.LowStockNotifier;
 
 /**
  * This is the controller that holds the REST endpoints that handle add and
@@ -30,6 +41,9 @@ import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 @RestController
 public class APIInventoryController extends APIController {
 
+    /** Message sent when the Inventory changed underneath a request */
+    private static final String RETRY_MESSAGE = "The inventory was changed by someone else, please try again";
+
     /**
      * InventoryService object, to be autowired in by Spring to allow for
      * manipulating the Inventory model
@@ -37,15 +51,46 @@ public class APIInventoryController extends APIController {
     @Autowired
     private InventoryService service;
 
+    /** InventoryJournal, holding the history of every Inventory */
+    @Autowired
+    private InventoryJournal journal;
+
+    /** LowStockNotifier, pushing low-stock alerts to subscribed clients */
+    @Autowired
+    private LowStockNotifier notifier;
+
     /**
      * REST API endpoint to provide GET access to the CoffeeMaker's singleton
      * Inventory. This will convert the Inventory to JSON.
      *
+     * @param location
+     *            the store or machine whose Inventory is wanted; the default
+     *            Inventory if none is given
      * @return response to the request
      */
     @GetMapping ( BASE_PATH + "/inventory" )
-    public List<Ingredient> getInventory () {
-        return service.getInventory().getList();
+    public ResponseEntity getInventory ( @RequestParam ( required = false ) final String location ) {
+        return new ResponseEntity( service.getInventory( location ).getList(), HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint to open a new location, such as a store or a machine,
+     * with an empty Inventory. Every other endpoint refuses locations that
+     * have not been opened here.
+     *
+     * @param location
+     *            the name of the location
+     * @return the new Inventory's ingredients, or CONFLICT if the location
+     *         already exists
+     */
+    @PostMapping ( BASE_PATH + "/inventory/locations/{location}" )
+    public ResponseEntity createLocation ( @PathVariable final String location ) {
+        final Inventory created = service.createInventory( location );
+        if ( created == null ) {
+            return new ResponseEntity( errorResponse( "Location " + location + " already exists" ),
+                    HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity( created.getList(), HttpStatus.CREATED );
     }
 
     /**
@@ -55,19 +100,190 @@ public class APIInventoryController extends APIController {
      *
      * @param i
      *            to add to inventory
+     * @param location
+     *            the store or machine to restock; the default Inventory if
+     *            none is given
      *
      * @return response to the request
      */
     @PutMapping ( BASE_PATH + "/inventory" )
-    public ResponseEntity updateInventory ( @RequestBody final Ingredient i ) {
-        final Inventory inventoryCurrent = service.getInventory();
+    public ResponseEntity updateInventory ( @RequestBody final Ingredient i,
+            @RequestParam ( required = false ) final String location ) {
+        final Inventory inventoryCurrent = service.getInventory( location );
         if ( !inventoryCurrent.updateIngredient( i, i.getAmount() ) ) {
             return new ResponseEntity( inventoryCurrent, HttpStatus.CONFLICT );
         }
-        service.save( inventoryCurrent );
+        try {
+            service.save( inventoryCurrent, Kind.RESTOCK );
+        }
+        catch ( final OptimisticLockingFailureException e ) {
+            return new ResponseEntity( errorResponse( RETRY_MESSAGE ), HttpStatus.CONFLICT );
+        }
         return new ResponseEntity( inventoryCurrent, HttpStatus.OK );
     }
 
+    /**
+     * REST API endpoint to restock many ingredients in one request, as when a
+     * delivery arrives. Each Ingredient provided is added to the stored amount
+     * of the ingredient with the same name, as in updateInventory, and the
+     * whole batch is saved together.
+     *
+     * @param deliveries
+     *            ingredients to add to inventory
+     * @param location
+     *            the store or machine to restock; the default Inventory if
+     *            none is given
+     *
+     * @return one success or failure message per ingredient, in order; OK if
+     *         every ingredient was restocked, otherwise CONFLICT
+     */
+    @PutMapping ( BASE_PATH + "/inventory/batch" )
+    public ResponseEntity restockInventory ( @RequestBody final List<Ingredient> deliveries,
+            @RequestParam ( required = false ) final String location ) {
+        service.checkLocation( location );
+        final List<String> results;
+        try {
+            results = service.restock( deliveries, location );
+        }
+        catch ( final OptimisticLockingFailureException e ) {
+            return new ResponseEntity( errorResponse( RETRY_MESSAGE ), HttpStatus.CONFLICT );
+        }
+
+        final List<JSONResponse> lines = new ArrayList<JSONResponse>( results.size() );
+        boolean allRestocked = true;
+        for ( int n = 0; n < results.size(); n++ ) {
+            if ( results.get( n ) == null ) {
+                lines.add( new JSONResponse( "success", deliveries.get( n ).getName() + " successfully restocked" ) );
+            }
+            else {
+                lines.add( new JSONResponse( "failed", results.get( n ) ) );
+                allRestocked = false;
+            }
+        }
+        return new ResponseEntity( toJson( lines ), allRestocked ? HttpStatus.OK : HttpStatus.CONFLICT );
+    }
+
+    /**
+     * REST API endpoint to read the inventory movement journal of every
+     * location, oldest first. Callers page through it by passing the id of
+     * the last movement they have seen.
+     *
+     * @param after
+     *            only movements with a greater id are returned
+     * @param limit
+     *            the most movements to return
+     * @return the movements
+     */
+    @GetMapping ( BASE_PATH + "/inventory/journal" )
+    public List<InventoryMovement> getJournal ( @RequestParam ( defaultValue = "0" ) final long after,
+            @RequestParam ( defaultValue = "500" ) final int limit ) {
+        return journal.movementsAfter( after, Math.max( 1, Math.min( limit, 5000 ) ) );
+    }
+
+    /**
+     * REST API endpoint to rebuild an Inventory's amounts from the movement
+     * journal, undoing any write that bypassed it.
+     *
+     * @param location
+     *            the store or machine to restore; the default Inventory if
+     *            none is given
+     * @return the restored Inventory
+     */
+    @PutMapping ( BASE_PATH + "/inventory/restore" )
+    public ResponseEntity restoreInventory ( @RequestParam ( required = false ) final String location ) {
+        service.checkLocation( location );
+        try {
+            return new ResponseEntity( service.restore( location ).getList(), HttpStatus.OK );
+        }
+        catch ( final OptimisticLockingFailureException e ) {
+            return new ResponseEntity( errorResponse( RETRY_MESSAGE ), HttpStatus.CONFLICT );
+        }
+    }
+
+    /**
+     * REST API endpoint to list the low-stock watermarks of an Inventory.
+     *
+     * @param location
+     *            the store or machine; the default Inventory if none is given
+     * @return the watermarks, or NOT_FOUND if there is no such location
+     */
+    @GetMapping ( BASE_PATH + "/inventory/watermarks" )
+    public ResponseEntity getWatermarks ( @RequestParam ( required = false ) final String location ) {
+        service.checkLocation( location );
+        return new ResponseEntity( service.getWatermarks( location ), HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint to set the low-stock watermark of an ingredient. The
+     * amount of the Ingredient provided is taken as the watermark: once the
+     * ingredient falls to that amount or below, subscribers are alerted.
+     *
+     * @param i
+     *            the ingredient and its watermark
+     * @param location
+     *            the store or machine; the default Inventory if none is given
+     * @return response to the request
+     */
+    @PutMapping ( BASE_PATH + "/inventory/watermarks" )
+    public ResponseEntity setWatermark ( @RequestBody final Ingredient i,
+            @RequestParam ( required = false ) final String location ) {
+        if ( i.getName() == null || i.getAmount() == null ) {
+            return new ResponseEntity( errorResponse( "Ingredient name and watermark are required" ),
+                    HttpStatus.NOT_ACCEPTABLE );
+        }
+        service.checkLocation( location );
+        try {
+            if ( !service.setWatermark( i.getName(), i.getAmount(), location ) ) {
+                return new ResponseEntity( errorResponse( "No ingredient found with name " + i.getName() ),
+                        HttpStatus.NOT_FOUND );
+            }
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.NOT_ACCEPTABLE );
+        }
+        return new ResponseEntity( successResponse( i.getName() + " watermark set to " + i.getAmount() ),
+                HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint to remove the low-stock watermark of an ingredient.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @param location
+     *            the store or machine; the default Inventory if none is given
+     * @return response to the request
+     */
+    @DeleteMapping ( BASE_PATH + "/inventory/watermarks/{name}" )
+    public ResponseEntity removeWatermark ( @PathVariable final String name,
+            @RequestParam ( required = false ) final String location ) {
+        service.checkLocation( location );
+        if ( !service.removeWatermark( name, location ) ) {
+            return new ResponseEntity( errorResponse( "No watermark found for " + name ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( successResponse( name + " watermark removed" ), HttpStatus.OK );
+    }
+
+    /**
+     * REST API endpoint that streams low-stock alerts as Server-Sent Events.
+     * The ingredients that are low right now are sent first, then an event
+     * each time an ingredient falls to its watermark or is restocked above
+     * it.
+     *
+     * @param location
+     *            the store or machine to watch; the default Inventory if none
+     *            is given
+     * @return the event stream, or NOT_FOUND if there is no such location
+     */
+    @GetMapping ( value = BASE_PATH + "/inventory/alerts", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public ResponseEntity<SseEmitter> subscribeAlerts ( @RequestParam ( required = false ) final String location ) {
+        if ( !service.hasLocation( location ) ) {
+            return new ResponseEntity<SseEmitter>( HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity<SseEmitter>( notifier.subscribe( location, service.getLowStock( location ) ),
+                HttpStatus.OK );
+    }
+
     /**
      * REST API method to provide POST access to the Ingredient model. This is
      * used to create a new Ingredient by automatically converting the JSON
@@ -77,17 +293,26 @@ public class APIInventoryController extends APIController {
      *
      * @param i
      *            The valid Ingredient to be saved.
+     * @param location
+     *            the store or machine to add the Ingredient to; the default
+     *            Inventory if none is given
      * @return ResponseEntity indicating success if the Ingredient could be
      *         saved to the inventory, or an error if it could not be
      */
 
     @PostMapping ( BASE_PATH + "/inventory" )
-    public ResponseEntity addIngredient ( @RequestBody final Ingredient i ) {
-        final Inventory inventoryCurrent = service.getInventory();
+    public ResponseEntity addIngredient ( @RequestBody final Ingredient i,
+            @RequestParam ( required = false ) final String location ) {
+        final Inventory inventoryCurrent = service.getInventory( location );
         final Integer dupe = inventoryCurrent.addIngredient( i.getName(), i.getAmount() );
 
         if ( dupe == 0 ) {
-            service.save( inventoryCurrent );
+            try {
+                service.save( inventoryCurrent, Kind.RESTOCK );
+            }
+            catch ( final OptimisticLockingFailureException e ) {
+                return new ResponseEntity( errorResponse( RETRY_MESSAGE ), HttpStatus.CONFLICT );
+            }
             return new ResponseEntity( successResponse( i.getName() + " successfully created" ), HttpStatus.OK );
         }
         else if ( dupe == -2 ) {
@@ -1,28 +1,45 @@
 package edu.ncsu.csc.CoffeeMaker.controllers;
 
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import edu.ncsu.csc.CoffeeMaker.models.ArchivedOrder;
 import edu.ncsu.csc.CoffeeMaker.models.Customer;
-import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
 import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
-import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.OrderSummary;
 import edu.ncsu.csc.CoffeeMaker.models.Staff;
 import edu.ncsu.csc.CoffeeMaker.services.CustomerService;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderArchiveService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderIntakeService;
 import edu.ncsu.csc.CoffeeMaker.services.OrderService;
-import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderStatusNotifier;
 import edu.ncsu.csc.CoffeeMaker.services.StaffService;
+import edu.ncsu.csc.CoffeeMaker.services.UnknownLocationException;
 
 /**
  * This is the controller that holds the REST endpoints that handle add and
@@ -40,40 +57,189 @@ import edu.ncsu.csc.CoffeeMaker.services.StaffService;
 @RestController
 public class APIOrderController extends APIController {
 
+    /** Header holding the cursor of the next page of orders */
+    static final String         NEXT_CURSOR     = "X-Next-Cursor";
+
+    /** Header holding the key that makes retried placements safe */
+    static final String         IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /** Longest idempotency key accepted */
+    private static final int    MAX_KEY         = 255;
+
+    /** Message sent when an order was moved by someone else meanwhile */
+    private static final String CHANGED_MESSAGE = "The order was changed by someone else, please try again";
+
+    /** Most orders returned in one page */
+    private static final int    MAX_PAGE        = 1000;
+
+    /** Orders read from the database at a time when streaming */
+    private static final int    STREAM_CHUNK    = 200;
+
+    /** Jackson, used to write orders as they are streamed */
+    @Autowired
+    private ObjectMapper        objectMapper;
+
+    /** OrderStatusNotifier, pushing order status changes to customers */
+    @Autowired
+    private OrderStatusNotifier notifier;
+
     /** The order service. */
     @Autowired
-    private OrderService     orderService;
+    private OrderService        orderService;
+
+    /** The archive of finished orders. */
+    @Autowired
+    private OrderArchiveService archiveService;
 
     /** The customer service. */
     @Autowired
-    private CustomerService  customerService;
+    private CustomerService     customerService;
 
     /** The staff service. */
     @Autowired
-    private StaffService     staffService;
+    private StaffService        staffService;
+
+    /** Places orders queued by queueOrder. */
+    @Autowired
+    private OrderIntakeService  intakeService;
+
+    /** The inventory service, used to check that locations exist. */
+    @Autowired
+    private InventoryService    inventoryService;
+
+    /**
+     * Gets a page of order summaries, oldest first. If the page is full, the
+     * id of its last order is returned in the X-Next-Cursor header; pass it as
+     * after to get the next page. Get an order by name for all of it.
+     *
+     * @param status
+     *            only orders with one of these statuses are returned; every
+     *            status if none is given
+     * @param from
+     *            only orders placed at or after this ISO-8601 instant are
+     *            returned
+     * @param to
+     *            only orders placed before this ISO-8601 instant are returned
+     * @param after
+     *            only orders with a greater id are returned
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    @GetMapping ( BASE_PATH + "/orders" )
+    public ResponseEntity getOrders ( @RequestParam ( required = false ) final List<OrderStatus> status,
+            @RequestParam ( required = false ) final Instant from, @RequestParam ( required = false ) final Instant to,
+            @RequestParam ( required = false ) final Long after,
+            @RequestParam ( defaultValue = "100" ) final int limit ) {
+        final int pageSize = Math.max( 1, Math.min( limit, MAX_PAGE ) );
+        final List<OrderSummary> page = orderService.findSummaryPage( status, from, to, after, pageSize );
+        final HttpHeaders headers = new HttpHeaders();
+        if ( page.size() == pageSize ) {
+            headers.add( NEXT_CURSOR, String.valueOf( page.get( page.size() - 1 ).getId() ) );
+        }
+        return new ResponseEntity( page, headers, HttpStatus.OK );
+    }
 
     /**
-     * InventoryService object, to be autowired in by Spring to allow for
-     * manipulating the Inventory model.
+     * Streams the summary of every order that matches the filters as one JSON
+     * array, oldest first. Orders are read and written a chunk at a time, so
+     * memory use stays the same however many orders there are.
+     *
+     * @param status
+     *            only orders with one of these statuses are returned; every
+     *            status if none is given
+     * @param from
+     *            only orders placed at or after this ISO-8601 instant are
+     *            returned
+     * @param to
+     *            only orders placed before this ISO-8601 instant are returned
+     * @param after
+     *            only orders with a greater id are returned
+     * @return the orders, as they are read
      */
-    @Autowired
-    private InventoryService inventoryService;
+    @GetMapping ( BASE_PATH + "/orders/stream" )
+    public ResponseEntity<StreamingResponseBody> streamOrders (
+            @RequestParam ( required = false ) final List<OrderStatus> status,
+            @RequestParam ( required = false ) final Instant from, @RequestParam ( required = false ) final Instant to,
+            @RequestParam ( required = false ) final Long after ) {
+        final StreamingResponseBody body = out -> {
+            final JsonGenerator json = objectMapper.getFactory().createGenerator( out );
+            json.writeStartArray();
+            Long cursor = after;
+            List<OrderSummary> chunk;
+            do {
+                chunk = orderService.findSummaryPage( status, from, to, cursor, STREAM_CHUNK );
+                for ( final OrderSummary order : chunk ) {
+                    json.writeObject( order );
+                }
+                json.flush();
+                if ( !chunk.isEmpty() ) {
+                    cursor = chunk.get( chunk.size() - 1 ).getId();
+                }
+            }
+            while ( chunk.size() == STREAM_CHUNK );
+            json.writeEndArray();
+            json.close();
+        };
+        return ResponseEntity.ok().contentType( MediaType.APPLICATION_JSON ).body( body );
+    }
 
     /**
-     * RecipeService object, to be autowired in by Spring to allow for
-     * manipulating the Recipe model.
+     * Counts the orders placed in a range of time by their status now, for
+     * dashboards and reports.
+     *
+     * @param from
+     *            only orders placed at or after this ISO-8601 instant are
+     *            counted
+     * @param to
+     *            only orders placed before this ISO-8601 instant are counted
+     * @return the number of orders with each status
      */
-    @Autowired
-    private RecipeService    recipeService;
+    @GetMapping ( BASE_PATH + "/orders/counts" )
+    public ResponseEntity countOrders ( @RequestParam final Instant from, @RequestParam final Instant to ) {
+        if ( !from.isBefore( to ) ) {
+            return new ResponseEntity( errorResponse( "Invalid time range" ), HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity( orderService.countPlacedBetween( from, to ), HttpStatus.OK );
+    }
 
     /**
-     * Gets all orders.
+     * Gets the orders waiting to be started at a location, oldest first. This
+     * is what staff should use to find work.
      *
-     * @return all orders in system
+     * @param location
+     *            the store or machine; the default location if none is given
+     * @return the waiting orders, or NOT_FOUND if there is no such location
      */
-    @GetMapping ( BASE_PATH + "/orders" )
-    public List<Order> getOrders () {
-        return orderService.findAll();
+    @GetMapping ( BASE_PATH + "/orders/queue" )
+    public ResponseEntity getQueue ( @RequestParam ( required = false ) final String location ) {
+        inventoryService.checkLocation( location );
+        return new ResponseEntity( orderService.findWaiting( location ), HttpStatus.OK );
+    }
+
+    /**
+     * Assigns the oldest waiting order at a location to a member of staff and
+     * starts it. Two staff calling this at once always get different orders.
+     *
+     * @param name
+     *            the name of the staff claiming an order
+     * @param location
+     *            the store or machine; the default location if none is given
+     * @return the claimed order
+     */
+    @PutMapping ( BASE_PATH + "/orders/claim/{name}" )
+    public ResponseEntity claimNext ( @PathVariable final String name,
+            @RequestParam ( required = false ) final String location ) {
+        final Staff staff = staffService.findByName( name );
+        if ( staff == null ) {
+            return new ResponseEntity( errorResponse( "The staff does not exist" ), HttpStatus.CONFLICT );
+        }
+        inventoryService.checkLocation( location );
+        final Order claimed = orderService.claimNext( staff, location );
+        if ( claimed == null ) {
+            return new ResponseEntity( errorResponse( "No orders are waiting" ), HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity( claimed, HttpStatus.OK );
     }
 
     /**
@@ -93,25 +259,93 @@ public class APIOrderController extends APIController {
     }
 
     /**
-     * Gets all orders by customer.
+     * Gets a page of summaries of a customer's orders, newest first. To get
+     * the next page, pass the id of the last order of this one as before.
      *
      * @param name
      *            the name of customer
-     * @return all orders by customer.
+     * @param status
+     *            only orders with this status are returned; every status if
+     *            none is given
+     * @param before
+     *            only orders older than the order with this id are returned;
+     *            the newest orders if none is given
+     * @param limit
+     *            the most orders to return
+     * @return the customer's orders
      */
     @GetMapping ( BASE_PATH + "/orders/customer/{name}" )
-    public List<Order> getOrderByCustomer ( @PathVariable final String name ) {
+    public List<OrderSummary> getOrderByCustomer ( @PathVariable final String name,
+            @RequestParam ( required = false ) final OrderStatus status,
+            @RequestParam ( required = false ) final Long before,
+            @RequestParam ( defaultValue = "50" ) final int limit ) {
         final Customer customer = customerService.findByName( name );
         if ( customer == null ) {
             throw new IllegalArgumentException( "Invalid Customer" );
         }
-        final List<Order> custOrders = orderService.findAll();
-        for ( final Order order : custOrders ) {
-            if ( !order.getCustomer().equals( customer ) ) {
-                custOrders.remove( order );
-            }
+        return orderService.findSummaryHistory( customer, status, before, Math.max( 1, Math.min( limit, 500 ) ) );
+    }
+
+    /**
+     * Gets a page of a customer's archived orders, newest first: orders that
+     * were picked up or canceled long enough ago to have been moved out of
+     * the live orders. To get the next page, pass the id of the last order of
+     * this one as before.
+     *
+     * @param name
+     *            the name of the customer
+     * @param status
+     *            only orders with this status are returned; both if none is
+     *            given
+     * @param before
+     *            only orders with a smaller id are returned
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    @GetMapping ( BASE_PATH + "/orders/archive/customer/{name}" )
+    public List<ArchivedOrder> getArchivedOrders ( @PathVariable final String name,
+            @RequestParam ( required = false ) final OrderStatus status,
+            @RequestParam ( required = false ) final Long before,
+            @RequestParam ( defaultValue = "50" ) final int limit ) {
+        final Customer customer = customerService.findByName( name );
+        if ( customer == null ) {
+            throw new IllegalArgumentException( "Invalid Customer" );
+        }
+        return archiveService.findHistory( customer, status, before, Math.max( 1, Math.min( limit, 500 ) ) );
+    }
+
+    /**
+     * Gets an archived order by the name it had while it was live.
+     *
+     * @param name
+     *            the name of the order
+     * @return the order, or NOT_FOUND if it has not been archived
+     */
+    @GetMapping ( BASE_PATH + "/orders/archive/{name}" )
+    public ResponseEntity getArchivedOrder ( @PathVariable final String name ) {
+        final ArchivedOrder order = archiveService.findByName( name );
+        if ( order == null ) {
+            return new ResponseEntity( errorResponse( "No archived order named " + name ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( order, HttpStatus.OK );
+    }
+
+    /**
+     * Streams the status changes of a customer's orders as Server-Sent Events,
+     * one event each time an order is started, completed, picked up or
+     * canceled.
+     *
+     * @param name
+     *            the name of the customer
+     * @return the event stream
+     */
+    @GetMapping ( value = BASE_PATH + "/orders/customer/{name}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE )
+    public SseEmitter subscribeOrders ( @PathVariable final String name ) {
+        if ( customerService.findByName( name ) == null ) {
+            throw new IllegalArgumentException( "Invalid Customer" );
         }
-        return custOrders;
+        return notifier.subscribe( name );
     }
 
     /**
@@ -127,8 +361,10 @@ public class APIOrderController extends APIController {
         if ( orderRetreived == null ) {
             return new ResponseEntity( errorResponse( "No order could be found" ), HttpStatus.CONFLICT );
         }
-        orderRetreived.setStatus( OrderStatus.CANCELED );
-        orderService.save( orderRetreived );
+        final ResponseEntity refused = transition( orderRetreived, OrderStatus.CANCELED );
+        if ( refused != null ) {
+            return refused;
+        }
         return new ResponseEntity( orderRetreived, HttpStatus.OK );
     }
 
@@ -158,31 +394,130 @@ public class APIOrderController extends APIController {
     // }
 
     /**
-     * Place an order.
+     * Place an order. A client that may retry should send the same
+     * Idempotency-Key header with each attempt; a retry then returns the order
+     * the first attempt placed instead of placing another.
      *
      * @param name
      *            the name of customer that places order
+     * @param idempotencyKey
+     *            key that identifies this placement among the customer's, or
+     *            null if retries need not be recognised
      * @param order
      *            the order that is to be placed
      * @return the response entity
      */
     @PostMapping ( BASE_PATH + "/orders/place/{name}" )
-    public ResponseEntity placeOrder ( @PathVariable final String name, @RequestBody final Order order ) {
+    public ResponseEntity placeOrder ( @PathVariable final String name,
+            @RequestHeader ( name = IDEMPOTENCY_KEY, required = false ) final String idempotencyKey,
+            @RequestBody final Order order ) {
         if ( order == null ) {
             return new ResponseEntity( errorResponse( "Invalid Order" ), HttpStatus.CONFLICT );
         }
+        if ( idempotencyKey != null && ( idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY ) ) {
+            return new ResponseEntity( errorResponse( "Invalid idempotency key" ), HttpStatus.CONFLICT );
+        }
+        final Customer customer = customerService.findByName( name );
+        if ( customer == null ) {
+            return new ResponseEntity( errorResponse( "The customer does not exist" ), HttpStatus.CONFLICT );
+        }
+
+        try {
+            return new ResponseEntity( orderService.place( order, customer, idempotencyKey ), HttpStatus.OK );
+        }
+        catch ( final UnknownLocationException e ) {
+            return unknownLocation( e );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.CONFLICT );
+        }
+        catch ( final DataIntegrityViolationException e ) {
+            // a retry raced the first attempt and lost; hand back its order
+            final Order placed = idempotencyKey == null ? null : orderService.findPlaced( customer, idempotencyKey );
+            if ( placed == null ) {
+                throw e;
+            }
+            return new ResponseEntity( placed, HttpStatus.OK );
+        }
+    }
+
+    /**
+     * Queues an order to be placed in the background, for when the shop is
+     * busy. The order is checked as placeOrder would check it, then queued
+     * without touching the orders table. ACCEPTED is returned with the key
+     * the order will be placed under as the message; get the order from
+     * getQueuedOrder with that key.
+     * If too many orders are already waiting, SERVICE_UNAVAILABLE is returned
+     * at once with a Retry-After header. Idempotency keys work as in
+     * placeOrder.
+     *
+     * @param name
+     *            the name of customer that places order
+     * @param idempotencyKey
+     *            key that identifies this placement among the customer's, or
+     *            null if retries need not be recognised
+     * @param order
+     *            the order that is to be placed
+     * @return the response entity
+     */
+    @PostMapping ( BASE_PATH + "/orders/intake/{name}" )
+    public ResponseEntity queueOrder ( @PathVariable final String name,
+            @RequestHeader ( name = IDEMPOTENCY_KEY, required = false ) final String idempotencyKey,
+            @RequestBody final Order order ) {
+        try {
+            orderService.checkOrder( order );
+        }
+        catch ( final IllegalArgumentException e ) {
+            return new ResponseEntity( errorResponse( e.getMessage() ), HttpStatus.CONFLICT );
+        }
+        if ( idempotencyKey != null && ( idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY ) ) {
+            return new ResponseEntity( errorResponse( "Invalid idempotency key" ), HttpStatus.CONFLICT );
+        }
         final Customer customer = customerService.findByName( name );
         if ( customer == null ) {
             return new ResponseEntity( errorResponse( "The customer does not exist" ), HttpStatus.CONFLICT );
         }
+        inventoryService.checkLocation( order.getLocation() );
+        if ( idempotencyKey != null ) {
+            final Order placed = orderService.findPlaced( customer, idempotencyKey );
+            if ( placed != null ) {
+                return new ResponseEntity( successResponse( placed.getName() ), HttpStatus.ACCEPTED );
+            }
+        }
 
-        order.setCustomer( customer );
-        order.setStatus( OrderStatus.NOT_STARTED );
-        orderService.save( order );
-        final Order order2 = orderService.findByName( order.getName() );
-        order2.setName( order2.getId().toString() );
-        orderService.save( order2 );
-        return new ResponseEntity( order2, HttpStatus.OK );
+        final String key = intakeService.submit( order, customer, idempotencyKey );
+        if ( key == null ) {
+            final HttpHeaders headers = new HttpHeaders();
+            headers.add( HttpHeaders.RETRY_AFTER, String.valueOf( intakeService.getRetryAfter() ) );
+            return new ResponseEntity( errorResponse( "Too many orders waiting, please try again shortly" ), headers,
+                    HttpStatus.SERVICE_UNAVAILABLE );
+        }
+        return new ResponseEntity( successResponse( key ), HttpStatus.ACCEPTED );
+    }
+
+    /**
+     * Gets an order queued by queueOrder. While the order is waiting to be
+     * placed, ACCEPTED is returned; once placed, the order itself. An order
+     * that could not be placed gets CONFLICT with the reason.
+     *
+     * @param key
+     *            the key queueOrder returned
+     * @return the response entity
+     */
+    @GetMapping ( BASE_PATH + "/orders/intake/{key}" )
+    public ResponseEntity getQueuedOrder ( @PathVariable final String key ) {
+        if ( intakeService.isPending( key ) ) {
+            return new ResponseEntity( successResponse( "Waiting to be placed" ), HttpStatus.ACCEPTED );
+        }
+        final String rejection = intakeService.rejection( key );
+        if ( rejection != null ) {
+            return new ResponseEntity( errorResponse( rejection ), HttpStatus.CONFLICT );
+        }
+        final Order order = orderService.findByName( key );
+        if ( order == null ) {
+            return new ResponseEntity( errorResponse( "No order could be found" ), HttpStatus.NOT_FOUND );
+        }
+        return new ResponseEntity( order, HttpStatus.OK );
     }
 
     /**
@@ -205,10 +540,10 @@ public class APIOrderController extends APIController {
         if ( staff == null ) {
             return new ResponseEntity( errorResponse( "The staff does not exist" ), HttpStatus.CONFLICT );
         }
-        orderRetreived.setStaff( staff );
-        orderRetreived.setStatus( OrderStatus.IN_PROGRESS );
-        orderService.save( orderRetreived );
-        return new ResponseEntity( orderRetreived, HttpStatus.OK );
+        if ( !orderService.claim( orderRetreived, staff ) ) {
+            return new ResponseEntity( errorResponse( "Order has already been claimed" ), HttpStatus.CONFLICT );
+        }
+        return new ResponseEntity( orderService.findByName( order.getName() ), HttpStatus.OK );
     }
 
     /**
@@ -227,6 +562,10 @@ public class APIOrderController extends APIController {
         if ( orderRetreived == null ) {
             return new ResponseEntity( errorResponse( "Order does not exist" ), HttpStatus.CONFLICT );
         }
+        if ( !orderRetreived.getStatus().canBecome( OrderStatus.COMPLETED ) ) {
+            return new ResponseEntity( errorResponse( cannotBecome( orderRetreived, OrderStatus.COMPLETED ) ),
+                    HttpStatus.CONFLICT );
+        }
         // changing to Int
         int amountValue = 0;
         try {
@@ -243,74 +582,123 @@ public class APIOrderController extends APIController {
             return new ResponseEntity( errorResponse( "Not enough money paid" ), HttpStatus.CONFLICT );
         }
 
-        // see if enough ingredients in inventory
-        if ( !checkIngredient( orderRetreived.getRecipes() ) ) {
-            // System.out.println( orderRetreived.getRecipes() );
-            return new ResponseEntity( errorResponse( "Not enough inventory!" ), HttpStatus.CONFLICT );
+        // make the order from the ingredients held for it and set its status
+        try {
+            if ( orderService.complete( orderRetreived ) != null ) {
+                return new ResponseEntity( errorResponse( "Not enough inventory!" ), HttpStatus.CONFLICT );
+            }
         }
-
-        // make the actual order
-        for ( final Recipe recipe : order.getRecipes() ) {
-            final Recipe r = recipeService.findByName( recipe.getName() );
-            if ( !makeCoffee( r ) ) {
-                return new ResponseEntity( errorResponse( "Not enough inventory" ), HttpStatus.CONFLICT );
+        catch ( final OptimisticLockingFailureException e ) {
+            if ( !orderRetreived.getStatus().canBecome( OrderStatus.COMPLETED ) ) {
+                return new ResponseEntity( errorResponse( cannotBecome( orderRetreived, OrderStatus.COMPLETED ) ),
+                        HttpStatus.CONFLICT );
             }
+            return new ResponseEntity( errorResponse( CHANGED_MESSAGE ), HttpStatus.CONFLICT );
         }
-
-        // sets correct status
-        orderRetreived.setStatus( OrderStatus.COMPLETED );
-        orderService.save( orderRetreived );
         return new ResponseEntity<String>( successResponse( String.valueOf( change ) ), HttpStatus.OK );
     }
 
     /**
-     * Helper method to make coffee.
+     * Completes many orders in one request, as staff do at rush hour. Each
+     * order is checked as in setComplete; the orders that pass are then made
+     * together, with their combined ingredients deducted in one pass, and
+     * marked complete in one transaction. An order that someone else moved
+     * after it was checked fails on its own line; the rest still complete.
      *
-     * @param toPurchase
-     *            recipe that we want to make
-     * @return change if there was enough money to make the coffee, throws
-     *         exceptions if not
+     * @param payments
+     *            the amount paid for each order, by order name
+     * @return one message per order, in order: the change if it was
+     *         completed, otherwise why not; OK if every order was completed,
+     *         otherwise CONFLICT
      */
-    private boolean makeCoffee ( final Recipe toPurchase ) {
-        final Inventory inventory = inventoryService.getInventory();
+    @PutMapping ( BASE_PATH + "/orders/complete" )
+    public ResponseEntity completeOrders ( @RequestBody final Map<String, Integer> payments ) {
+        final List<JSONResponse> lines = new ArrayList<JSONResponse>( payments.size() );
+        final List<Order> toMake = new ArrayList<Order>( payments.size() );
+        final List<Integer> positions = new ArrayList<Integer>( payments.size() );
+        for ( final Map.Entry<String, Integer> payment : payments.entrySet() ) {
+            final Order order = orderService.findByName( payment.getKey() );
+            String reason = null;
+            if ( order == null ) {
+                reason = "Order does not exist";
+            }
+            else if ( !order.getStatus().canBecome( OrderStatus.COMPLETED ) ) {
+                reason = cannotBecome( order, OrderStatus.COMPLETED );
+            }
+            else if ( payment.getValue() == null ) {
+                reason = "Invalid Value";
+            }
+            else if ( payment.getValue() < order.getTotalCost() ) {
+                reason = "Not enough money paid";
+            }
+            if ( reason != null ) {
+                lines.add( new JSONResponse( "failed", payment.getKey() + ": " + reason ) );
+            }
+            else {
+                positions.add( lines.size() );
+                lines.add( null );
+                toMake.add( order );
+            }
+        }
 
-        if ( toPurchase == null ) {
-            throw new IllegalArgumentException( "Recipe not found" );
+        final List<String> results;
+        try {
+            results = toMake.isEmpty() ? new ArrayList<String>() : orderService.complete( toMake );
         }
-        else if ( inventory.useIngredients( toPurchase ) ) {
-            inventoryService.save( inventory );
-            return true;
+        catch ( final OptimisticLockingFailureException e ) {
+            return new ResponseEntity( errorResponse( CHANGED_MESSAGE ), HttpStatus.CONFLICT );
         }
-        else {
-            // not enough inventory
-            return false;
+        boolean allCompleted = toMake.size() == payments.size();
+        for ( int n = 0; n < toMake.size(); n++ ) {
+            final Order order = toMake.get( n );
+            if ( results.get( n ) == null ) {
+                final int change = payments.get( order.getName() ) - order.getTotalCost();
+                lines.set( positions.get( n ), new JSONResponse( "success", String.valueOf( change ) ) );
+            }
+            else {
+                // another request may have moved the order since it was read
+                final String reason = order.getStatus().canBecome( OrderStatus.COMPLETED ) ? results.get( n )
+                        : cannotBecome( order, OrderStatus.COMPLETED );
+                lines.set( positions.get( n ), new JSONResponse( "failed", order.getName() + ": " + reason ) );
+                allCompleted = false;
+            }
         }
+        return new ResponseEntity( toJson( lines ), allCompleted ? HttpStatus.OK : HttpStatus.CONFLICT );
     }
 
     /**
-     * Check if enough ingredients exists .
+     * Moves an order to a new status, see OrderService.transition.
      *
-     * @param recipes
-     *            the recipes in order
-     * @return true, if successful
+     * @param order
+     *            the order
+     * @param to
+     *            the new status
+     * @return null if the order was moved, otherwise the response saying why
+     *         not
      */
-    private boolean checkIngredient ( final List<Recipe> recipes ) {
-        final Inventory inventory = inventoryService.getInventory();
-        // System.out.println( inventory );
-
-        if ( recipes == null ) {
-            throw new IllegalArgumentException( "Recipe not found" );
-        }
-        boolean enoughIngreidents = true;
-        for ( final Recipe recipe : recipes ) {
-            // need to update method
-            if ( !inventory.enoughIngredients( recipe ) ) {
-
-                enoughIngreidents = false;
+    private ResponseEntity transition ( final Order order, final OrderStatus to ) {
+        try {
+            if ( orderService.transition( order, to ) ) {
+                return null;
             }
+            return new ResponseEntity( errorResponse( cannotBecome( order, to ) ), HttpStatus.CONFLICT );
         }
-        // not enough money
-        return enoughIngreidents;
+        catch ( final OptimisticLockingFailureException e ) {
+            return new ResponseEntity( errorResponse( CHANGED_MESSAGE ), HttpStatus.CONFLICT );
+        }
+    }
+
+    /**
+     * Describes a transition an order cannot make.
+     *
+     * @param order
+     *            the order
+     * @param to
+     *            the status it cannot move to
+     * @return the message
+     */
+    private static String cannotBecome ( final Order order, final OrderStatus to ) {
+        return "Order cannot go from " + order.getStatus() + " to " + to;
     }
 
     /**
@@ -332,8 +720,10 @@ public class APIOrderController extends APIController {
             return new ResponseEntity( errorResponse( "Order does not exist" ), HttpStatus.CONFLICT );
         }
 
-        orderRetreived.setStatus( OrderStatus.PICKED_UP );
-        orderService.save( orderRetreived );
+        final ResponseEntity refused = transition( orderRetreived, OrderStatus.PICKED_UP );
+        if ( refused != null ) {
+            return refused;
+        }
         return new ResponseEntity( orderRetreived, HttpStatus.OK );
     }
 
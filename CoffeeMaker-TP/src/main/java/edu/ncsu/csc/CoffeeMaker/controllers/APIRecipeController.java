@@ -12,11 +12,13 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
 
 /**
@@ -47,6 +49,13 @@ public class APIRecipeController extends APIController {
     @Autowired
     private IngredientService ingredient;
 
+    /**
+     * InventoryService object, to be autowired in by Spring to tell how many
+     * of each recipe can be made
+     */
+    @Autowired
+    private InventoryService  inventoryService;
+
     /**
      * REST API method to provide GET access to all recipes in the system
      *
@@ -57,6 +66,23 @@ public class APIRecipeController extends APIController {
         return service.findAll();
     }
 
+    /**
+     * REST API method to provide GET access to how many cups of each recipe
+     * can be made with the current inventory. A recipe whose ingredients are
+     * not limited by the inventory is given as 2147483647.
+     *
+     * @param location
+     *            the store or machine whose inventory is used; the default
+     *            inventory if none is given
+     * @return JSON object from recipe name to cups, or NOT_FOUND if there is
+     *         no such location
+     */
+    @GetMapping ( BASE_PATH + "/recipes/availability" )
+    public ResponseEntity getAvailability ( @RequestParam ( required = false ) final String location ) {
+        inventoryService.checkLocation( location );
+        return new ResponseEntity( inventoryService.getAvailability( location ), HttpStatus.OK );
+    }
+
     /**
      * REST API method to provide GET access to a specific recipe, as indicated
      * by the path variable provided (the name of the recipe desired)
@@ -0,0 +1,331 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OrderColumn;
+import javax.persistence.Table;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+
+/**
+ * An order that was picked up or canceled long enough ago to be moved out of
+ * the live orders. It keeps the id and name the order had, so it can still be
+ * found by either, along with everything needed to show it in a customer's
+ * history and to count it in reports: its lines with the prices they were
+ * sold at, and when it reached each status. Recipes and staff are kept by name
+ * rather than by reference, so that editing or removing them later does not
+ * change the record.
+ *
+ */
+@Entity
+@Table ( name = "order_archive", indexes = { @Index ( columnList = "customer_id,id" ), @Index ( columnList = "name" ),
+        @Index ( columnList = "placed,status" ), @Index ( columnList = "completed" ) } )
+public class ArchivedOrder extends DomainObject {
+
+    /** id the order had while it was live */
+    @Id
+    private Long              id;
+
+    /** Public key of the order */
+    private String            name;
+
+    /** The status it ended in, stored as Order stores it */
+    @Column ( nullable = false )
+    private OrderStatus       status;
+
+    /** The customer who placed it */
+    @ManyToOne
+    @JoinColumn ( name = "customer_id" )
+    private Customer          customer;
+
+    /** Name of the staff who made it, or null */
+    private String            staff;
+
+    /** The time the customer placed it, as they gave it */
+    private String            time;
+
+    /** When the order was created, or null if that was not recorded */
+    private Instant           placed;
+
+    /** When the order was started, or null if it never was */
+    private Instant           started;
+
+    /** When the order was completed, or null if it never was */
+    private Instant           completed;
+
+    /** When the order was picked up, or null if it never was */
+    private Instant           pickedUp;
+
+    /** When the order was canceled, or null if it never was */
+    private Instant           canceled;
+
+    /** The store or machine it was made at, or null for the default */
+    private String            location;
+
+    /** The total cost of the order */
+    private Integer           totalCost;
+
+    /** What was ordered, one line per recipe, as it was sold */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "order_archive_lines", joinColumns = @JoinColumn ( name = "order_id" ) )
+    @OrderColumn ( name = "line" )
+    private List<Line>        lines   = new ArrayList<Line>();
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public ArchivedOrder () {
+        // Intentionally empty so that Hibernate can instantiate
+        // ArchivedOrder object.
+    }
+
+    /**
+     * Creates the archived copy of a live order.
+     *
+     * @param order
+     *            the order, which must be picked up or canceled
+     */
+    public ArchivedOrder ( final Order order ) {
+        if ( order.getStatus() != OrderStatus.PICKED_UP && order.getStatus() != OrderStatus.CANCELED ) {
+            throw new IllegalArgumentException( "Only picked up or canceled orders can be archived" );
+        }
+        this.id = order.getId();
+        this.name = order.getName();
+        this.status = order.getStatus();
+        this.customer = order.getCustomer();
+        this.staff = order.getStaff() == null ? null : order.getStaff().getName();
+        this.time = order.getTime();
+        this.placed = order.getPlaced();
+        this.started = order.getReached( OrderStatus.IN_PROGRESS );
+        this.completed = order.getReached( OrderStatus.COMPLETED );
+        this.pickedUp = order.getReached( OrderStatus.PICKED_UP );
+        this.canceled = order.getReached( OrderStatus.CANCELED );
+        this.location = order.getLocation();
+        this.totalCost = order.getTotalCost();
+        for ( final OrderLine line : order.getLines() ) {
+            lines.add( new Line( line.getName(), line.getPrice(), line.getQuantity() ) );
+        }
+    }
+
+    /**
+     * Returns the id the order had while it was live.
+     *
+     * @return the id
+     */
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the public key of the order.
+     *
+     * @return the name
+     */
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * Returns the status the order ended in.
+     *
+     * @return PICKED_UP or CANCELED
+     */
+    public OrderStatus getStatus () {
+        return status;
+    }
+
+    /**
+     * Returns the customer who placed the order.
+     *
+     * @return the customer
+     */
+    public Customer getCustomer () {
+        return customer;
+    }
+
+    /**
+     * Returns the name of the staff who made the order.
+     *
+     * @return the name, or null
+     */
+    public String getStaff () {
+        return staff;
+    }
+
+    /**
+     * Returns the time the customer placed the order, as they gave it.
+     *
+     * @return the time
+     */
+    public String getTime () {
+        return time;
+    }
+
+    /**
+     * Returns when the order was created.
+     *
+     * @return the time, or null for orders created before it was recorded
+     */
+    public Instant getPlaced () {
+        return placed;
+    }
+
+    /**
+     * Returns when the order was started.
+     *
+     * @return the time, or null if it never was
+     */
+    public Instant getStarted () {
+        return started;
+    }
+
+    /**
+     * Returns when the order was completed.
+     *
+     * @return the time, or null if it never was
+     */
+    public Instant getCompleted () {
+        return completed;
+    }
+
+    /**
+     * Returns when the order was picked up.
+     *
+     * @return the time, or null if it never was
+     */
+    public Instant getPickedUp () {
+        return pickedUp;
+    }
+
+    /**
+     * Returns when the order was canceled.
+     *
+     * @return the time, or null if it never was
+     */
+    public Instant getCanceled () {
+        return canceled;
+    }
+
+    /**
+     * Returns the store or machine the order was made at.
+     *
+     * @return the location, or null for the default
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Returns the total cost of the order.
+     *
+     * @return the total cost
+     */
+    public Integer getTotalCost () {
+        return totalCost;
+    }
+
+    /**
+     * Returns what was ordered, one line per recipe.
+     *
+     * @return the lines
+     */
+    public List<Line> getLines () {
+        return lines;
+    }
+
+    /**
+     * Returns the names of the recipes ordered, one per drink, in order.
+     *
+     * @return the recipe names
+     */
+    public List<String> getRecipes () {
+        final List<String> recipes = new ArrayList<String>();
+        for ( final Line line : lines ) {
+            recipes.addAll( Collections.nCopies( line.getQuantity(), line.getName() ) );
+        }
+        return recipes;
+    }
+
+    /**
+     * One line of an archived order: the name of a recipe, what one of it
+     * cost, and how many were ordered.
+     */
+    @Embeddable
+    public static class Line {
+
+        /** Name of the recipe when it was ordered */
+        private String  name;
+
+        /** Price of one of the recipe when it was ordered */
+        private Integer price;
+
+        /** How many were ordered */
+        private Integer quantity;
+
+        /**
+         * Empty constructor for Hibernate
+         */
+        public Line () {
+            // Intentionally empty so that Hibernate can instantiate
+            // Line object.
+        }
+
+        /**
+         * Creates a line.
+         *
+         * @param name
+         *            the name of the recipe
+         * @param price
+         *            the price of one of the recipe
+         * @param quantity
+         *            how many were ordered
+         */
+        public Line ( final String name, final Integer price, final Integer quantity ) {
+            this.name = name;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Returns the name of the recipe when it was ordered.
+         *
+         * @return the name
+         */
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * Returns the price of one of the recipe when it was ordered.
+         *
+         * @return the price
+         */
+        public Integer getPrice () {
+            return price;
+        }
+
+        /**
+         * Returns how many were ordered.
+         *
+         * @return the quantity
+         */
+        public Integer getQuantity () {
+            return quantity;
+        }
+    }
+
+}
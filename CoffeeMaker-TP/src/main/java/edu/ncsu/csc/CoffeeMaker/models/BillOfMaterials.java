@@ -0,0 +1,120 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+/**
+ * A Recipe compiled against the slot layout of an InventoryLedger: one
+ * (slot, amount) pair per stocked ingredient, sorted by slot, with repeated
+ * ingredients merged into a single line. Checking or deducting a recipe is
+ * then a loop over two int arrays with no name lookups. Ingredients of the
+ * recipe that the inventory does not stock are left out, matching how
+ * Inventory has always treated them.
+ *
+ * A BillOfMaterials never changes. It is only valid for the layout it was
+ * compiled against; see isCompiledFor.
+ */
+public final class BillOfMaterials {
+
+    /** The layout this was compiled against */
+    private final Object   layout;
+
+    /** Inventory slot of each line */
+    private final int[]    slots;
+
+    /** Amount needed on each line */
+    private final int[]    amounts;
+
+    /** Database id of the Ingredient behind each line */
+    private final Long[]   ids;
+
+    /** Ingredient name of each line */
+    private final String[] names;
+
+    /**
+     * Creates a BillOfMaterials. The arrays are owned by the new object.
+     *
+     * @param layout
+     *            the layout the lines refer to
+     * @param slots
+     *            the slot of each line
+     * @param amounts
+     *            the amount of each line
+     * @param ids
+     *            the Ingredient id of each line
+     * @param names
+     *            the ingredient name of each line
+     */
+    BillOfMaterials ( final Object layout, final int[] slots, final int[] amounts, final Long[] ids,
+            final String[] names ) {
+        this.layout = layout;
+        this.slots = slots;
+        this.amounts = amounts;
+        this.ids = ids;
+        this.names = names;
+    }
+
+    /**
+     * Checks whether this was compiled against the current layout of a
+     * ledger. Adding an ingredient to the ledger changes its layout.
+     *
+     * @param ledger
+     *            the ledger to check against
+     * @return true if the slots of this BillOfMaterials are valid in the
+     *         ledger
+     */
+    public boolean isCompiledFor ( final InventoryLedger ledger ) {
+        return layout == ledger.layout();
+    }
+
+    /**
+     * Returns the number of lines.
+     *
+     * @return the number of lines
+     */
+    public int size () {
+        return slots.length;
+    }
+
+    /**
+     * Returns the inventory slot of a line.
+     *
+     * @param line
+     *            the line
+     * @return the slot
+     */
+    public int slot ( final int line ) {
+        return slots[line];
+    }
+
+    /**
+     * Returns the amount needed on a line.
+     *
+     * @param line
+     *            the line
+     * @return the amount
+     */
+    public int amount ( final int line ) {
+        return amounts[line];
+    }
+
+    /**
+     * Returns the database id of the Ingredient on a line.
+     *
+     * @param line
+     *            the line
+     * @return the id, or null if the Ingredient has not been saved
+     */
+    public Long ingredientId ( final int line ) {
+        return ids[line];
+    }
+
+    /**
+     * Returns the ingredient name of a line.
+     *
+     * @param line
+     *            the line
+     * @return the name
+     */
+    public String name ( final int line ) {
+        return names[line];
+    }
+
+}
@@ -1,15 +1,18 @@
 package edu.ncsu.csc.CoffeeMaker.models;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.persistence.CascadeType;
+import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 /**
  * Inventory for the coffee maker. Inventory is tied to the database using
@@ -25,7 +28,22 @@ public class Inventory extends DomainObject {
     /** id for inventory entry */
     @Id
     @GeneratedValue
-    private Long                   id;
+    private Long                      id;
+
+    /**
+     * Optimistic lock version, advanced every time the Inventory is saved so
+     * that a save made from an out-of-date copy is rejected
+     */
+    @Version
+    @Column ( nullable = false )
+    private Long                      version;
+
+    /**
+     * The store or machine this Inventory stocks. The default Inventory, which
+     * every location shared before there were several, has no location.
+     */
+    @Column ( unique = true )
+    private String                    location;
 
     /**
      * A hashmap containing Ingredients to allow quicker and better access and
@@ -33,7 +51,15 @@ public class Inventory extends DomainObject {
      */
 
     @OneToMany ( cascade = CascadeType.ALL, fetch = FetchType.EAGER )
-    private final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+    private final List<Ingredient>    ingredients = new ArrayList<Ingredient>();
+
+    /**
+     * Index over the ingredients, giving constant time lookups by name. Not
+     * persisted; it is built from the ingredient list on first use. It keeps
+     * its own copy of the amounts, so every change to an amount must go
+     * through the Inventory.
+     */
+    private transient InventoryLedger ledger;
 
     /**
      * Empty constructor for Hibernate
@@ -76,12 +102,72 @@ public class Inventory extends DomainObject {
     }
 
     /**
-     * Returns a list of ingredients.
+     * Returns the optimistic lock version of the Inventory.
+     *
+     * @return the version, or null if it has never been saved
+     */
+    public Long getVersion () {
+        return version;
+    }
+
+    /**
+     * Returns the location this Inventory stocks.
+     *
+     * @return the location, or null for the default Inventory
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Sets the location this Inventory stocks.
      *
-     * @return a list of ingredients.
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    public void setLocation ( final String location ) {
+        this.location = location;
+    }
+
+    /**
+     * Advances the version of this copy by one, to match a row whose version
+     * was advanced in the database, as by a brew.
+     */
+    public void advanceVersion () {
+        if ( version != null ) {
+            version++;
+        }
+    }
+
+    /**
+     * Creates a detached copy of this Inventory, with the same id and version
+     * and a copy of every Ingredient. Saving the copy updates this Inventory's
+     * row, subject to the usual version check.
+     *
+     * @return the copy
+     */
+    public Inventory copy () {
+        final Inventory copy = new Inventory();
+        copy.id = id;
+        copy.version = version;
+        copy.location = location;
+        for ( final Ingredient i : ingredients ) {
+            final Ingredient c = new Ingredient( i.getName(), i.getAmount() );
+            c.setId( i.getId() );
+            copy.ingredients.add( c );
+        }
+        return copy;
+    }
+
+    /**
+     * Returns a list of ingredients. The list cannot be changed, and the
+     * amounts of the Ingredients in it must not be set directly; use
+     * updateIngredient or setIngredientAmount instead.
+     *
+     * @return a read-only list of ingredients.
      */
     public List<Ingredient> getIngredients () {
-        return ingredients;
+        return Collections.unmodifiableList( ingredients );
     }
 
     /**
@@ -95,22 +181,21 @@ public class Inventory extends DomainObject {
      * @return amount of chocolate
      */
     public Integer getIngredientAmount ( final Ingredient ingredient ) {
-        // traverse to find the Ingredient in the list
-        for ( final Ingredient i : ingredients ) {
-            if ( i.getName().equals( ingredient.getName() ) ) {
-                return i.getAmount();
-            }
+        final InventoryLedger ledger = ledger();
+        final int slot = ledger.slotOf( ingredient.getName() );
+        if ( slot < 0 ) {
+            return -1;
         }
-        return -1;
+        return ledger.amount( slot );
     }
 
     /**
      * returns the list of ingredients
      *
-     * @return returns a list of ingredients
+     * @return returns a read-only list of ingredients
      */
     public List<Ingredient> getList () {
-        return ingredients;
+        return getIngredients();
     }
 
     /**
@@ -131,26 +216,37 @@ public class Inventory extends DomainObject {
         if ( amount > 100 ) {
             throw new IllegalArgumentException( "Units of ingredient must be less than 100" );
         }
-        try {
-            for ( final Ingredient i : ingredients ) {
-                if ( ingredient.getName().equals( i.getName() ) ) {
-                    // if adding will cause unit overflow
-                    if ( i.getAmount() + amount > 100 ) {
-                        // do not set the amount
-                        return false;
-                    }
-                    // set the new value by adding the passed amount to the old
-                    // value
-                    final Integer newVal = i.getAmount() + amount;
-                    i.setAmount( newVal );
-                    return true;
-                }
-            }
+        final InventoryLedger ledger = ledger();
+        final int slot = ledger.slotOf( ingredient.getName() );
+        // if there is no such ingredient or adding will cause unit overflow
+        if ( slot < 0 || ledger.amount( slot ) + amount > 100 ) {
+            // do not set the amount
+            return false;
         }
-        catch ( final NumberFormatException e ) {
-            throw new IllegalArgumentException( "Units of ingredient must be a positive integer" );
+        // set the new value by adding the passed amount to the old value
+        ledger.set( slot, ledger.amount( slot ) + amount );
+        return true;
+    }
+
+    /**
+     * Sets the amount of an ingredient outright, without the limits that
+     * updateIngredient places on restocking. Used to bring the Inventory in
+     * line with amounts that have already been checked elsewhere.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @param amount
+     *            the new amount
+     * @return true if the ingredient exists and was set
+     */
+    public boolean setIngredientAmount ( final String name, final int amount ) {
+        final InventoryLedger ledger = ledger();
+        final int slot = ledger.slotOf( name );
+        if ( slot < 0 ) {
+            return false;
         }
-        return false;
+        ledger.set( slot, amount );
+        return true;
     }
 
     /**
@@ -162,22 +258,8 @@ public class Inventory extends DomainObject {
      * @return true if enough ingredients to make the beverage
      */
     public boolean enoughIngredients ( final Recipe r ) {
-        boolean isEnough = true;
-        // for every ingredient associated with a recipe
-        for ( final Ingredient ingredient : r.getIngredients() ) {
-            // find it in the inventory and check if there is enough
-            for ( final Ingredient i : ingredients ) {
-                if ( i.getName() == ingredient.getName() ) {
-                    if ( i.getAmount() < ingredient.getAmount() ) {
-                        System.out.println( "INVEN " + i.getAmount() + i.getName() + " AND RECIPE "
-                                + ingredient.getAmount() + ingredient.getName() );
-                        isEnough = false;
-                    }
-                }
-
-            }
-        }
-        return isEnough;
+        final InventoryLedger ledger = ledger();
+        return ledger.findShortLine( r.compileFor( ledger ) ) < 0;
     }
 
     /**
@@ -189,22 +271,13 @@ public class Inventory extends DomainObject {
      * @return true if recipe is made.
      */
     public boolean useIngredients ( final Recipe r ) {
-        // for every ingredient in the recipe.
-        if ( enoughIngredients( r ) ) {
-            for ( final Ingredient ingredient : r.getIngredients() ) {
-                for ( final Ingredient i : ingredients ) {
-                    if ( i.getName().equals( ingredient.getName() ) ) {
-                        final Integer newAmount = i.getAmount() - ingredient.getAmount();
-                        i.setAmount( newAmount );
-                    }
-                }
-            }
-
-            return true;
-        }
-        else {
+        final InventoryLedger ledger = ledger();
+        final BillOfMaterials bom = r.compileFor( ledger );
+        if ( ledger.findShortLine( bom ) >= 0 ) {
             return false;
         }
+        ledger.consume( bom );
+        return true;
     }
 
     /**
@@ -227,6 +300,7 @@ public class Inventory extends DomainObject {
             return -2;
         }
         final Ingredient i = new Ingredient( name, amt );
+        ledger().append( i );
         ingredients.add( i );
 
         return 0;
@@ -245,13 +319,52 @@ public class Inventory extends DomainObject {
      *         there is no ingredient with that name in the list
      */
     public boolean checkDuplicateName ( final String ingredient ) {
-        for ( final Ingredient i : ingredients ) {
-            if ( i.getName().toLowerCase().equals( ingredient.toLowerCase() ) ) {
-                return true;
+        return ledger().containsIgnoreCase( ingredient );
+    }
+
+    /**
+     * Returns the index over the ingredient list, building it if the list has
+     * been loaded since the index was last built. Rebuilding keeps the point
+     * that changes are measured from.
+     *
+     * @return the ledger for this inventory
+     */
+    private InventoryLedger ledger () {
+        if ( ledger == null ) {
+            ledger = new InventoryLedger( ingredients );
+        }
+        else if ( ledger.size() != ingredients.size() ) {
+            ledger = new InventoryLedger( ingredients, ledger );
+        }
+        return ledger;
+    }
+
+    /**
+     * Returns how much each ingredient has changed since the Inventory was
+     * loaded or last settled. An ingredient added since then counts its whole
+     * amount as a change.
+     *
+     * @return an Ingredient for each ingredient that changed, holding the
+     *         change rather than the amount
+     */
+    public List<Ingredient> changes () {
+        final InventoryLedger ledger = ledger();
+        final List<Ingredient> changes = new ArrayList<Ingredient>();
+        for ( int slot = 0; slot < ledger.size(); slot++ ) {
+            final int change = ledger.change( slot );
+            if ( change != 0 ) {
+                changes.add( new Ingredient( ledger.ingredient( slot ).getName(), change ) );
             }
         }
+        return changes;
+    }
 
-        return false;
+    /**
+     * Takes the current amounts as the point that changes are measured from.
+     * Call this once the Inventory has been saved.
+     */
+    public void settle () {
+        ledger().settle();
     }
 
     /**
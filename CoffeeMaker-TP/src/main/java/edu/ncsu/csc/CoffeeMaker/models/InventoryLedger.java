@@ -0,0 +1,288 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Name-indexed view over the Ingredients held by an Inventory. Every
+ * Ingredient is given a slot when it is indexed, and its amount is mirrored
+ * into a primitive array, so looking up or deducting an ingredient is a single
+ * hash probe followed by an array access. Changes made through the ledger are
+ * written back to the underlying Ingredient so that Hibernate persists them as
+ * usual.
+ */
+public class InventoryLedger {
+
+    /** Initial number of slots when the ledger is empty */
+    private static final int           DEFAULT_CAPACITY = 16;
+
+    /** Ingredient name to slot */
+    private final Map<String, Integer> slots;
+
+    /** Lower-cased ingredient name to slot, for duplicate checks */
+    private final Map<String, Integer> foldedSlots;
+
+    /** The Ingredient that backs each slot */
+    private Ingredient[]               entries;
+
+    /** The amount of each slot */
+    private int[]                      amounts;
+
+    /** The amount of each slot when last settled; 0 for slots added since */
+    private int[]                      baseline;
+
+    /** Number of slots in use */
+    private int                        size;
+
+    /**
+     * Identity of the current slot layout. Replaced whenever a slot is added,
+     * which makes every BillOfMaterials compiled against this ledger stale.
+     */
+    private Object                     layout           = new Object();
+
+    /**
+     * Indexes the provided ingredients. If more than one ingredient shares a
+     * name, the first one wins, which matches how Inventory has always looked
+     * ingredients up.
+     *
+     * @param ingredients
+     *            the ingredients of the inventory
+     */
+    public InventoryLedger ( final List<Ingredient> ingredients ) {
+        final int capacity = Math.max( DEFAULT_CAPACITY, ingredients.size() );
+        slots = new HashMap<String, Integer>( capacity * 2 );
+        foldedSlots = new HashMap<String, Integer>( capacity * 2 );
+        entries = new Ingredient[capacity];
+        amounts = new int[capacity];
+        baseline = new int[capacity];
+        for ( final Ingredient i : ingredients ) {
+            append( i );
+        }
+        settle();
+    }
+
+    /**
+     * Indexes the provided ingredients again after they were changed without
+     * going through the ledger, keeping the point that changes are measured
+     * from. An ingredient the previous ledger held keeps its baseline, so
+     * whatever was done to it since is still a change; one it did not hold
+     * counts its whole amount as a change.
+     *
+     * @param ingredients
+     *            the ingredients of the inventory
+     * @param previous
+     *            the ledger being replaced
+     */
+    public InventoryLedger ( final List<Ingredient> ingredients, final InventoryLedger previous ) {
+        this( ingredients );
+        for ( int slot = 0; slot < size; slot++ ) {
+            final int old = previous.slotOf( entries[slot].getName() );
+            baseline[slot] = old < 0 ? 0 : previous.baseline[old];
+        }
+    }
+
+    /**
+     * Returns the number of slots in the ledger.
+     *
+     * @return the number of indexed ingredients
+     */
+    public int size () {
+        return size;
+    }
+
+    /**
+     * Returns the identity of the current slot layout.
+     *
+     * @return the layout
+     */
+    Object layout () {
+        return layout;
+    }
+
+    /**
+     * Returns the slot of the ingredient with the given name.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @return the slot, or -1 if there is no ingredient by that name
+     */
+    public int slotOf ( final String name ) {
+        final Integer slot = slots.get( name );
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Checks whether an ingredient with the given name is indexed, ignoring
+     * case.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @return true if an ingredient with that name exists
+     */
+    public boolean containsIgnoreCase ( final String name ) {
+        return name != null && foldedSlots.containsKey( name.toLowerCase() );
+    }
+
+    /**
+     * Returns the amount held in a slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the amount
+     */
+    public int amount ( final int slot ) {
+        return amounts[slot];
+    }
+
+    /**
+     * Returns the Ingredient that backs a slot.
+     *
+     * @param slot
+     *            the slot
+     * @return the Ingredient
+     */
+    public Ingredient ingredient ( final int slot ) {
+        return entries[slot];
+    }
+
+    /**
+     * Sets the amount held in a slot and writes it back to the Ingredient.
+     *
+     * @param slot
+     *            the slot
+     * @param amount
+     *            the new amount
+     */
+    public void set ( final int slot, final int amount ) {
+        amounts[slot] = amount;
+        entries[slot].setAmount( amount );
+    }
+
+    /**
+     * Returns how much the amount in a slot has changed since the ledger was
+     * built or last settled. A slot added since then counts its whole amount
+     * as a change.
+     *
+     * @param slot
+     *            the slot
+     * @return the change in the amount
+     */
+    public int change ( final int slot ) {
+        return amounts[slot] - baseline[slot];
+    }
+
+    /**
+     * Takes the current amounts as the point that later changes are measured
+     * from, as once they have been saved.
+     */
+    public void settle () {
+        System.arraycopy( amounts, 0, baseline, 0, size );
+    }
+
+    /**
+     * Indexes a new Ingredient at the end of the ledger.
+     *
+     * @param ingredient
+     *            the ingredient to index
+     * @return the slot given to the ingredient
+     */
+    public int append ( final Ingredient ingredient ) {
+        if ( size == entries.length ) {
+            final int capacity = entries.length * 2;
+            final Ingredient[] grownEntries = new Ingredient[capacity];
+            final int[] grownAmounts = new int[capacity];
+            final int[] grownBaseline = new int[capacity];
+            System.arraycopy( entries, 0, grownEntries, 0, size );
+            System.arraycopy( amounts, 0, grownAmounts, 0, size );
+            System.arraycopy( baseline, 0, grownBaseline, 0, size );
+            entries = grownEntries;
+            amounts = grownAmounts;
+            baseline = grownBaseline;
+        }
+        final int slot = size++;
+        layout = new Object();
+        entries[slot] = ingredient;
+        amounts[slot] = ingredient.getAmount() == null ? 0 : ingredient.getAmount();
+        baseline[slot] = 0;
+        slots.putIfAbsent( ingredient.getName(), slot );
+        if ( ingredient.getName() != null ) {
+            foldedSlots.putIfAbsent( ingredient.getName().toLowerCase(), slot );
+        }
+        return slot;
+    }
+
+    /**
+     * Compiles a recipe against the current slot layout.
+     *
+     * @param recipe
+     *            the recipe to compile
+     * @return the recipe's bill of materials
+     */
+    public BillOfMaterials compile ( final Recipe recipe ) {
+        final int[] slotsOut = new int[recipe.getIngredients().size()];
+        final int[] amountsOut = new int[slotsOut.length];
+        int count = 0;
+        for ( final Ingredient line : recipe.getIngredients() ) {
+            final int slot = slotOf( line.getName() );
+            if ( slot < 0 ) {
+                continue;
+            }
+            // insert in slot order, merging repeated ingredients
+            int n = count;
+            while ( n > 0 && slotsOut[n - 1] > slot ) {
+                n--;
+            }
+            if ( n > 0 && slotsOut[n - 1] == slot ) {
+                amountsOut[n - 1] += line.getAmount();
+                continue;
+            }
+            System.arraycopy( slotsOut, n, slotsOut, n + 1, count - n );
+            System.arraycopy( amountsOut, n, amountsOut, n + 1, count - n );
+            slotsOut[n] = slot;
+            amountsOut[n] = line.getAmount();
+            count++;
+        }
+
+        final Long[] ids = new Long[count];
+        final String[] names = new String[count];
+        for ( int n = 0; n < count; n++ ) {
+            ids[n] = entries[slotsOut[n]].getId();
+            names[n] = entries[slotsOut[n]].getName();
+        }
+        return new BillOfMaterials( layout, Arrays.copyOf( slotsOut, count ), Arrays.copyOf( amountsOut, count ), ids,
+                names );
+    }
+
+    /**
+     * Finds the first line of a bill of materials that the ledger does not
+     * hold enough of.
+     *
+     * @param bom
+     *            a bill of materials compiled against this ledger
+     * @return the short line, or -1 if every line is covered
+     */
+    public int findShortLine ( final BillOfMaterials bom ) {
+        for ( int n = 0; n < bom.size(); n++ ) {
+            if ( amounts[bom.slot( n )] < bom.amount( n ) ) {
+                return n;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Deducts every line of a bill of materials, without checking that there
+     * is enough.
+     *
+     * @param bom
+     *            a bill of materials compiled against this ledger
+     */
+    public void consume ( final BillOfMaterials bom ) {
+        for ( int n = 0; n < bom.size(); n++ ) {
+            set( bom.slot( n ), amounts[bom.slot( n )] - bom.amount( n ) );
+        }
+    }
+
+}
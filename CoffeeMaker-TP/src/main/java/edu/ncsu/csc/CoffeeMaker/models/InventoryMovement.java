@@ -0,0 +1,149 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * One change to the amount of one ingredient in one location's Inventory.
+ * Movements are only ever appended, never changed, so together they form the
+ * history of every Inventory; the amount of an ingredient is the sum of its
+ * movements. Ids are handed out in the order movements are written, so
+ * replaying movements in id order reproduces the Inventory.
+ *
+ */
+@Entity
+@Table ( name = "inventory_movement", indexes = { @Index ( columnList = "location,id" ) } )
+public class InventoryMovement extends DomainObject {
+
+    /** id of the movement, increasing in the order movements are written */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.AUTO )
+    private Long    id;
+
+    /** Location of the Inventory, or null for the default Inventory */
+    private String  location;
+
+    /** Name of the ingredient */
+    @Column ( nullable = false )
+    private String  ingredient;
+
+    /** Change in the amount; negative when the ingredient was used up */
+    private int     delta;
+
+    /** What caused the movement */
+    @Enumerated ( EnumType.STRING )
+    @Column ( nullable = false )
+    private Kind    kind;
+
+    /** When the movement was recorded */
+    @Column ( nullable = false )
+    private Instant recorded;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public InventoryMovement () {
+        // Intentionally empty so that Hibernate can instantiate
+        // InventoryMovement object.
+    }
+
+    /**
+     * Creates a movement recorded now.
+     *
+     * @param location
+     *            location of the Inventory, or null for the default Inventory
+     * @param ingredient
+     *            name of the ingredient
+     * @param delta
+     *            change in the amount
+     * @param kind
+     *            what caused the movement
+     */
+    public InventoryMovement ( final String location, final String ingredient, final int delta, final Kind kind ) {
+        this.location = location;
+        this.ingredient = ingredient;
+        this.delta = delta;
+        this.kind = kind;
+        this.recorded = Instant.now();
+    }
+
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the location of the Inventory.
+     *
+     * @return the location, or null for the default Inventory
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Returns the name of the ingredient.
+     *
+     * @return the ingredient
+     */
+    public String getIngredient () {
+        return ingredient;
+    }
+
+    /**
+     * Returns the change in the amount.
+     *
+     * @return the delta
+     */
+    public int getDelta () {
+        return delta;
+    }
+
+    /**
+     * Returns what caused the movement.
+     *
+     * @return the kind
+     */
+    public Kind getKind () {
+        return kind;
+    }
+
+    /**
+     * Returns when the movement was recorded.
+     *
+     * @return the time
+     */
+    public Instant getRecorded () {
+        return recorded;
+    }
+
+    @Override
+    public String toString () {
+        return "InventoryMovement [id=" + id + ", location=" + location + ", ingredient=" + ingredient + ", delta="
+                + delta + ", kind=" + kind + "]";
+    }
+
+    /**
+     * What caused a movement.
+     */
+    public enum Kind {
+
+        /** Ingredients were delivered or added */
+        RESTOCK,
+        /** Ingredients were used to make a recipe */
+        BREW,
+        /** Any other correction to an amount */
+        ADJUSTMENT
+
+    }
+
+}
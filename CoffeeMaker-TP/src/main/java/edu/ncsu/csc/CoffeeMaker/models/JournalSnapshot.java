@@ -0,0 +1,121 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.MapKeyColumn;
+import javax.persistence.Table;
+
+/**
+ * The amounts of one location's Inventory as of a point in the movement
+ * journal: the sum of every InventoryMovement of the location up to and
+ * including movement `through`. The current amounts are this snapshot plus
+ * the movements after it, so restoring an Inventory only replays the tail of
+ * the journal.
+ *
+ */
+@Entity
+@Table ( name = "journal_snapshot", indexes = { @Index ( columnList = "location,through" ) } )
+public class JournalSnapshot extends DomainObject {
+
+    /** id of the snapshot */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.AUTO )
+    private Long                       id;
+
+    /** Location of the Inventory, or null for the default Inventory */
+    private String                     location;
+
+    /** id of the last movement included */
+    @Column ( nullable = false )
+    private Long                       through;
+
+    /** Amount of each ingredient, by name */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "journal_snapshot_amounts", joinColumns = @JoinColumn ( name = "snapshot_id" ) )
+    @MapKeyColumn ( name = "ingredient" )
+    @Column ( name = "amount" )
+    private final Map<String, Integer> amounts = new HashMap<String, Integer>();
+
+    /** When the snapshot was taken */
+    @Column ( nullable = false )
+    private Instant                    taken;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public JournalSnapshot () {
+        // Intentionally empty so that Hibernate can instantiate
+        // JournalSnapshot object.
+    }
+
+    /**
+     * Creates a snapshot taken now.
+     *
+     * @param location
+     *            location of the Inventory, or null for the default Inventory
+     * @param through
+     *            id of the last movement included
+     * @param amounts
+     *            amount of each ingredient; copied
+     */
+    public JournalSnapshot ( final String location, final Long through, final Map<String, Integer> amounts ) {
+        this.location = location;
+        this.through = through;
+        this.amounts.putAll( amounts );
+        this.taken = Instant.now();
+    }
+
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the location of the Inventory.
+     *
+     * @return the location, or null for the default Inventory
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Returns the id of the last movement included.
+     *
+     * @return the movement id
+     */
+    public Long getThrough () {
+        return through;
+    }
+
+    /**
+     * Returns the amount of each ingredient.
+     *
+     * @return amounts by ingredient name
+     */
+    public Map<String, Integer> getAmounts () {
+        return amounts;
+    }
+
+    /**
+     * Returns when the snapshot was taken.
+     *
+     * @return the time
+     */
+    public Instant getTaken () {
+        return taken;
+    }
+
+}
@@ -3,22 +3,36 @@
  */
 package edu.ncsu.csc.CoffeeMaker.models;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import javax.persistence.CascadeType;
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
 import javax.persistence.Entity;
 import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
-import javax.persistence.JoinTable;
-import javax.persistence.OneToMany;
-import javax.persistence.OneToOne;
+import javax.persistence.ManyToOne;
+import javax.persistence.OrderColumn;
 import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.persistence.Version;
 import javax.validation.constraints.Min;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
 /**
  * The Order class in which a User is able to place an order with their already
  * chosen recipes.
@@ -27,50 +41,116 @@ import javax.validation.constraints.Min;
  *
  */
 @Entity
-@Table ( name = "\"Order\"" )
+@Table ( name = "\"Order\"", indexes = { @Index ( columnList = "customer_id,id" ),
+        @Index ( columnList = "staff_id,id" ), @Index ( columnList = "status,id" ),
+        @Index ( columnList = "status,placed" ), @Index ( columnList = "placed,status" ),
+        @Index ( columnList = "completed" ), @Index ( columnList = "picked_up" ),
+        @Index ( columnList = "canceled" ) },
+        uniqueConstraints = @UniqueConstraint ( columnNames = { "customer_id", "idempotency_key" } ) )
 public class Order extends DomainObject {
 
     /** id for order entry. */
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
-    private Long               id;
+    private Long                  id;
+
+    /**
+     * Optimistic lock version, advanced by every change to the order so that a
+     * change made from an out-of-date copy is rejected
+     */
+    @Version
+    @Column ( nullable = false )
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Long                  version;
 
-    /** The recipes. */
-    @OneToMany ( cascade = CascadeType.MERGE, fetch = FetchType.EAGER, orphanRemoval = true )
-    @JoinTable ( name = "order_recipes", joinColumns = @JoinColumn ( name = "order_id" ),
-            inverseJoinColumns = @JoinColumn ( name = "recipe_id" ) )
-    private final List<Recipe> recipes;
+    /**
+     * What was ordered, one line per recipe. Lines are small rows of their
+     * own table, so loading an order does not load its recipes.
+     */
+    @ElementCollection ( fetch = FetchType.EAGER )
+    @CollectionTable ( name = "order_lines", joinColumns = @JoinColumn ( name = "order_id" ) )
+    @OrderColumn ( name = "line" )
+    private final List<OrderLine> lines;
 
     /** The status. */
-    private OrderStatus        status;
+    private OrderStatus           status;
 
     /** The status. */
-    private String             name;
+    private String                name;
+
+    /**
+     * The staff making the order. A member of staff may make any number of
+     * orders. Saving an order never writes to the staff, who must already be
+     * saved.
+     */
+    @ManyToOne
+    @JoinColumn ( name = "staff_id" )
+    private Staff                 staff;
+
+    /**
+     * The customer. A customer may place any number of orders. Saving an
+     * order never writes to the customer, who must already be saved.
+     */
+    @ManyToOne
+    @JoinColumn ( name = "customer_id" )
+    private Customer              customer;
+
+    /**
+     * The time the order was placed, as the customer's client gave it. Only
+     * for showing; queries use placed and the other server-set times.
+     */
+    private String                time;
+
+    /**
+     * When the order was created, used to filter orders by time. Unlike time,
+     * it is set by the server and cannot be changed by clients.
+     */
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Instant               placed;
+
+    /** When the order was started, or null if it has not been */
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Instant               started;
+
+    /** When the order was completed, or null if it has not been */
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Instant               completed;
 
-    /** The staff. */
-    @OneToOne ( orphanRemoval = true, cascade = CascadeType.ALL )
-    private Staff              staff;
+    /** When the order was picked up, or null if it has not been */
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Instant               pickedUp;
 
-    /** The customer. */
-    @OneToOne ( orphanRemoval = true, cascade = CascadeType.ALL )
-    private Customer           customer;
+    /** When the order was canceled, or null if it has not been */
+    @JsonProperty ( access = JsonProperty.Access.READ_ONLY )
+    private Instant               canceled;
 
-    /** The time the order was placed */
-    private String             time;
+    /**
+     * Key the customer's client sent when placing the order, so that a retried
+     * placement returns this order instead of placing another
+     */
+    @JsonIgnore
+    private String                idempotencyKey;
+
+    /**
+     * The store or machine the order is made at, or null for the default
+     * Inventory
+     */
+    private String                location;
 
     /** The total cost of the order */
     @Min ( 0 )
-    private Integer            totalCost;
+    private Integer               totalCost;
 
     /**
-     * Instantiates a new order. Name is set to blank, recipes list is
+     * Instantiates a new order. Name is set to blank, lines list is
      * instantiated, and the order status is set to 'not started.'
      */
     public Order () {
         this.name = "";
-        this.recipes = new ArrayList<Recipe>();
+        this.lines = new ArrayList<OrderLine>();
         this.status = OrderStatus.NOT_STARTED;
         this.totalCost = 0;
+        this.placed = Instant.now();
 
     }
 
@@ -78,7 +158,7 @@ public class Order extends DomainObject {
      * Instantiates a new order.
      *
      * @param recipes
-     *            the recipe that starts the order
+     *            the recipes ordered, one per drink
      * @param time
      *            the time the order is placed
      */
@@ -86,8 +166,18 @@ public class Order extends DomainObject {
         this.name = "";
         setTime( time );
         setStatus( OrderStatus.NOT_STARTED );
-        this.recipes = recipes;
-        setTotalCost();
+        this.lines = new ArrayList<OrderLine>();
+        this.placed = Instant.now();
+        setRecipes( recipes );
+    }
+
+    /**
+     * Returns the optimistic lock version of the order.
+     *
+     * @return the version, or null if it has never been saved
+     */
+    public Long getVersion () {
+        return version;
     }
 
     /**
@@ -115,12 +205,9 @@ public class Order extends DomainObject {
      * @return the total price
      */
     private int setTotalCost () {
-        if ( recipes == null ) {
-            throw new IllegalArgumentException( "Invalid order" );
-        }
         Integer total = 0;
-        for ( final Recipe recipe : recipes ) {
-            total += recipe.getPrice();
+        for ( final OrderLine line : lines ) {
+            total += line.getCost();
         }
         totalCost = total;
         return total;
@@ -148,6 +235,58 @@ public class Order extends DomainObject {
         this.status = status;
     }
 
+    /**
+     * Sets the status, and records when the order reached it.
+     *
+     * @param status
+     *            the new status
+     * @param at
+     *            when the order reached it
+     */
+    public void setStatus ( final OrderStatus status, final Instant at ) {
+        setStatus( status );
+        switch ( status ) {
+            case NOT_STARTED:
+                placed = at;
+                break;
+            case IN_PROGRESS:
+                started = at;
+                break;
+            case COMPLETED:
+                completed = at;
+                break;
+            case PICKED_UP:
+                pickedUp = at;
+                break;
+            default: // CANCELED
+                canceled = at;
+                break;
+        }
+    }
+
+    /**
+     * Gets when the order reached a status.
+     *
+     * @param status
+     *            the status
+     * @return the time, or null if the order has not reached it or the time
+     *         was not recorded
+     */
+    public Instant getReached ( final OrderStatus status ) {
+        switch ( status ) {
+            case NOT_STARTED:
+                return placed;
+            case IN_PROGRESS:
+                return started;
+            case COMPLETED:
+                return completed;
+            case PICKED_UP:
+                return pickedUp;
+            default: // CANCELED
+                return canceled;
+        }
+    }
+
     /**
      * Gets the staff.
      *
@@ -209,14 +348,156 @@ public class Order extends DomainObject {
     }
 
     /**
-     * Gets the recipes.
+     * Gets the location the order is made at.
+     *
+     * @return the location, or null for the default Inventory
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Sets the location the order is made at.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    public void setLocation ( final String location ) {
+        this.location = location;
+    }
+
+    /**
+     * Gets when the order was created.
+     *
+     * @return the time, or null for orders created before it was recorded
+     */
+    public Instant getPlaced () {
+        return placed;
+    }
+
+    /**
+     * Gets when the order was started.
+     *
+     * @return the time, or null if it has not been
+     */
+    public Instant getStarted () {
+        return started;
+    }
+
+    /**
+     * Gets when the order was completed.
+     *
+     * @return the time, or null if it has not been
+     */
+    public Instant getCompleted () {
+        return completed;
+    }
+
+    /**
+     * Gets when the order was picked up.
+     *
+     * @return the time, or null if it has not been
+     */
+    public Instant getPickedUp () {
+        return pickedUp;
+    }
+
+    /**
+     * Gets when the order was canceled.
+     *
+     * @return the time, or null if it has not been
+     */
+    public Instant getCanceled () {
+        return canceled;
+    }
+
+    /**
+     * Returns the key the client sent when placing the order.
+     *
+     * @return the key, or null if none was sent
+     */
+    public String getIdempotencyKey () {
+        return idempotencyKey;
+    }
+
+    /**
+     * Sets the key the client sent when placing the order.
+     *
+     * @param idempotencyKey
+     *            the key, or null
+     */
+    public void setIdempotencyKey ( final String idempotencyKey ) {
+        this.idempotencyKey = idempotencyKey;
+    }
+
+    /**
+     * Gets the lines of the order.
+     *
+     * @return the lines
+     */
+    public List<OrderLine> getLines () {
+        return lines;
+    }
+
+    /**
+     * Replaces the lines of the order, and works out its total from them.
+     *
+     * @param lines
+     *            the new lines
+     */
+    public void setLines ( final List<OrderLine> lines ) {
+        if ( lines == null ) {
+            throw new IllegalArgumentException( "Invalid order" );
+        }
+        final List<OrderLine> copy = new ArrayList<OrderLine>( lines );
+        this.lines.clear();
+        this.lines.addAll( copy );
+        setTotalCost();
+    }
+
+    /**
+     * Gets the recipes ordered, one per drink, so a recipe ordered twice is
+     * in the list twice. This loads the recipes; use getLines where the name,
+     * price and quantity are enough.
      *
      * @return the recipes
      */
+    @JsonIgnore
     public List<Recipe> getRecipes () {
+        final List<Recipe> recipes = new ArrayList<Recipe>();
+        for ( final OrderLine line : lines ) {
+            for ( int n = 0; n < line.getQuantity(); n++ ) {
+                recipes.add( line.getRecipe() );
+            }
+        }
         return recipes;
     }
 
+    /**
+     * Sets what was ordered from a list of recipes, one per drink. Repeats of
+     * a recipe become one line with a quantity.
+     *
+     * @param recipes
+     *            the recipes ordered
+     */
+    @JsonProperty ( "recipes" )
+    public void setRecipes ( final List<Recipe> recipes ) {
+        if ( recipes == null ) {
+            throw new IllegalArgumentException( "Invalid order" );
+        }
+        final Map<String, Recipe> byName = new LinkedHashMap<String, Recipe>();
+        final Map<String, Integer> counts = new HashMap<String, Integer>();
+        for ( final Recipe recipe : recipes ) {
+            byName.putIfAbsent( recipe.getName(), recipe );
+            counts.merge( recipe.getName(), 1, Integer::sum );
+        }
+        final List<OrderLine> merged = new ArrayList<OrderLine>( byName.size() );
+        for ( final Recipe recipe : byName.values() ) {
+            merged.add( new OrderLine( recipe, counts.get( recipe.getName() ) ) );
+        }
+        setLines( merged );
+    }
+
     /**
      * The total cost
      *
@@ -234,8 +515,8 @@ public class Order extends DomainObject {
     @Override
     public String toString () {
         String tempString = "Order id is " + getId();
-        for ( final Recipe recipe : recipes ) {
-            tempString += "\n\t " + recipe.getName();
+        for ( final OrderLine line : lines ) {
+            tempString += "\n\t " + line.getQuantity() + " x " + line.getName();
         }
         return tempString;
     }
@@ -262,7 +543,9 @@ public class Order extends DomainObject {
 
     /**
      *
-     * The Enum OrderStatus.
+     * The Enum OrderStatus. An order moves through the statuses along the
+     * transitions in NEXT and nowhere else: it is started, completed and
+     * picked up, and may be canceled until it is completed.
      */
     public enum OrderStatus {
 
@@ -275,7 +558,30 @@ public class Order extends DomainObject {
         /** The picked up. */
         PICKED_UP,
         /** The canceled. */
-        CANCELED
+        CANCELED;
+
+        /** The statuses each status may move to */
+        private static final Map<OrderStatus, Set<OrderStatus>> NEXT = new EnumMap<OrderStatus, Set<OrderStatus>>(
+                OrderStatus.class );
+
+        static {
+            NEXT.put( NOT_STARTED, EnumSet.of( IN_PROGRESS, CANCELED ) );
+            NEXT.put( IN_PROGRESS, EnumSet.of( COMPLETED, CANCELED ) );
+            NEXT.put( COMPLETED, EnumSet.of( PICKED_UP ) );
+            NEXT.put( PICKED_UP, EnumSet.noneOf( OrderStatus.class ) );
+            NEXT.put( CANCELED, EnumSet.noneOf( OrderStatus.class ) );
+        }
+
+        /**
+         * Checks whether an order with this status may move to another.
+         *
+         * @param next
+         *            the status to move to
+         * @return true if the transition is allowed
+         */
+        public boolean canBecome ( final OrderStatus next ) {
+            return next != null && NEXT.get( this ).contains( next );
+        }
 
     }
 }
@@ -0,0 +1,137 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import javax.persistence.Embeddable;
+import javax.persistence.FetchType;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.validation.constraints.Min;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * One line of an Order: a recipe and how many of it were ordered. The name
+ * and price of the recipe are copied onto the line when it is created, so
+ * showing an order or working out its total never needs the recipe, and
+ * repricing a recipe does not change orders already placed. The recipe itself
+ * is only loaded when the drinks are made.
+ *
+ */
+@Embeddable
+public class OrderLine {
+
+    /** The recipe ordered */
+    @ManyToOne ( fetch = FetchType.LAZY )
+    @JoinColumn ( name = "recipe_id" )
+    @JsonIgnore
+    private Recipe  recipe;
+
+    /** Name of the recipe when it was ordered */
+    private String  name;
+
+    /** Price of one of the recipe when it was ordered */
+    @Min ( 0 )
+    private Integer price;
+
+    /** How many were ordered */
+    @Min ( 1 )
+    private Integer quantity;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public OrderLine () {
+        // Intentionally empty so that Hibernate can instantiate
+        // OrderLine object.
+    }
+
+    /**
+     * Creates a line for a recipe, taking its current name and price.
+     *
+     * @param recipe
+     *            the recipe ordered
+     * @param quantity
+     *            how many were ordered
+     */
+    public OrderLine ( final Recipe recipe, final int quantity ) {
+        if ( recipe == null || quantity < 1 ) {
+            throw new IllegalArgumentException( "Invalid order line" );
+        }
+        this.recipe = recipe;
+        this.name = recipe.getName();
+        this.price = recipe.getPrice();
+        this.quantity = quantity;
+    }
+
+    /**
+     * Creates a line for a recipe whose name and price are already known, so
+     * that the recipe need not be loaded.
+     *
+     * @param recipe
+     *            the recipe ordered, which may be a reference that has not
+     *            been loaded
+     * @param name
+     *            the current name of the recipe
+     * @param price
+     *            the current price of one of the recipe
+     * @param quantity
+     *            how many were ordered
+     */
+    public OrderLine ( final Recipe recipe, final String name, final Integer price, final int quantity ) {
+        if ( recipe == null || name == null || price == null || quantity < 1 ) {
+            throw new IllegalArgumentException( "Invalid order line" );
+        }
+        this.recipe = recipe;
+        this.name = name;
+        this.price = price;
+        this.quantity = quantity;
+    }
+
+    /**
+     * Returns the recipe ordered. For an order that has been saved, this loads
+     * the recipe.
+     *
+     * @return the recipe
+     */
+    public Recipe getRecipe () {
+        return recipe;
+    }
+
+    /**
+     * Returns the name of the recipe when it was ordered.
+     *
+     * @return the name
+     */
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * Returns the price of one of the recipe when it was ordered.
+     *
+     * @return the price
+     */
+    public Integer getPrice () {
+        return price;
+    }
+
+    /**
+     * Returns how many were ordered.
+     *
+     * @return the quantity
+     */
+    public Integer getQuantity () {
+        return quantity;
+    }
+
+    /**
+     * Returns the cost of the line. A line sent by a client has no price until
+     * the order is placed, and costs nothing until then.
+     *
+     * @return the price times the quantity
+     */
+    @JsonIgnore
+    public int getCost () {
+        return price == null || quantity == null ? 0 : price * quantity;
+    }
+
+}
@@ -0,0 +1,217 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+
+/**
+ * What order listings show of an order: its keys, status, customer, cost and
+ * the name, price and quantity of each line. Summaries are read with a
+ * projection query rather than by loading Orders, so listing orders does not
+ * load their customers or staff. Get the order itself for anything more.
+ *
+ */
+public class OrderSummary {
+
+    /** id of the order */
+    private final Long        id;
+
+    /** Public key of the order */
+    private final String      name;
+
+    /** Its status */
+    private final OrderStatus status;
+
+    /** Name of the customer who placed it, or null */
+    private final String      customer;
+
+    /** The time the customer placed it, as they gave it */
+    private final String      time;
+
+    /** When the order was created, or null if that was not recorded */
+    private final Instant     placed;
+
+    /** The store or machine it is made at, or null for the default */
+    private final String      location;
+
+    /** The total cost of the order */
+    private final Integer     totalCost;
+
+    /** One line per recipe ordered */
+    private final List<Line>  lines   = new ArrayList<Line>();
+
+    /**
+     * Creates a summary with no lines. Used by the projection queries of
+     * OrderRepository.
+     *
+     * @param id
+     *            the id of the order
+     * @param name
+     *            the name of the order
+     * @param status
+     *            its status
+     * @param customer
+     *            the name of its customer, or null
+     * @param time
+     *            the time it was placed, as the customer gave it
+     * @param placed
+     *            when it was created
+     * @param location
+     *            where it is made
+     * @param totalCost
+     *            its total cost
+     */
+    public OrderSummary ( final Long id, final String name, final OrderStatus status, final String customer,
+            final String time, final Instant placed, final String location, final Integer totalCost ) {
+        this.id = id;
+        this.name = name;
+        this.status = status;
+        this.customer = customer;
+        this.time = time;
+        this.placed = placed;
+        this.location = location;
+        this.totalCost = totalCost;
+    }
+
+    /**
+     * Returns the id of the order.
+     *
+     * @return the id
+     */
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the public key of the order.
+     *
+     * @return the name
+     */
+    public String getName () {
+        return name;
+    }
+
+    /**
+     * Returns the status of the order.
+     *
+     * @return the status
+     */
+    public OrderStatus getStatus () {
+        return status;
+    }
+
+    /**
+     * Returns the name of the customer who placed the order.
+     *
+     * @return the name, or null
+     */
+    public String getCustomer () {
+        return customer;
+    }
+
+    /**
+     * Returns the time the customer placed the order, as they gave it.
+     *
+     * @return the time
+     */
+    public String getTime () {
+        return time;
+    }
+
+    /**
+     * Returns when the order was created.
+     *
+     * @return the time, or null for orders created before it was recorded
+     */
+    public Instant getPlaced () {
+        return placed;
+    }
+
+    /**
+     * Returns the store or machine the order is made at.
+     *
+     * @return the location, or null for the default
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Returns the total cost of the order.
+     *
+     * @return the total cost
+     */
+    public Integer getTotalCost () {
+        return totalCost;
+    }
+
+    /**
+     * Returns the recipes ordered, one line each.
+     *
+     * @return the lines
+     */
+    public List<Line> getLines () {
+        return lines;
+    }
+
+    /**
+     * A recipe ordered, as it was priced when it was ordered.
+     */
+    public static final class Line {
+
+        /** Name of the recipe */
+        private final String  name;
+
+        /** Price of one */
+        private final Integer price;
+
+        /** How many were ordered */
+        private final Integer quantity;
+
+        /**
+         * Creates a line.
+         *
+         * @param name
+         *            the name of the recipe
+         * @param price
+         *            the price of one
+         * @param quantity
+         *            how many were ordered
+         */
+        public Line ( final String name, final Integer price, final Integer quantity ) {
+            this.name = name;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        /**
+         * Returns the name of the recipe.
+         *
+         * @return the name
+         */
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * Returns the price of one of the recipe.
+         *
+         * @return the price
+         */
+        public Integer getPrice () {
+            return price;
+        }
+
+        /**
+         * Returns how many were ordered.
+         *
+         * @return the quantity
+         */
+        public Integer getQuantity () {
+            return quantity;
+        }
+    }
+
+}
@@ -27,21 +27,27 @@ public class Recipe extends DomainObject {
     /** Recipe id */
     @Id
     @GeneratedValue ( strategy = GenerationType.AUTO )
-    private Long                   id;
+    private Long                      id;
 
     /** Recipe name */
-    private String                 name;
+    private String                    name;
 
     /** Recipe price */
     @Min ( 0 )
-    private Integer                price;
+    private Integer                   price;
 
     /** Ingredients List */
     @OneToMany ( cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true )
     // @JoinTable ( name = "recipe_ingredients", joinColumns = @JoinColumn (
     // name = "recipe_id" ),
     // inverseJoinColumns = @JoinColumn ( name = "ingredient_id" ) )
-    private final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+    private final List<Ingredient>    ingredients = new ArrayList<Ingredient>();
+
+    /**
+     * The ingredients compiled against an inventory's slot layout. Not
+     * persisted; dropped whenever the ingredients change.
+     */
+    private transient BillOfMaterials billOfMaterials;
 
     /**
      * Creates a default recipe for the coffee maker.
@@ -118,6 +124,25 @@ public class Recipe extends DomainObject {
      */
     public void addIngredient ( final Ingredient ingredient ) {
         ingredients.add( ingredient );
+        billOfMaterials = null;
+    }
+
+    /**
+     * Returns the bill of materials of this recipe for the given inventory
+     * ledger, compiling it only if the recipe or the ledger's layout has
+     * changed since it was last compiled.
+     *
+     * @param ledger
+     *            the ledger of the inventory the recipe will be made from
+     * @return the bill of materials
+     */
+    public BillOfMaterials compileFor ( final InventoryLedger ledger ) {
+        final BillOfMaterials compiled = billOfMaterials;
+        if ( compiled != null && compiled.isCompiledFor( ledger ) ) {
+            return compiled;
+        }
+        billOfMaterials = ledger.compile( this );
+        return billOfMaterials;
     }
 
     /**
@@ -200,6 +225,7 @@ public class Recipe extends DomainObject {
         for ( final Ingredient i : newList ) {
             ingredients.add( i );
         }
+        billOfMaterials = null;
 
     }
 
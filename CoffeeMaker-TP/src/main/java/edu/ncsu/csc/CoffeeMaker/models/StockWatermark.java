@@ -0,0 +1,106 @@
+package edu.ncsu.csc.CoffeeMaker.models;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * The low-stock watermark of one ingredient in one location's Inventory. Once
+ * the amount of the ingredient falls to the watermark or below, it is low on
+ * stock and staff are told so.
+ *
+ */
+@Entity
+@Table ( name = "stock_watermark", uniqueConstraints = @UniqueConstraint ( columnNames = { "location",
+        "ingredient" } ) )
+public class StockWatermark extends DomainObject {
+
+    /** id of the watermark */
+    @Id
+    @GeneratedValue ( strategy = GenerationType.AUTO )
+    private Long   id;
+
+    /** Location of the Inventory, or null for the default Inventory */
+    private String location;
+
+    /** Name of the ingredient */
+    @Column ( nullable = false )
+    private String ingredient;
+
+    /** Amount at or below which the ingredient is low on stock */
+    private int    level;
+
+    /**
+     * Empty constructor for Hibernate
+     */
+    public StockWatermark () {
+        // Intentionally empty so that Hibernate can instantiate
+        // StockWatermark object.
+    }
+
+    /**
+     * Creates a watermark.
+     *
+     * @param location
+     *            location of the Inventory, or null for the default Inventory
+     * @param ingredient
+     *            name of the ingredient
+     * @param level
+     *            amount at or below which the ingredient is low on stock
+     */
+    public StockWatermark ( final String location, final String ingredient, final int level ) {
+        this.location = location;
+        this.ingredient = ingredient;
+        setLevel( level );
+    }
+
+    @Override
+    public Long getId () {
+        return id;
+    }
+
+    /**
+     * Returns the location of the Inventory.
+     *
+     * @return the location, or null for the default Inventory
+     */
+    public String getLocation () {
+        return location;
+    }
+
+    /**
+     * Returns the name of the ingredient.
+     *
+     * @return the ingredient
+     */
+    public String getIngredient () {
+        return ingredient;
+    }
+
+    /**
+     * Returns the amount at or below which the ingredient is low on stock.
+     *
+     * @return the level
+     */
+    public int getLevel () {
+        return level;
+    }
+
+    /**
+     * Sets the amount at or below which the ingredient is low on stock.
+     *
+     * @param level
+     *            the level
+     */
+    public void setLevel ( final int level ) {
+        if ( level < 0 ) {
+            throw new IllegalArgumentException( "Watermark must be a positive integer" );
+        }
+        this.level = level;
+    }
+
+}
@@ -0,0 +1,78 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.models.ArchivedOrder;
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+
+/**
+ * ArchivedOrderRepository is used to provide CRUD operations for the
+ * ArchivedOrder model. Spring will generate appropriate code with JPA.
+ *
+ */
+public interface ArchivedOrderRepository extends JpaRepository<ArchivedOrder, Long> {
+
+    /**
+     * Finds an archived order by its name.
+     *
+     * @param name
+     *            the name the order had while it was live
+     * @return the order, or null if there is none
+     */
+    ArchivedOrder findByName ( String name );
+
+    /**
+     * Finds a page of a customer's archived orders, newest first, seeking past
+     * the last order of the previous page. Backed by the index on the customer
+     * and order id.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for both
+     * @param before
+     *            only orders with a smaller id are returned
+     * @param page
+     *            how many orders to return
+     * @return the orders
+     */
+    @Query ( "select a from ArchivedOrder a where a.customer = :customer and ( :status is null or a.status = :status )"
+            + " and a.id < :before order by a.id desc" )
+    List<ArchivedOrder> findHistory ( @Param ( "customer" ) Customer customer, @Param ( "status" ) OrderStatus status,
+            @Param ( "before" ) Long before, Pageable page );
+
+    /**
+     * Counts the archived orders placed in a range of time, by status, in one
+     * query. Read from the index on placement time and status alone.
+     *
+     * @param from
+     *            only orders placed at or after this time are counted
+     * @param to
+     *            only orders placed before this time are counted
+     * @return one row per status that has orders: the status, then the number
+     *         of orders
+     */
+    @Query ( "select a.status, count( a ) from ArchivedOrder a where a.placed >= :from and a.placed < :to"
+            + " group by a.status" )
+    List<Object[]> countPlacedBetween ( @Param ( "from" ) Instant from, @Param ( "to" ) Instant to );
+
+    /**
+     * Counts the archived orders completed in a range of time.
+     *
+     * @param from
+     *            only orders completed at or after this time are counted
+     * @param to
+     *            only orders completed before this time are counted
+     * @return the number of orders
+     */
+    @Query ( "select count( a ) from ArchivedOrder a where a.completed >= :from and a.completed < :to" )
+    long countCompletedBetween ( @Param ( "from" ) Instant from, @Param ( "to" ) Instant to );
+
+}
@@ -1,6 +1,9 @@
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 
@@ -21,4 +24,22 @@ public interface IngredientRepository extends JpaRepository<Ingredient, Long> {
      */
     Ingredient findByName ( String name );
 
+    /**
+     * Takes an amount off an Ingredient, but only if at least that much is
+     * left. The check and the decrement happen in one statement, so the amount
+     * can never go negative no matter how many brews run at once. The version
+     * of the Inventory is not touched, so the caller must advance it in the
+     * same transaction; see InventoryRepository.advanceVersion. A managed copy
+     * of the Ingredient is not updated either, so the caller must detach it.
+     *
+     * @param id
+     *            the id of the Ingredient
+     * @param amount
+     *            the amount to take
+     * @return 1 if the amount was taken, 0 if there was not enough
+     */
+    @Modifying ( flushAutomatically = true )
+    @Query ( "update Ingredient i set i.amount = i.amount - :amount where i.id = :id and i.amount >= :amount" )
+    int deduct ( @Param ( "id" ) Long id, @Param ( "amount" ) Integer amount );
+
 }
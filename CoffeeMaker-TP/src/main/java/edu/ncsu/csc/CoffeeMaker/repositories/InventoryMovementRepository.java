@@ -0,0 +1,48 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement;
+
+/**
+ * InventoryMovementRepository provides access to the inventory movement
+ * journal. Spring will generate appropriate code with JPA.
+ *
+ */
+public interface InventoryMovementRepository extends JpaRepository<InventoryMovement, Long> {
+
+    /**
+     * Finds the movements of one location within a range of ids, oldest first.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param after
+     *            only movements with a greater id are returned
+     * @param through
+     *            only movements with this id or less are returned
+     * @return the movements
+     */
+    @Query ( "select m from InventoryMovement m"
+            + " where ( m.location = :location or ( :location is null and m.location is null ) )"
+            + " and m.id > :after and m.id <= :through order by m.id" )
+    List<InventoryMovement> findTail ( @Param ( "location" ) String location, @Param ( "after" ) Long after,
+            @Param ( "through" ) Long through );
+
+    /**
+     * Finds movements of every location after a given id, oldest first, a page
+     * at a time. Used to feed the journal to other systems.
+     *
+     * @param after
+     *            only movements with a greater id are returned
+     * @param page
+     *            how many movements to return
+     * @return the movements
+     */
+    List<InventoryMovement> findByIdGreaterThanOrderByIdAsc ( Long after, Pageable page );
+
+}
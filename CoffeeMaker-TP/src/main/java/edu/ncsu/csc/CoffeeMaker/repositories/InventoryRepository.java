@@ -1,7 +1,11 @@
-
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
+import java.util.List;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 
@@ -14,4 +18,45 @@ import edu.ncsu.csc.CoffeeMaker.models.Inventory;
  */
 public interface InventoryRepository extends JpaRepository<Inventory, Long> {
 
+    /**
+     * Finds the Inventory of a location.
+     *
+     * @param location
+     *            the location
+     * @return the matching Inventories, oldest first
+     */
+    List<Inventory> findByLocationOrderByIdAsc ( String location );
+
+    /**
+     * Finds the default Inventory, which has no location.
+     *
+     * @return the matching Inventories, oldest first
+     */
+    List<Inventory> findByLocationIsNullOrderByIdAsc ();
+
+    /**
+     * Advances the version of a location's Inventory, as after its
+     * ingredients were changed by IngredientRepository.deduct. A copy of the
+     * Inventory read before then can no longer be saved over the change. A
+     * managed copy of the Inventory keeps its old version, so the caller must
+     * detach it.
+     *
+     * @param location
+     *            the location
+     * @return 1 if the Inventory was updated, 0 if there is none
+     */
+    @Modifying ( flushAutomatically = true )
+    @Query ( "update Inventory i set i.version = i.version + 1 where i.location = :location" )
+    int advanceVersion ( @Param ( "location" ) String location );
+
+    /**
+     * Advances the version of the default Inventory, which has no location.
+     * See advanceVersion.
+     *
+     * @return 1 if the Inventory was updated, 0 if there is none
+     */
+    @Modifying ( flushAutomatically = true )
+    @Query ( "update Inventory i set i.version = i.version + 1 where i.location is null" )
+    int advanceDefaultVersion ();
+
 }
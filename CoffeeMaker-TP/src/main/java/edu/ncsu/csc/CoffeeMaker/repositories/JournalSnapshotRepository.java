@@ -0,0 +1,33 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.models.JournalSnapshot;
+
+/**
+ * JournalSnapshotRepository provides access to the snapshots taken of the
+ * inventory movement journal. Spring will generate appropriate code with JPA.
+ *
+ */
+public interface JournalSnapshotRepository extends JpaRepository<JournalSnapshot, Long> {
+
+    /**
+     * Finds the snapshots of one location, latest first.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param page
+     *            how many snapshots to return
+     * @return the snapshots
+     */
+    @Query ( "select s from JournalSnapshot s"
+            + " where ( s.location = :location or ( :location is null and s.location is null ) )"
+            + " order by s.through desc" )
+    List<JournalSnapshot> findLatest ( @Param ( "location" ) String location, Pageable page );
+
+}
@@ -1,8 +1,20 @@
 package edu.ncsu.csc.CoffeeMaker.repositories;
 
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+import edu.ncsu.csc.CoffeeMaker.models.OrderSummary;
+import edu.ncsu.csc.CoffeeMaker.models.Staff;
 
 /**
  * OrderRepository is used to provide CRUD operations for the Order model.
@@ -17,4 +29,281 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
      * Finds an order by its id
      */
     public Order findByName ( final String name );
+
+    /**
+     * Finds the order a customer placed with an idempotency key.
+     *
+     * @param customer
+     *            the customer
+     * @param idempotencyKey
+     *            the key sent when the order was placed
+     * @return the order, or null if there is none
+     */
+    Order findByCustomerAndIdempotencyKey ( Customer customer, String idempotencyKey );
+
+    /**
+     * Finds the orders with a status, oldest first.
+     *
+     * @param status
+     *            the status
+     * @return the orders
+     */
+    List<Order> findByStatusOrderByIdAsc ( OrderStatus status );
+
+    /**
+     * Finds a page of orders, oldest first, seeking past the last order of
+     * the previous page.
+     *
+     * @param statuses
+     *            only orders with one of these statuses are returned
+     * @param from
+     *            only orders placed at or after this time are returned, or
+     *            null for no lower bound
+     * @param to
+     *            only orders placed before this time are returned, or null for
+     *            no upper bound
+     * @param after
+     *            only orders with a greater id are returned
+     * @param page
+     *            how many orders to return
+     * @return the orders
+     */
+    @Query ( "select o from Order o where o.status in :statuses and o.id > :after"
+            + " and ( :from is null or o.placed >= :from ) and ( :to is null or o.placed < :to ) order by o.id" )
+    List<Order> findPage ( @Param ( "statuses" ) Collection<OrderStatus> statuses, @Param ( "from" ) Instant from,
+            @Param ( "to" ) Instant to, @Param ( "after" ) Long after, Pageable page );
+
+    /**
+     * Finds a page of a customer's orders, newest first. Pages are found by
+     * seeking past the last order of the previous page rather than by
+     * counting rows, so every page costs the same however long the history.
+     * Backed by the index on the customer and order id.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for every
+     *            status
+     * @param before
+     *            only orders with a smaller id are returned
+     * @param page
+     *            how many orders to return
+     * @return the orders
+     */
+    @Query ( "select o from Order o where o.customer = :customer and ( :status is null or o.status = :status )"
+            + " and o.id < :before order by o.id desc" )
+    List<Order> findHistory ( @Param ( "customer" ) Customer customer, @Param ( "status" ) OrderStatus status,
+            @Param ( "before" ) Long before, Pageable page );
+
+    /**
+     * Finds a page of order summaries, oldest first. Takes the same filters as
+     * findPage, but reads only the columns a listing shows, so no recipes,
+     * customers or staff are loaded. Their lines are found with findLines.
+     *
+     * @param statuses
+     *            only orders with one of these statuses are returned
+     * @param from
+     *            only orders placed at or after this time are returned, or
+     *            null for no lower bound
+     * @param to
+     *            only orders placed before this time are returned, or null for
+     *            no upper bound
+     * @param after
+     *            only orders with a greater id are returned
+     * @param page
+     *            how many orders to return
+     * @return the summaries, without lines
+     */
+    @Query ( "select new edu.ncsu.csc.CoffeeMaker.models.OrderSummary( o.id, o.name, o.status, c.name, o.time,"
+            + " o.placed, o.location, o.totalCost ) from Order o left join o.customer c"
+            + " where o.status in :statuses and o.id > :after"
+            + " and ( :from is null or o.placed >= :from ) and ( :to is null or o.placed < :to ) order by o.id" )
+    List<OrderSummary> findSummaryPage ( @Param ( "statuses" ) Collection<OrderStatus> statuses,
+            @Param ( "from" ) Instant from, @Param ( "to" ) Instant to, @Param ( "after" ) Long after,
+            Pageable page );
+
+    /**
+     * Finds a page of summaries of a customer's orders, newest first. See
+     * findHistory and findSummaryPage.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for every
+     *            status
+     * @param before
+     *            only orders with a smaller id are returned
+     * @param page
+     *            how many orders to return
+     * @return the summaries, without lines
+     */
+    @Query ( "select new edu.ncsu.csc.CoffeeMaker.models.OrderSummary( o.id, o.name, o.status, c.name, o.time,"
+            + " o.placed, o.location, o.totalCost ) from Order o join o.customer c"
+            + " where o.customer = :customer and ( :status is null or o.status = :status )"
+            + " and o.id < :before order by o.id desc" )
+    List<OrderSummary> findSummaryHistory ( @Param ( "customer" ) Customer customer,
+            @Param ( "status" ) OrderStatus status, @Param ( "before" ) Long before, Pageable page );
+
+    /**
+     * Finds the lines of some orders, in order, as the id of the order and
+     * the name, price and quantity of the line. Reads only the lines table,
+     * not the recipes.
+     *
+     * @param ids
+     *            the ids of the orders
+     * @return one row per line
+     */
+    @Query ( "select o.id, l.name, l.price, l.quantity from Order o join o.lines l where o.id in :ids"
+            + " order by o.id, index( l )" )
+    List<Object[]> findLines ( @Param ( "ids" ) Collection<Long> ids );
+
+    /**
+     * Starts an order: moves it from the waiting status to the started one,
+     * assigns it to a member of staff and records when it was started, but
+     * only if it is still waiting. The check and the change happen in one
+     * statement, so two people can never both start the same order. The
+     * version is advanced as well.
+     *
+     * @param id
+     *            the id of the order
+     * @param from
+     *            the status the order must have
+     * @param to
+     *            the new status
+     * @param staff
+     *            the staff to assign
+     * @param at
+     *            when the order was started
+     * @return 1 if the order was started, 0 if it did not have the expected
+     *         status
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "update Order o set o.status = :to, o.staff = :staff, o.started = :at, o.version = o.version + 1"
+            + " where o.id = :id and o.status = :from" )
+    int start ( @Param ( "id" ) Long id, @Param ( "from" ) OrderStatus from, @Param ( "to" ) OrderStatus to,
+            @Param ( "staff" ) Staff staff, @Param ( "at" ) Instant at );
+
+    /**
+     * Moves an order to a new status, but only if it has not changed since the
+     * given version was read. The version is advanced, so a copy of the order
+     * read before this change can no longer be saved.
+     *
+     * The times the order reached each status are written too. Callers pass
+     * the times read with the version, with the time of this change in place
+     * of the one for the new status, so only that one actually changes.
+     *
+     * @param id
+     *            the id of the order
+     * @param version
+     *            the version the order must have
+     * @param to
+     *            the new status
+     * @param started
+     *            when the order was started, or null
+     * @param completed
+     *            when the order was completed, or null
+     * @param pickedUp
+     *            when the order was picked up, or null
+     * @param canceled
+     *            when the order was canceled, or null
+     * @return 1 if the order was moved, 0 if it has changed since
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "update Order o set o.status = :to, o.started = :started, o.completed = :completed,"
+            + " o.pickedUp = :pickedUp, o.canceled = :canceled, o.version = o.version + 1"
+            + " where o.id = :id and o.version = :version" )
+    int changeStatus ( @Param ( "id" ) Long id, @Param ( "version" ) Long version, @Param ( "to" ) OrderStatus to,
+            @Param ( "started" ) Instant started, @Param ( "completed" ) Instant completed,
+            @Param ( "pickedUp" ) Instant pickedUp, @Param ( "canceled" ) Instant canceled );
+
+    /**
+     * Finds the orders with a status placed in a range of time, oldest first.
+     * Backed by the index on status and placement time, so only the orders
+     * in the range are read.
+     *
+     * @param status
+     *            the status
+     * @param from
+     *            only orders placed at or after this time are returned
+     * @param to
+     *            only orders placed before this time are returned
+     * @param page
+     *            how many orders to return
+     * @return the orders
+     */
+    @Query ( "select o from Order o where o.status = :status and o.placed >= :from and o.placed < :to"
+            + " order by o.placed" )
+    List<Order> findPlacedBetween ( @Param ( "status" ) OrderStatus status, @Param ( "from" ) Instant from,
+            @Param ( "to" ) Instant to, Pageable page );
+
+    /**
+     * Counts the orders placed in a range of time, by status, in one query.
+     * Read from the index on placement time and status alone.
+     *
+     * @param from
+     *            only orders placed at or after this time are counted
+     * @param to
+     *            only orders placed before this time are counted
+     * @return one row per status that has orders: the status, then the number
+     *         of orders
+     */
+    @Query ( "select o.status, count( o ) from Order o where o.placed >= :from and o.placed < :to"
+            + " group by o.status" )
+    List<Object[]> countPlacedBetween ( @Param ( "from" ) Instant from, @Param ( "to" ) Instant to );
+
+    /**
+     * Counts the orders completed in a range of time, whatever happened to
+     * them afterwards. Read from the index on completion time alone.
+     *
+     * @param from
+     *            only orders completed at or after this time are counted
+     * @param to
+     *            only orders completed before this time are counted
+     * @return the number of orders
+     */
+    @Query ( "select count( o ) from Order o where o.completed >= :from and o.completed < :to" )
+    long countCompletedBetween ( @Param ( "from" ) Instant from, @Param ( "to" ) Instant to );
+
+    /**
+     * Finds orders that are ready to be archived, oldest first: orders with
+     * one of the given statuses that were picked up or canceled before a
+     * cutoff. Orders with no record of when they were picked up or canceled
+     * are never returned.
+     *
+     * @param statuses
+     *            the statuses of orders that are finished with
+     * @param cutoff
+     *            only orders picked up or canceled before this time are
+     *            returned
+     * @param page
+     *            how many orders to return
+     * @return the orders
+     */
+    @Query ( "select o from Order o where o.status in :statuses and ( o.pickedUp < :cutoff or o.canceled < :cutoff )"
+            + " order by o.id" )
+    List<Order> findArchivable ( @Param ( "statuses" ) Collection<OrderStatus> statuses,
+            @Param ( "cutoff" ) Instant cutoff, Pageable page );
+
+    /**
+     * Removes the lines of orders.
+     *
+     * @param ids
+     *            the ids of the orders
+     * @return the number of lines removed
+     */
+    @Modifying ( flushAutomatically = true )
+    @Query ( value = "delete from order_lines where order_id in ( :ids )", nativeQuery = true )
+    int deleteLines ( @Param ( "ids" ) Collection<Long> ids );
+
+    /**
+     * Removes orders in one statement. Unlike delete, this does not remove
+     * their lines, so it must only be used once their lines are gone.
+     *
+     * @param ids
+     *            the ids of the orders
+     * @return the number of orders removed
+     */
+    @Modifying ( flushAutomatically = true, clearAutomatically = true )
+    @Query ( "delete from Order o where o.id in :ids" )
+    int deleteOrders ( @Param ( "ids" ) Collection<Long> ids );
 }
@@ -0,0 +1,29 @@
+package edu.ncsu.csc.CoffeeMaker.repositories;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import edu.ncsu.csc.CoffeeMaker.models.StockWatermark;
+
+/**
+ * StockWatermarkRepository is used to provide CRUD operations for the
+ * StockWatermark model. Spring will generate appropriate code with JPA.
+ *
+ */
+public interface StockWatermarkRepository extends JpaRepository<StockWatermark, Long> {
+
+    /**
+     * Finds the watermarks of one location.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the watermarks
+     */
+    @Query ( "select w from StockWatermark w"
+            + " where w.location = :location or ( :location is null and w.location is null )" )
+    List<StockWatermark> findForLocation ( @Param ( "location" ) String location );
+
+}
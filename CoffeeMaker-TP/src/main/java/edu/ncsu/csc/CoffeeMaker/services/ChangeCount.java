@@ -0,0 +1,46 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+/**
+ * Counts the changes made to an in-memory copy of what is in the database,
+ * such as OrderQueue or RecipePrices, so that a load that raced with a change
+ * can be discarded. The count is read before the database is, and the load
+ * only goes ahead if the count has not moved since. Every change is counted
+ * whether or not the copy is loaded, because a change committed while the
+ * database was being read may or may not be in what was read.
+ *
+ * Not thread-safe on its own: the copy counts its changes and checks its
+ * loads under its own lock.
+ */
+public class ChangeCount {
+
+    /** Number of changes seen */
+    private long changes;
+
+    /**
+     * Returns the number of changes seen so far.
+     *
+     * @return the number of changes
+     */
+    public long get () {
+        return changes;
+    }
+
+    /**
+     * Counts a change.
+     */
+    public void changed () {
+        changes++;
+    }
+
+    /**
+     * Checks whether nothing has changed since a number of changes was read.
+     *
+     * @param seen
+     *            the number of changes read before the database was
+     * @return true if what was read can be loaded
+     */
+    public boolean isCurrent ( final long seen ) {
+        return seen == changes;
+    }
+
+}
@@ -0,0 +1,140 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Server-Sent Event subscriptions grouped by key, such as a location or a
+ * customer, with events of one name pushed to every subscriber of a key.
+ * Events are published from a thread of the broadcaster's own, in the order
+ * they were published, so a slow or stalled client never holds up the thread
+ * that published, which is often one committing a transaction. Subscribers
+ * that can no longer be reached are dropped.
+ *
+ */
+public class EventBroadcaster {
+
+    /** How long a subscription lasts before the client must reconnect, in ms */
+    private static final long                                 TIMEOUT     = 30 * 60 * 1000L;
+
+    /** Name of the events sent */
+    private final String                                      event;
+
+    /** Subscribers of each key */
+    private final ConcurrentHashMap<String, List<SseEmitter>> subscribers =
+            new ConcurrentHashMap<String, List<SseEmitter>>();
+
+    /** Thread that sends published events */
+    private final ExecutorService                             sender;
+
+    /**
+     * Creates a broadcaster with no subscribers.
+     *
+     * @param event
+     *            the name of the events sent
+     */
+    public EventBroadcaster ( final String event ) {
+        this.event = event;
+        this.sender = Executors.newSingleThreadExecutor( task -> {
+            final Thread thread = new Thread( task, event + "-events" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    /**
+     * Subscribes a client to the events of a key.
+     *
+     * @param key
+     *            the key
+     * @param current
+     *            events to send the client straight away, may be empty
+     * @return the event stream to hand to the client
+     */
+    public SseEmitter subscribe ( final String key, final List<?> current ) {
+        final SseEmitter emitter = new SseEmitter( TIMEOUT );
+        final List<SseEmitter> list = subscribers.computeIfAbsent( key,
+                k -> new CopyOnWriteArrayList<SseEmitter>() );
+        emitter.onCompletion( () -> list.remove( emitter ) );
+        emitter.onTimeout( () -> list.remove( emitter ) );
+        emitter.onError( e -> list.remove( emitter ) );
+        list.add( emitter );
+        for ( final Object data : current ) {
+            send( list, emitter, data );
+        }
+        return emitter;
+    }
+
+    /**
+     * Sends an event to the subscribers of a key, without waiting for it to
+     * be sent.
+     *
+     * @param key
+     *            the key
+     * @param data
+     *            the event
+     */
+    public void publish ( final String key, final Object data ) {
+        final List<SseEmitter> list = subscribers.get( key );
+        if ( list == null || list.isEmpty() ) {
+            return;
+        }
+        try {
+            sender.execute( () -> {
+                for ( final SseEmitter emitter : list ) {
+                    send( list, emitter, data );
+                }
+            } );
+        }
+        catch ( final RejectedExecutionException e ) {
+            // shutting down; nobody is left to tell
+        }
+    }
+
+    /**
+     * Returns the number of clients subscribed to a key.
+     *
+     * @param key
+     *            the key
+     * @return the number of subscribers
+     */
+    public int subscriberCount ( final String key ) {
+        final List<SseEmitter> list = subscribers.get( key );
+        return list == null ? 0 : list.size();
+    }
+
+    /**
+     * Stops sending events. Events not yet sent are dropped.
+     */
+    public void shutdown () {
+        sender.shutdownNow();
+    }
+
+    /**
+     * Sends one event to one subscriber, dropping the subscriber if it cannot
+     * be reached.
+     *
+     * @param list
+     *            the subscribers of the key
+     * @param emitter
+     *            the subscriber
+     * @param data
+     *            the event
+     */
+    private void send ( final List<SseEmitter> list, final SseEmitter emitter, final Object data ) {
+        try {
+            emitter.send( SseEmitter.event().name( event ).data( data ) );
+        }
+        catch ( final IOException | IllegalStateException e ) {
+            list.remove( emitter );
+        }
+    }
+
+}
@@ -0,0 +1,348 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Ingredients set aside for orders that have been placed but not yet made.
+ * Each hold is kept by the name of its order, and the amounts of all the holds
+ * are kept summed by ingredient, so finding how much of an ingredient is held
+ * is one lookup however many orders are waiting. What is held is taken off
+ * the InventoryReservations counters when the hold is made and given back
+ * when it is released or expires, so brews never need to look at the holds;
+ * when the counters are loaded, the totals held are taken off them again.
+ *
+ * A hold that is neither consumed nor released expires once it has been held
+ * for the time to live. Holds are filed on a timing wheel: a ring of buckets,
+ * one per tick, with each hold in the bucket of the tick it expires at. The
+ * ring has one bucket more than the time to live has ticks, so a hold never
+ * waits more than one turn, and expiring holds only looks at the buckets of
+ * the ticks that have passed since it last ran, never at every hold. A hold
+ * can be pinned, as when its order has been started, which takes it off the
+ * wheel: it is then kept until it is removed, however long that takes.
+ *
+ * Every method is synchronized; InventoryService synchronizes on the holds
+ * themselves to change a hold and the counters in one step, so that counters
+ * loaded meanwhile never count a hold twice or not at all.
+ */
+public class InventoryHolds {
+
+    /** Length of a tick, in milliseconds */
+    private final long                 tick;
+
+    /** Ticks a hold is kept for */
+    private final long                 ttl;
+
+    /** The names of the orders expiring at each tick, by tick modulo size */
+    private final List<Set<String>>    wheel;
+
+    /** Every hold, by the name of its order */
+    private final Map<String, Hold>    holds = new HashMap<String, Hold>();
+
+    /** Total amount held of each ingredient */
+    private final Map<String, Integer> held  = new HashMap<String, Integer>();
+
+    /** The last tick expired, or -1 before the first */
+    private long                       swept = -1;
+
+    /**
+     * Creates an empty set of holds.
+     *
+     * @param ttl
+     *            how long a hold is kept, in milliseconds
+     * @param tick
+     *            how often holds can expire, in milliseconds
+     */
+    public InventoryHolds ( final long ttl, final long tick ) {
+        if ( ttl < 1 || tick < 1 ) {
+            throw new IllegalArgumentException( "Invalid hold time" );
+        }
+        this.tick = tick;
+        this.ttl = Math.max( 1, ( ttl + tick - 1 ) / tick );
+        wheel = new ArrayList<Set<String>>();
+        for ( long n = 0; n <= this.ttl; n++ ) {
+            wheel.add( new LinkedHashSet<String>() );
+        }
+    }
+
+    /**
+     * Returns the total amount held of an ingredient.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @return the amount, 0 if none is held
+     */
+    public synchronized int held ( final String name ) {
+        final Integer amount = held.get( name );
+        return amount == null ? 0 : amount;
+    }
+
+    /**
+     * Returns the total amount held of every ingredient.
+     *
+     * @return the amounts, by ingredient name
+     */
+    public synchronized Map<String, Integer> held () {
+        return new HashMap<String, Integer>( held );
+    }
+
+    /**
+     * Checks whether an order has a hold.
+     *
+     * @param order
+     *            the name of the order
+     * @return true if something is held for it
+     */
+    public synchronized boolean isHeld ( final String order ) {
+        return holds.containsKey( order );
+    }
+
+    /**
+     * Holds ingredients for an order until it is consumed, released or
+     * expires. Nothing is checked against the inventory here.
+     *
+     * @param order
+     *            the name of the order
+     * @param demand
+     *            the amount of each ingredient to hold
+     * @param now
+     *            the current time, in milliseconds
+     * @return the hold, or null if the order already had one, which is left
+     *         as it is
+     */
+    public synchronized Hold add ( final String order, final Map<String, Integer> demand, final long now ) {
+        if ( holds.containsKey( order ) ) {
+            return null;
+        }
+        if ( swept < 0 ) {
+            swept = now / tick - 1;
+        }
+        final Hold hold = new Hold( order, new HashMap<String, Integer>( demand ), now / tick + ttl );
+        file( hold );
+        return hold;
+    }
+
+    /**
+     * Removes the hold of an order, as when it is made or canceled.
+     *
+     * @param order
+     *            the name of the order
+     * @return the hold, or null if the order had none
+     */
+    public synchronized Hold remove ( final String order ) {
+        final Hold hold = holds.remove( order );
+        if ( hold == null ) {
+            return null;
+        }
+        if ( !hold.pinned ) {
+            wheel.get( hold.slot ).remove( order );
+        }
+        for ( final Map.Entry<String, Integer> e : hold.demand.entrySet() ) {
+            held.computeIfPresent( e.getKey(),
+                    ( name, amount ) -> amount.equals( e.getValue() ) ? null : amount - e.getValue() );
+        }
+        return hold;
+    }
+
+    /**
+     * Keeps the hold of an order until it is removed, as when the order is
+     * started and will soon be made: it no longer expires.
+     *
+     * @param order
+     *            the name of the order
+     * @return true if the hold was pinned, false if the order has no hold or
+     *         it was already pinned
+     */
+    public synchronized boolean pin ( final String order ) {
+        final Hold hold = holds.get( order );
+        if ( hold == null || hold.pinned ) {
+            return false;
+        }
+        wheel.get( hold.slot ).remove( order );
+        hold.pinned = true;
+        return true;
+    }
+
+    /**
+     * Lets a pinned hold expire again, as when the transaction that pinned it
+     * rolls back. It expires when it would have if it had never been pinned;
+     * if that time has already passed, it expires on the next tick.
+     *
+     * @param order
+     *            the name of the order
+     * @return true if the hold was unpinned, false if the order has no hold or
+     *         it was not pinned
+     */
+    public synchronized boolean unpin ( final String order ) {
+        final Hold hold = holds.get( order );
+        if ( hold == null || !hold.pinned ) {
+            return false;
+        }
+        hold.pinned = false;
+        schedule( hold );
+        return true;
+    }
+
+    /**
+     * Puts back a hold that was removed, as when the transaction that removed
+     * it rolls back. It expires when it would have, unless it was pinned; if
+     * that time has already passed, it expires on the next tick. A hold that
+     * was dropped is never put back.
+     *
+     * @param hold
+     *            the hold
+     * @return true if the hold was put back
+     */
+    public synchronized boolean restore ( final Hold hold ) {
+        if ( hold == null || hold.dropped || holds.containsKey( hold.order ) ) {
+            return false;
+        }
+        file( hold );
+        return true;
+    }
+
+    /**
+     * Removes a hold for good, as when the transaction that placed its order
+     * rolls back, so that it is not put back by a later restore.
+     *
+     * @param hold
+     *            the hold
+     * @return true if the hold was still kept and has been removed
+     */
+    public synchronized boolean drop ( final Hold hold ) {
+        hold.dropped = true;
+        if ( holds.get( hold.order ) != hold ) {
+            return false;
+        }
+        remove( hold.order );
+        return true;
+    }
+
+    /**
+     * Expires every hold whose time to live has run out.
+     *
+     * @param now
+     *            the current time, in milliseconds
+     * @return the holds that expired
+     */
+    public synchronized List<Hold> expire ( final long now ) {
+        final long target = now / tick;
+        if ( swept < 0 ) {
+            swept = target;
+            return Collections.emptyList();
+        }
+        final List<String> expired = new ArrayList<String>();
+        // after a long pause every bucket is looked at once, not once a tick
+        for ( long t = Math.max( swept + 1, target - wheel.size() + 1 ); t <= target; t++ ) {
+            final Iterator<String> orders = wheel.get( (int) ( t % wheel.size() ) ).iterator();
+            while ( orders.hasNext() ) {
+                final String order = orders.next();
+                if ( holds.get( order ).due <= target ) {
+                    orders.remove();
+                    expired.add( order );
+                }
+            }
+        }
+        swept = Math.max( swept, target );
+        final List<Hold> removed = new ArrayList<Hold>( expired.size() );
+        for ( final String order : expired ) {
+            removed.add( remove( order ) );
+        }
+        return removed;
+    }
+
+    /**
+     * Adds a hold to the totals and, unless it is pinned, files it on the
+     * wheel.
+     *
+     * @param hold
+     *            the hold
+     */
+    private void file ( final Hold hold ) {
+        holds.put( hold.order, hold );
+        if ( !hold.pinned ) {
+            schedule( hold );
+        }
+        for ( final Map.Entry<String, Integer> e : hold.demand.entrySet() ) {
+            held.merge( e.getKey(), e.getValue(), Integer::sum );
+        }
+    }
+
+    /**
+     * Files a hold in the bucket of its tick, or of the next tick to be
+     * expired if its tick has passed.
+     *
+     * @param hold
+     *            the hold
+     */
+    private void schedule ( final Hold hold ) {
+        final long due = Math.max( hold.due, swept + 1 );
+        hold.slot = (int) ( due % wheel.size() );
+        wheel.get( hold.slot ).add( hold.order );
+    }
+
+    /**
+     * The ingredients held for one order.
+     */
+    public static final class Hold {
+
+        /** Name of the order */
+        private final String               order;
+
+        /** Amount held of each ingredient */
+        private final Map<String, Integer> demand;
+
+        /** Tick the hold expires at */
+        private final long                 due;
+
+        /** Bucket the hold is filed in */
+        private int                        slot;
+
+        /** Whether the hold was dropped for good */
+        private boolean                    dropped;
+
+        /** Whether the hold is kept until it is removed */
+        private boolean                    pinned;
+
+        /**
+         * Creates a hold.
+         *
+         * @param order
+         *            the name of the order
+         * @param demand
+         *            the amount held of each ingredient
+         * @param due
+         *            the tick it expires at
+         */
+        private Hold ( final String order, final Map<String, Integer> demand, final long due ) {
+            this.order = order;
+            this.demand = demand;
+            this.due = due;
+        }
+
+        /**
+         * Returns the name of the order the hold is for.
+         *
+         * @return the name
+         */
+        public String getOrder () {
+            return order;
+        }
+
+        /**
+         * Returns the amount held of each ingredient.
+         *
+         * @return the amounts, by ingredient name
+         */
+        public Map<String, Integer> getDemand () {
+            return Collections.unmodifiableMap( demand );
+        }
+    }
+
+}
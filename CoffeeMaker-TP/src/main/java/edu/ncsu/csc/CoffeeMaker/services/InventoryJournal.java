@@ -0,0 +1,323 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement.Kind;
+import edu.ncsu.csc.CoffeeMaker.models.JournalSnapshot;
+import edu.ncsu.csc.CoffeeMaker.repositories.InventoryMovementRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.JournalSnapshotRepository;
+
+/**
+ * The InventoryJournal keeps the append-only history of every Inventory: one
+ * InventoryMovement per change to an ingredient's amount. Movements are
+ * buffered for the length of a transaction and written in one batch just
+ * before it commits, so a brew or restock adds a single round of inserts and
+ * a transaction that rolls back leaves no trace.
+ *
+ * Every SNAPSHOT_INTERVAL movements of a location, the journal compacts itself
+ * by writing a JournalSnapshot of the location's amounts. Replaying a location
+ * then reads the latest snapshot and only the movements after it.
+ *
+ * A snapshot must never cover a movement id that a transaction still in
+ * progress may commit later, or that movement would be skipped by every
+ * replay. Batches are therefore written one at a time, and the lowest id of
+ * each batch that has been written but not committed is tracked; snapshots
+ * stop short of it. This relies on ids being handed out in increasing order,
+ * which holds for a single instance of the application.
+ *
+ */
+@Component
+@Transactional
+public class InventoryJournal extends Service<InventoryMovement, Long> {
+
+    /** Number of movements of a location between snapshots */
+    static final int                                       SNAPSHOT_INTERVAL = 500;
+
+    /** Key under which a transaction's buffered movements are bound */
+    private static final Object                            PENDING           = new Object();
+
+    /** Key under which the default Inventory's counter is kept */
+    private static final String                            DEFAULT           = "";
+
+    /**
+     * InventoryMovementRepository, to be autowired in by Spring and provide
+     * CRUD operations on InventoryMovement model.
+     */
+    @Autowired
+    private InventoryMovementRepository                    movementRepository;
+
+    /** JournalSnapshotRepository, used to read and write snapshots */
+    @Autowired
+    private JournalSnapshotRepository                      snapshotRepository;
+
+    /** Lowest id of each batch that has been written but not committed */
+    private final ConcurrentSkipListSet<Long>              uncommitted       = new ConcurrentSkipListSet<Long>();
+
+    /** Movements written since the last snapshot, by location */
+    private final ConcurrentHashMap<String, AtomicInteger> sinceSnapshot     =
+            new ConcurrentHashMap<String, AtomicInteger>();
+
+    @Override
+    protected JpaRepository<InventoryMovement, Long> getRepository () {
+        return movementRepository;
+    }
+
+    /**
+     * Records a change to the amount of an ingredient. Within a transaction
+     * the movement is written when the transaction commits, and dropped if it
+     * rolls back; otherwise it is written straight away.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param ingredient
+     *            name of the ingredient
+     * @param delta
+     *            change in the amount; nothing is recorded if it is 0
+     * @param kind
+     *            what caused the change
+     */
+    public void record ( final String location, final String ingredient, final int delta, final Kind kind ) {
+        if ( delta == 0 ) {
+            return;
+        }
+        final Batch batch = batch();
+        batch.pending.add( new InventoryMovement( location, ingredient, delta, kind ) );
+        if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+            write( batch );
+            commit( batch );
+        }
+    }
+
+    /**
+     * Writes the movements buffered by the current transaction. They still
+     * only become visible to others when the transaction commits.
+     */
+    public void flush () {
+        if ( TransactionSynchronizationManager.hasResource( PENDING ) ) {
+            write( (Batch) TransactionSynchronizationManager.getResource( PENDING ) );
+        }
+    }
+
+    /**
+     * Works out the amount of every ingredient a location's Inventory has ever
+     * held, from its latest snapshot and the movements after it. Movements
+     * buffered by the current transaction are included.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return amounts by ingredient name; ingredients the journal has never
+     *         seen are absent
+     */
+    public Map<String, Integer> replay ( final String location ) {
+        flush();
+        final JournalSnapshot base = latestSnapshot( location );
+        final Map<String, Integer> amounts = new HashMap<String, Integer>();
+        long after = 0;
+        if ( base != null ) {
+            amounts.putAll( base.getAmounts() );
+            after = base.getThrough();
+        }
+        for ( final InventoryMovement m : movementRepository.findTail( location, after, Long.MAX_VALUE ) ) {
+            amounts.merge( m.getIngredient(), m.getDelta(), Integer::sum );
+        }
+        return amounts;
+    }
+
+    /**
+     * Returns movements of every location in the order they were written,
+     * for feeding the journal to reporting and analytics.
+     *
+     * @param after
+     *            only movements with a greater id are returned; 0 to start
+     *            from the beginning
+     * @param limit
+     *            the most movements to return
+     * @return the movements, oldest first
+     */
+    public List<InventoryMovement> movementsAfter ( final long after, final int limit ) {
+        return movementRepository.findByIdGreaterThanOrderByIdAsc( after, PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Writes a snapshot of a location's amounts, covering every committed
+     * movement up to the oldest one that is still uncommitted. Nothing is
+     * written if no movements have been added since the last snapshot.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the latest snapshot of the location, or null if it has none
+     */
+    public synchronized JournalSnapshot takeSnapshot ( final String location ) {
+        final Batch own = TransactionSynchronizationManager.hasResource( PENDING )
+                ? (Batch) TransactionSynchronizationManager.getResource( PENDING ) : null;
+        long through = Long.MAX_VALUE;
+        for ( final Long first : uncommitted ) {
+            if ( own == null || !own.written.contains( first ) ) {
+                through = first - 1;
+                break;
+            }
+        }
+
+        final JournalSnapshot base = latestSnapshot( location );
+        final Map<String, Integer> amounts = new HashMap<String, Integer>();
+        long after = 0;
+        if ( base != null ) {
+            amounts.putAll( base.getAmounts() );
+            after = base.getThrough();
+        }
+        final List<InventoryMovement> tail = movementRepository.findTail( location, after, through );
+        if ( tail.isEmpty() ) {
+            return base;
+        }
+        for ( final InventoryMovement m : tail ) {
+            amounts.merge( m.getIngredient(), m.getDelta(), Integer::sum );
+        }
+        final JournalSnapshot snapshot = new JournalSnapshot( location, tail.get( tail.size() - 1 ).getId(),
+                amounts );
+        snapshotRepository.save( snapshot );
+        counter( location ).set( 0 );
+        return snapshot;
+    }
+
+    /**
+     * Removes every movement and every snapshot.
+     */
+    @Override
+    public void deleteAll () {
+        snapshotRepository.deleteAll();
+        super.deleteAll();
+        sinceSnapshot.clear();
+    }
+
+    /**
+     * Returns the movements buffered by the current transaction, binding an
+     * empty buffer to it on first use. Outside a transaction a fresh buffer is
+     * returned each time.
+     *
+     * @return the buffer
+     */
+    private Batch batch () {
+        if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+            return new Batch();
+        }
+        if ( TransactionSynchronizationManager.hasResource( PENDING ) ) {
+            return (Batch) TransactionSynchronizationManager.getResource( PENDING );
+        }
+        final Batch batch = new Batch();
+        TransactionSynchronizationManager.bindResource( PENDING, batch );
+        TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+            @Override
+            public void beforeCommit ( final boolean readOnly ) {
+                write( batch );
+            }
+
+            @Override
+            public void afterCompletion ( final int status ) {
+                if ( TransactionSynchronizationManager.hasResource( PENDING ) ) {
+                    TransactionSynchronizationManager.unbindResource( PENDING );
+                }
+                commit( batch );
+            }
+        } );
+        return batch;
+    }
+
+    /**
+     * Inserts the buffered movements of a batch, then takes a snapshot of any
+     * location that has built up enough movements since its last one.
+     *
+     * @param batch
+     *            the batch
+     */
+    private void write ( final Batch batch ) {
+        if ( batch.pending.isEmpty() ) {
+            return;
+        }
+        final List<InventoryMovement> movements = new ArrayList<InventoryMovement>( batch.pending );
+        batch.pending.clear();
+        synchronized ( this ) {
+            // written one batch at a time, so ids within a batch are contiguous
+            movementRepository.saveAll( movements );
+            movementRepository.flush();
+            final Long first = movements.get( 0 ).getId();
+            batch.written.add( first );
+            uncommitted.add( first );
+        }
+
+        final Map<String, String> due = new HashMap<String, String>();
+        for ( final InventoryMovement m : movements ) {
+            final String key = m.getLocation() == null ? DEFAULT : m.getLocation();
+            if ( counter( m.getLocation() ).incrementAndGet() == SNAPSHOT_INTERVAL ) {
+                due.put( key, m.getLocation() );
+            }
+        }
+        for ( final String location : due.values() ) {
+            takeSnapshot( location );
+        }
+    }
+
+    /**
+     * Stops tracking a batch once its transaction has completed, whether it
+     * committed or rolled back.
+     *
+     * @param batch
+     *            the batch
+     */
+    private void commit ( final Batch batch ) {
+        uncommitted.removeAll( batch.written );
+        batch.written.clear();
+    }
+
+    /**
+     * Returns the latest snapshot of a location.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the snapshot, or null if the location has none
+     */
+    private JournalSnapshot latestSnapshot ( final String location ) {
+        final List<JournalSnapshot> latest = snapshotRepository.findLatest( location, PageRequest.of( 0, 1 ) );
+        return latest.isEmpty() ? null : latest.get( 0 );
+    }
+
+    /**
+     * Returns the number of movements a location has had written since its
+     * last snapshot.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the counter
+     */
+    private AtomicInteger counter ( final String location ) {
+        return sinceSnapshot.computeIfAbsent( location == null ? DEFAULT : location, key -> new AtomicInteger() );
+    }
+
+    /**
+     * The movements of one transaction.
+     */
+    private static final class Batch {
+
+        /** Movements recorded but not yet written */
+        private final List<InventoryMovement> pending = new ArrayList<InventoryMovement>();
+
+        /** Lowest id of each group of movements written so far */
+        private final List<Long>              written = new ArrayList<Long>();
+    }
+
+}
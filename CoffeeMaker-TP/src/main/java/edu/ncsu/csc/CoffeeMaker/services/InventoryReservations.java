@@ -0,0 +1,316 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import edu.ncsu.csc.CoffeeMaker.models.BillOfMaterials;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryLedger;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * Lock-free counters for the ingredients of the Inventory. A recipe is
+ * reserved by taking each of its ingredients off its counter with a
+ * compare-and-set; if any ingredient runs short, everything already taken for
+ * that recipe is given back. Concurrent brews therefore never drive a counter
+ * negative and never lose each other's deductions, and brews that share no
+ * ingredients never contend.
+ *
+ * Saved recipes are compiled into a BillOfMaterials the first time they are
+ * reserved and kept by recipe id until the counters are reloaded or the recipe
+ * is forgotten, so a reservation is a loop over slots with no name lookups.
+ *
+ * Ingredients held for orders are kept off the counters too: a hold is
+ * reserved like a recipe, and the amounts held when the counters are loaded
+ * are taken off as they are loaded. Whatever fits on the counters is free to
+ * be used, with no need to look at the holds.
+ *
+ * The counters are loaded from a persisted Inventory and are only as current
+ * as the last load; InventoryService reloads them whenever the Inventory is
+ * saved and clears them when a transaction that used them rolls back.
+ */
+public class InventoryReservations {
+
+    /** The current counters, or null if they need to be loaded */
+    private volatile Counters counters;
+
+    /**
+     * Checks whether the counters have been loaded.
+     *
+     * @return true if the counters can be reserved against
+     */
+    public boolean isLoaded () {
+        return counters != null;
+    }
+
+    /**
+     * Replaces the counters with the amounts held by the Inventory.
+     *
+     * @param inventory
+     *            the inventory to load from
+     */
+    public void load ( final Inventory inventory ) {
+        load( inventory, Collections.<String, Integer> emptyMap() );
+    }
+
+    /**
+     * Replaces the counters with the amounts held by the Inventory, less the
+     * amounts held for orders.
+     *
+     * @param inventory
+     *            the inventory to load from
+     * @param held
+     *            the total amount held of each ingredient, by name
+     */
+    public void load ( final Inventory inventory, final Map<String, Integer> held ) {
+        final Counters c = new Counters( new InventoryLedger( inventory.getIngredients() ) );
+        for ( final Map.Entry<String, Integer> e : held.entrySet() ) {
+            final int slot = c.ledger.slotOf( e.getKey() );
+            if ( slot >= 0 ) {
+                // may go below zero if the Inventory was cut under its holds
+                c.amounts.addAndGet( slot, -e.getValue() );
+            }
+        }
+        counters = c;
+    }
+
+    /**
+     * Forgets the counters so that they are loaded again before next use.
+     */
+    public void clear () {
+        counters = null;
+    }
+
+    /**
+     * Forgets the compiled form of a recipe so that it is compiled again the
+     * next time it is reserved. Must be called whenever a saved recipe is
+     * edited.
+     *
+     * @param recipe
+     *            the recipe that changed
+     */
+    public void forget ( final Recipe recipe ) {
+        final Counters c = counters;
+        if ( c != null && recipe.getId() != null ) {
+            c.compiled.remove( recipe.getId() );
+        }
+    }
+
+    /**
+     * Returns the amount of an ingredient left on its counter.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @return the amount, or -1 if the ingredient is not stocked
+     */
+    public int amount ( final String name ) {
+        final Counters c = counters;
+        if ( c == null ) {
+            return -1;
+        }
+        final int slot = c.ledger.slotOf( name );
+        return slot < 0 ? -1 : Math.max( 0, c.amounts.get( slot ) );
+    }
+
+    /**
+     * Returns the recipe compiled against the layout of the counters.
+     *
+     * @param recipe
+     *            the recipe
+     * @return the recipe's bill of materials
+     * @throws IllegalStateException
+     *             if the counters have not been loaded
+     */
+    public BillOfMaterials billOf ( final Recipe recipe ) {
+        return loaded().billOf( recipe );
+    }
+
+    /**
+     * Finds an ingredient of the recipe that the counters cannot currently
+     * cover. This is a plain read for reporting, not a reservation.
+     *
+     * @param recipe
+     *            the recipe to check
+     * @return the name of the short ingredient, or null if there is none
+     */
+    public String shortIngredient ( final Recipe recipe ) {
+        final Counters c = counters;
+        if ( c == null ) {
+            return null;
+        }
+        final BillOfMaterials bom = c.billOf( recipe );
+        for ( int n = 0; n < bom.size(); n++ ) {
+            if ( c.amounts.get( bom.slot( n ) ) < bom.amount( n ) ) {
+                return bom.name( n );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Atomically takes every ingredient of the recipe off the counters. Either
+     * all of the ingredients are taken or none are. Ingredients that the
+     * inventory does not stock are ignored, as in Inventory.useIngredients.
+     *
+     * @param recipe
+     *            the recipe to reserve
+     * @return the recipe's bill of materials if it was reserved, or null if
+     *         there is not enough of some ingredient
+     * @throws IllegalStateException
+     *             if the counters have not been loaded
+     */
+    public BillOfMaterials reserve ( final Recipe recipe ) {
+        final Counters c = loaded();
+        final BillOfMaterials bom = c.billOf( recipe );
+        return c.reserve( bom ) ? bom : null;
+    }
+
+    /**
+     * Reserves a recipe as reserve(Recipe) does, as part of making more than
+     * the recipe: the rest of what is made was reserved earlier, as by a
+     * hold. Both are compiled against the same counters.
+     *
+     * @param recipe
+     *            the recipe to reserve
+     * @param made
+     *            everything that is made, the recipe included
+     * @return the bill of materials of everything that is made if the recipe
+     *         was reserved, or null if there is not enough of some ingredient
+     * @throws IllegalStateException
+     *             if the counters have not been loaded
+     */
+    public BillOfMaterials reserve ( final Recipe recipe, final Recipe made ) {
+        final Counters c = loaded();
+        return c.reserve( c.billOf( recipe ) ) ? c.billOf( made ) : null;
+    }
+
+    /**
+     * Gives the ingredients of a previously reserved recipe back to the
+     * counters.
+     *
+     * @param recipe
+     *            the recipe to release
+     */
+    public void release ( final Recipe recipe ) {
+        final Counters c = counters;
+        if ( c == null ) {
+            return;
+        }
+        final BillOfMaterials bom = c.billOf( recipe );
+        for ( int n = 0; n < bom.size(); n++ ) {
+            c.amounts.addAndGet( bom.slot( n ), bom.amount( n ) );
+        }
+    }
+
+    /**
+     * Returns the current counters.
+     *
+     * @return the counters
+     * @throws IllegalStateException
+     *             if the counters have not been loaded
+     */
+    private Counters loaded () {
+        final Counters c = counters;
+        if ( c == null ) {
+            throw new IllegalStateException( "Inventory counters have not been loaded" );
+        }
+        return c;
+    }
+
+    /**
+     * Snapshot of the ingredient layout together with one atomic counter per
+     * ingredient. The layout never changes once built; adding an ingredient
+     * to the inventory builds a new one.
+     */
+    private static final class Counters {
+
+        /** Ingredient layout; never changed once built */
+        private final InventoryLedger                          ledger;
+
+        /** Amount left of each slot */
+        private final AtomicIntegerArray                       amounts;
+
+        /** Saved recipes compiled against the layout, by recipe id */
+        private final ConcurrentHashMap<Long, BillOfMaterials> compiled;
+
+        /**
+         * Builds counters over the ingredients of a ledger.
+         *
+         * @param ledger
+         *            the ledger to count
+         */
+        private Counters ( final InventoryLedger ledger ) {
+            this.ledger = ledger;
+            amounts = new AtomicIntegerArray( ledger.size() );
+            for ( int slot = 0; slot < ledger.size(); slot++ ) {
+                amounts.set( slot, ledger.amount( slot ) );
+            }
+            compiled = new ConcurrentHashMap<Long, BillOfMaterials>();
+        }
+
+        /**
+         * Returns the recipe compiled against this layout. Unsaved recipes
+         * are compiled every time since they have no id to be kept by.
+         *
+         * @param recipe
+         *            the recipe
+         * @return the bill of materials
+         */
+        private BillOfMaterials billOf ( final Recipe recipe ) {
+            final Long id = recipe.getId();
+            if ( id == null ) {
+                return ledger.compile( recipe );
+            }
+            final BillOfMaterials bom = compiled.get( id );
+            if ( bom != null ) {
+                return bom;
+            }
+            return compiled.computeIfAbsent( id, key -> ledger.compile( recipe ) );
+        }
+
+        /**
+         * Takes every line of a bill of materials off the counters, or none
+         * of them if any runs short.
+         *
+         * @param bom
+         *            the bill of materials
+         * @return true if every line was taken
+         */
+        private boolean reserve ( final BillOfMaterials bom ) {
+            for ( int n = 0; n < bom.size(); n++ ) {
+                if ( !take( bom.slot( n ), bom.amount( n ) ) ) {
+                    // give back what was already taken for this recipe
+                    for ( int k = 0; k < n; k++ ) {
+                        amounts.addAndGet( bom.slot( k ), bom.amount( k ) );
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Takes an amount off a counter if enough is left.
+         *
+         * @param slot
+         *            the counter
+         * @param amount
+         *            the amount to take
+         * @return true if the amount was taken
+         */
+        private boolean take ( final int slot, final int amount ) {
+            while ( true ) {
+                final int current = amounts.get( slot );
+                if ( current < amount ) {
+                    return false;
+                }
+                if ( amounts.compareAndSet( slot, current, current - amount ) ) {
+                    return true;
+                }
+            }
+        }
+    }
+
+}
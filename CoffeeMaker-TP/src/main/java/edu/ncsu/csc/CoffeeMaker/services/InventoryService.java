@@ -1,20 +1,66 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
 import javax.transaction.Transactional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import edu.ncsu.csc.CoffeeMaker.models.BillOfMaterials;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryMovement.Kind;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.StockWatermark;
+import edu.ncsu.csc.CoffeeMaker.repositories.IngredientRepository;
 import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.RecipeRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.StockWatermarkRepository;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryHolds.Hold;
+import edu.ncsu.csc.CoffeeMaker.services.LowStockWatermarks.Crossing;
 
 /**
  * The InventoryService is used to handle CRUD operations on the Inventory
- * model. In addition to all functionality in `Service`, we also manage the
- * Inventory singleton.
+ * model. In addition to all functionality in `Service`, we also manage one
+ * Inventory per location (store or machine). The default Inventory has no
+ * location; the methods that do not take a location use it.
+ *
+ * Each location's Inventory is cached in memory: reads are served from a copy
+ * of the last committed Inventory, and committed writes either replace the
+ * cached copy or apply their changes to it. Inventory carries an optimistic
+ * `@Version`, so a writer that saves an Inventory someone else has changed
+ * since it was read gets an OptimisticLockingFailureException and should read
+ * and try again. Locations share no state, so brews at one location never
+ * contend with brews at another.
+ *
+ * Every change to an ingredient's amount is also recorded in the
+ * InventoryJournal, from which an Inventory can be restored, and ingredients
+ * that cross their low-stock watermark are pushed to the LowStockNotifier.
+ *
+ * Orders that have been placed hold the ingredients they will need until
+ * they are made or canceled, or until the hold has been kept for
+ * `coffeemaker.holds.ttl-ms` (15 minutes by default). Held ingredients stay in
+ * the Inventory but are taken off the in-memory counters, so nothing else can
+ * use them. Holds are kept in memory, so each instance of the application
+ * only knows about its own; they are rebuilt from the orders waiting to be
+ * started when the application starts.
  *
  * @author Kai Presler-Marshall
  *
@@ -23,12 +69,60 @@ import edu.ncsu.csc.CoffeeMaker.repositories.InventoryRepository;
 @Transactional
 public class InventoryService extends Service<Inventory, Long> {
 
+    /**
+     * Marks a transaction that has written to an Inventory or the recipes.
+     * Reads in such a transaction go to the database so that they see its own
+     * writes.
+     */
+    private static final TransactionWrites         WRITTEN        = new TransactionWrites();
+
+    /** Key under which the default Inventory's state is kept */
+    private static final String                    DEFAULT        = "";
+
+    /** Times a batch of recipes is planned before giving up */
+    private static final int                       BATCH_ATTEMPTS = 3;
+
     /**
      * InventoryRepository, to be autowired in by Spring and provide CRUD
      * operations on Inventory model.
      */
     @Autowired
-    private InventoryRepository inventoryRepository;
+    private InventoryRepository                    inventoryRepository;
+
+    /** IngredientRepository, used for per-ingredient updates */
+    @Autowired
+    private IngredientRepository                   ingredientRepository;
+
+    /** RecipeRepository, used to load recipes for the availability counts */
+    @Autowired
+    private RecipeRepository                       recipeRepository;
+
+    /** InventoryJournal, which records every change to the amounts */
+    @Autowired
+    private InventoryJournal                       journal;
+
+    /** StockWatermarkRepository, holding the low-stock watermarks */
+    @Autowired
+    private StockWatermarkRepository               watermarkRepository;
+
+    /** LowStockNotifier, told whenever an ingredient crosses its watermark */
+    @Autowired
+    private LowStockNotifier                       notifier;
+
+    /** How long an order's ingredients are held, in milliseconds */
+    @Value ( "${coffeemaker.holds.ttl-ms:900000}" )
+    private long                                   holdTtl;
+
+    /** How often expired holds are let go, in milliseconds */
+    @Value ( "${coffeemaker.holds.tick-ms:1000}" )
+    private long                                   holdTick;
+
+    /** EntityManager, used to version Inventory saves */
+    @PersistenceContext
+    private EntityManager                          entityManager;
+
+    /** In-memory state of each location's Inventory, by location */
+    private final ConcurrentHashMap<String, Shard> shards         = new ConcurrentHashMap<String, Shard>();
 
     @Override
     protected JpaRepository<Inventory, Long> getRepository () {
@@ -36,23 +130,1312 @@ public class InventoryService extends Service<Inventory, Long> {
     }
 
     /**
-     * Retrieves the singleton Inventory instance from the database, creating it
-     * if it does not exist.
+     * Retrieves the default Inventory, creating it if it does not exist. See
+     * getInventory(String).
+     *
+     * @return the Inventory, either new or fetched
+     */
+    public Inventory getInventory () {
+        return getInventory( null );
+    }
+
+    /**
+     * Retrieves the Inventory of a location. The default Inventory is created
+     * if it does not exist; any other location must have been created with
+     * createInventory. The Inventory is served from memory when possible; the
+     * caller gets its own copy and may change it freely before saving it.
      *
+     * @param location
+     *            the location, or null for the default Inventory
      * @return the Inventory, either new or fetched
+     * @throws UnknownLocationException
+     *             if there is no Inventory at the location
+     */
+    public Inventory getInventory ( final String location ) {
+        if ( WRITTEN.pending() ) {
+            return readInventory( location );
+        }
+        final Shard shard = shard( location );
+        final Snapshot current = shard.snapshot.get();
+        if ( current.inventory != null ) {
+            return current.inventory.copy();
+        }
+        final Inventory inventory = readInventory( location );
+        if ( !WRITTEN.pending() ) {
+            // only cache what was read if nothing was committed meanwhile
+            shard.snapshot.compareAndSet( current, new Snapshot( inventory.copy(), current.generation ) );
+        }
+        return inventory;
+    }
+
+    /**
+     * Reads the Inventory of a location from the database. The default
+     * Inventory is created if it does not exist.
+     *
+     * @param location
+     *            the location, or null or empty for the default Inventory
+     * @return the Inventory
+     * @throws UnknownLocationException
+     *             if there is no Inventory at the location
      */
-    public synchronized Inventory getInventory () {
-        final List<Inventory> inventoryList = findAll();
-        if ( inventoryList != null && inventoryList.size() == 1 ) {
+    private synchronized Inventory readInventory ( final String location ) {
+        final boolean isDefault = location == null || DEFAULT.equals( location );
+        final List<Inventory> inventoryList = isDefault ? inventoryRepository.findByLocationIsNullOrderByIdAsc()
+                : inventoryRepository.findByLocationOrderByIdAsc( location );
+        if ( inventoryList != null && !inventoryList.isEmpty() ) {
             return inventoryList.get( 0 );
         }
-        else {
+        else if ( isDefault ) {
             // initialize the inventory with 0 of everything
-            // final Ingredient i = new Ingredient( "", 0 );
             final Inventory ivt = new Inventory();
             save( ivt );
             return ivt;
         }
+        throw new UnknownLocationException( location );
+    }
+
+    /**
+     * Creates the Inventory of a new location, with nothing in it. Locations
+     * are only ever created here, never by reading or ordering from one, so
+     * that a mistyped location cannot leave a stray Inventory behind.
+     *
+     * @param location
+     *            the location
+     * @return the new Inventory, or null if the location already has one
+     */
+    public synchronized Inventory createInventory ( final String location ) {
+        if ( location == null || DEFAULT.equals( location ) || hasLocation( location ) ) {
+            return null;
+        }
+        final Inventory ivt = new Inventory();
+        ivt.setLocation( location );
+        save( ivt );
+        TransactionWrites.onCompletion( null, () -> shards.remove( location ) );
+        return ivt;
+    }
+
+    /**
+     * Checks whether a location has an Inventory. The default location always
+     * does.
+     *
+     * @param location
+     *            the location, or null or empty for the default Inventory
+     * @return true if it does
+     */
+    public boolean hasLocation ( final String location ) {
+        if ( location == null || DEFAULT.equals( location ) || shards.containsKey( location ) ) {
+            return true;
+        }
+        return !inventoryRepository.findByLocationOrderByIdAsc( location ).isEmpty();
+    }
+
+    /**
+     * Makes sure a location has an Inventory. Every request naming a location
+     * is checked here, so a location that was never opened is refused the
+     * same way everywhere.
+     *
+     * @param location
+     *            the location, or null or empty for the default Inventory
+     * @throws UnknownLocationException
+     *             if it does not
+     */
+    public void checkLocation ( final String location ) {
+        if ( !hasLocation( location ) ) {
+            throw new UnknownLocationException( location );
+        }
+    }
+
+    /**
+     * Saves an Inventory, journaling its changes as adjustments. See
+     * save(Inventory, Kind).
+     *
+     * @param inventory
+     *            the Inventory to save
+     */
+    @Override
+    public void save ( final Inventory inventory ) {
+        save( inventory, Kind.ADJUSTMENT );
+    }
+
+    /**
+     * Saves an Inventory and reloads its location's ingredient counters from
+     * it. The version of the Inventory is always advanced, so two writers that
+     * both started from the same version cannot both succeed. Each ingredient
+     * whose amount changed since the Inventory was read is journaled.
+     *
+     * @param inventory
+     *            the Inventory to save
+     * @param kind
+     *            what caused the changes
+     */
+    public void save ( final Inventory inventory, final Kind kind ) {
+        for ( final Ingredient change : inventory.changes() ) {
+            journal.record( inventory.getLocation(), change.getName(), change.getAmount(), kind );
+        }
+        final Inventory saved = inventoryRepository.save( inventory );
+        inventory.settle();
+        entityManager.lock( saved, LockModeType.OPTIMISTIC_FORCE_INCREMENT );
+        inventoryRepository.flush();
+
+        final Shard shard = shard( saved.getLocation() );
+        loadReservations( shard, saved );
+        written( shard, new Runnable() {
+            @Override
+            public void run () {
+                advance( shard, null, saved.copy() );
+            }
+        } );
+    }
+
+    /**
+     * Removes every Inventory, along with the ingredient counters and the
+     * cached copies of every location.
+     */
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        for ( final Shard shard : shards.values() ) {
+            clearReservations( shard );
+            written( shard, null );
+        }
+        // the locations are gone; only the default comes back by itself
+        shards.keySet().removeIf( key -> !DEFAULT.equals( key ) );
+    }
+
+    /**
+     * Restocks many ingredients of the default Inventory at once. See
+     * restock(List, String).
+     *
+     * @param deliveries
+     *            the ingredients and amounts to add
+     * @return for each line, null if it was applied, otherwise the reason it
+     *         was not
+     */
+    public List<String> restock ( final List<Ingredient> deliveries ) {
+        return restock( deliveries, null );
+    }
+
+    /**
+     * Restocks many ingredients at once, as when a delivery arrives. Each line
+     * adds its amount to the ingredient of the same name, with the same limits
+     * as Inventory.updateIngredient. Lines are applied in order, lines that
+     * fail are skipped, and the Inventory is then saved once for the whole
+     * batch.
+     *
+     * @param deliveries
+     *            the ingredients and amounts to add
+     * @param location
+     *            the location to restock, or null for the default Inventory
+     * @return for each line, null if it was applied, otherwise the reason it
+     *         was not
+     */
+    public List<String> restock ( final List<Ingredient> deliveries, final String location ) {
+        final Inventory inventory = getInventory( location );
+        final List<String> results = new ArrayList<String>( deliveries.size() );
+        boolean changed = false;
+        for ( final Ingredient line : deliveries ) {
+            String result = null;
+            if ( line == null || line.getName() == null || line.getAmount() == null ) {
+                result = "Ingredient name and units are required";
+            }
+            else {
+                try {
+                    if ( inventory.updateIngredient( line, line.getAmount() ) ) {
+                        changed = true;
+                    }
+                    else {
+                        result = "Unable to restock " + line.getName()
+                                + ": not in the inventory, or would exceed 100 units";
+                    }
+                }
+                catch ( final IllegalArgumentException e ) {
+                    result = e.getMessage();
+                }
+            }
+            results.add( result );
+        }
+        if ( changed ) {
+            save( inventory, Kind.RESTOCK );
+        }
+        return results;
+    }
+
+    /**
+     * Restores the amounts of a location's Inventory from the journal, as
+     * after a bad write. Ingredients the journal has never seen keep their
+     * amounts.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the restored Inventory
+     */
+    public Inventory restore ( final String location ) {
+        final Map<String, Integer> amounts = journal.replay( canonical( location ) );
+        final Inventory inventory = getInventory( location );
+        for ( final Ingredient i : inventory.getIngredients() ) {
+            final Integer amount = amounts.get( i.getName() );
+            if ( amount != null ) {
+                inventory.setIngredientAmount( i.getName(), amount );
+            }
+        }
+        // the journal already holds these amounts
+        inventory.settle();
+        save( inventory );
+        return inventory;
+    }
+
+    /**
+     * Makes a recipe from the default Inventory. See deductIngredients.
+     *
+     * @param recipe
+     *            the recipe to make
+     * @return true if there were enough ingredients and they were used, false
+     *         if nothing was used
+     */
+    public boolean useIngredients ( final Recipe recipe ) {
+        return useIngredients( recipe, null );
+    }
+
+    /**
+     * Makes a recipe at a location, using up its ingredients. See
+     * deductIngredients.
+     *
+     * @param recipe
+     *            the recipe to make
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return true if there were enough ingredients and they were used, false
+     *         if nothing was used
+     */
+    public boolean useIngredients ( final Recipe recipe, final String location ) {
+        return deductIngredients( recipe, location ) == null;
+    }
+
+    /**
+     * Makes a recipe from the default Inventory. See
+     * deductIngredients(Recipe, String).
+     *
+     * @param recipe
+     *            the recipe to make
+     * @return null if the recipe was made, otherwise the name of the
+     *         ingredient there was not enough of
+     */
+    public String deductIngredients ( final Recipe recipe ) {
+        return deductIngredients( recipe, null );
+    }
+
+    /**
+     * Makes a recipe by atomically reserving all of its ingredients against
+     * the location's in-memory counters and then deducting each recipe line in
+     * the database with a single guarded update. Concurrent callers never see
+     * a partial deduction, never push an ingredient below zero, and never
+     * lose each other's deductions. Only the affected ingredient rows are
+     * written; the Inventory itself is neither loaded nor saved.
+     *
+     * Ingredients held for orders are not used. They are kept off the
+     * counters, so the reservation alone keeps a brew clear of them and brews
+     * never wait on the holds.
+     *
+     * All recipe lines are deducted in one transaction. If the database turns
+     * out to hold less of an ingredient than the counters expected, the
+     * transaction is rolled back, which undoes the lines already deducted, and
+     * the counters are loaded again before the next brew.
+     *
+     * @param recipe
+     *            the recipe to make
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return null if the recipe was made, otherwise the name of the
+     *         ingredient there was not enough of
+     * @throws OptimisticLockingFailureException
+     *             if the database held less than the counters; the message
+     *             names the ingredient
+     */
+    public String deductIngredients ( final Recipe recipe, final String location ) {
+        return deduct( recipe, location, Collections.<Hold> emptyList() );
+    }
+
+    /**
+     * Makes the drinks of an order. If ingredients are held for it, exactly
+     * what was held is used and the hold is consumed; as the held ingredients
+     * cannot have been used by anything else, this only fails if the
+     * Inventory was cut since the order was placed. If nothing is held, as
+     * when the hold expired, the recipe is made as by
+     * deductIngredients(Recipe, String).
+     *
+     * @param recipe
+     *            the ingredients of every drink of the order as they are now,
+     *            used only if nothing is held for it
+     * @param order
+     *            the name of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return null if the drinks were made, otherwise the name of the
+     *         ingredient there was not enough of
+     */
+    public String deductIngredients ( final Recipe recipe, final String order, final String location ) {
+        final List<Hold> consumed = consume( shard( location ), Collections.singletonList( order ) );
+        return deduct( consumed.isEmpty() ? recipe : new Recipe(), location, consumed );
+    }
+
+    /**
+     * Makes a recipe along with what was held for some orders, whose holds
+     * have already been taken. Only the recipe is reserved, since what was
+     * held is already off the counters. If the recipe does not fit, or the
+     * transaction rolls back, the holds are put back.
+     *
+     * @param recipe
+     *            the recipe to make, which may have no ingredients
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param consumed
+     *            the holds whose ingredients are used
+     * @return null if everything was made, otherwise the name of the
+     *         ingredient there was not enough of
+     * @throws OptimisticLockingFailureException
+     *             if the database held less than the counters
+     */
+    private String deduct ( final Recipe recipe, final String location, final List<Hold> consumed ) {
+        final Shard shard = shard( location );
+        if ( !shard.reservations.isLoaded() ) {
+            loadReservations( shard, location );
+        }
+        if ( !shard.watermarks.isLoaded() ) {
+            loadWatermarks( shard, location );
+        }
+        final Recipe made = new Recipe();
+        for ( final Ingredient line : recipe.getIngredients() ) {
+            made.addIngredient( new Ingredient( line.getName(), line.getAmount() ) );
+        }
+        for ( final Hold hold : consumed ) {
+            for ( final Ingredient line : recipeOf( hold.getDemand() ).getIngredients() ) {
+                made.addIngredient( line );
+            }
+        }
+        final BillOfMaterials bom = shard.reservations.reserve( recipe, made );
+        if ( bom == null ) {
+            consumed.forEach( shard.holds::restore );
+            return shard.reservations.shortIngredient( recipe );
+        }
+        if ( !consumed.isEmpty() ) {
+            TransactionWrites.onCompletion( null, () -> consumed.forEach( shard.holds::restore ) );
+        }
+        written( shard, new Runnable() {
+            @Override
+            public void run () {
+                advance( shard, made, null );
+            }
+        } );
+
+        // lines are in slot order, so concurrent brews lock rows in one order
+        for ( int n = 0; n < bom.size(); n++ ) {
+            final Long id = bom.ingredientId( n );
+            if ( id != null && ingredientRepository.deduct( id, bom.amount( n ) ) == 0 ) {
+                // the rollback undoes the lines already deducted, puts the
+                // holds back and drops the counters that were wrong
+                throw new OptimisticLockingFailureException( "Not enough " + bom.name( n ) );
+            }
+        }
+        advanceVersion( location );
+        evict( shard, bom );
+        for ( int n = 0; n < bom.size(); n++ ) {
+            if ( bom.ingredientId( n ) != null ) {
+                journal.record( canonical( location ), bom.name( n ), -bom.amount( n ), Kind.BREW );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes the holds of some orders, so that their ingredients can be used
+     * to make them. What was held stays off the counters.
+     *
+     * @param shard
+     *            the location's state
+     * @param orders
+     *            the names of the orders, any of which may be null
+     * @return the holds of the orders that had one
+     */
+    private static List<Hold> consume ( final Shard shard, final List<String> orders ) {
+        final List<Hold> consumed = new ArrayList<Hold>();
+        for ( final String order : orders ) {
+            final Hold hold = order == null ? null : shard.holds.remove( order );
+            if ( hold != null ) {
+                consumed.add( hold );
+            }
+        }
+        return consumed;
+    }
+
+    /**
+     * Advances the version of a location's Inventory after its ingredients
+     * were deducted in place, so that a copy read before the brew, as by a
+     * restock, fails its version check instead of writing the old amounts
+     * back.
+     *
+     * @param location
+     *            the location, or null or empty for the default Inventory
+     */
+    private void advanceVersion ( final String location ) {
+        final String stored = location == null ? null : canonical( location );
+        if ( stored == null ) {
+            inventoryRepository.advanceDefaultVersion();
+        }
+        else {
+            inventoryRepository.advanceVersion( stored );
+        }
+    }
+
+    /**
+     * Drops the rows a brew changed in place from the persistence context, so
+     * that the Inventory is read again if the transaction goes on to use it.
+     * Nothing else the caller holds is detached.
+     *
+     * @param shard
+     *            the location's state
+     * @param bom
+     *            the lines that were deducted
+     */
+    private void evict ( final Shard shard, final BillOfMaterials bom ) {
+        final Long inventoryId = shard.inventoryId;
+        if ( inventoryId != null ) {
+            // a reference is the managed Inventory if there is one, and an
+            // unloaded proxy otherwise; either way nothing is read
+            entityManager.detach( entityManager.getReference( Inventory.class, inventoryId ) );
+        }
+        for ( int n = 0; n < bom.size(); n++ ) {
+            if ( bom.ingredientId( n ) != null ) {
+                entityManager.detach( entityManager.getReference( Ingredient.class, bom.ingredientId( n ) ) );
+            }
+        }
+    }
+
+    /**
+     * Makes several recipes at a location in one pass, as when a batch of
+     * orders is completed. See deductIngredients(List, List, String); no
+     * held ingredients are used.
+     *
+     * @param recipes
+     *            the recipes to make
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return for each recipe, null if it was made, otherwise the name of the
+     *         ingredient there was not enough of
+     */
+    public List<String> deductIngredients ( final List<Recipe> recipes, final String location ) {
+        return deductIngredients( recipes, Collections.nCopies( recipes.size(), (String) null ), location );
+    }
+
+    /**
+     * Makes the drinks of several orders at a location in one pass, as when a
+     * batch of orders is completed. The holds of the orders are consumed
+     * first, and what they held is made for them as it is. The other recipes
+     * are planned in order against the location's counters: each one that
+     * still fits is added to a combined demand, and each one that does not is
+     * skipped. The combined demand is then reserved and deducted once along
+     * with what was held, as by deductIngredients(Recipe, String), so each
+     * ingredient row is written once however many recipes use it.
+     *
+     * If another brew takes ingredients between planning and deducting, the
+     * plan is made again from the new counters, up to a few times, after
+     * which the recipes are made one at a time.
+     *
+     * @param recipes
+     *            the recipes to make
+     * @param orders
+     *            the name of the order each recipe is for, or null for a
+     *            recipe that has no hold
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return for each recipe, null if it was made, otherwise the name of the
+     *         ingredient there was not enough of
+     */
+    public List<String> deductIngredients ( final List<Recipe> recipes, final List<String> orders,
+            final String location ) {
+        final Shard shard = shard( location );
+        List<String> results = null;
+        for ( int attempt = 0; attempt < BATCH_ATTEMPTS; attempt++ ) {
+            if ( !shard.reservations.isLoaded() ) {
+                loadReservations( shard, location );
+            }
+            final List<Hold> consumed = consume( shard, orders );
+            final Set<String> held = new HashSet<String>();
+            for ( final Hold hold : consumed ) {
+                held.add( hold.getOrder() );
+            }
+            results = new ArrayList<String>( recipes.size() );
+            final Map<String, Integer> left = new HashMap<String, Integer>();
+            final Recipe combined = new Recipe();
+            for ( int n = 0; n < recipes.size(); n++ ) {
+                if ( held.contains( orders.get( n ) ) ) {
+                    results.add( null );
+                    continue;
+                }
+                final String missing = plan( shard, recipes.get( n ), left );
+                if ( missing == null ) {
+                    for ( final Ingredient line : recipes.get( n ).getIngredients() ) {
+                        combined.addIngredient( new Ingredient( line.getName(), line.getAmount() ) );
+                    }
+                }
+                results.add( missing );
+            }
+            if ( combined.getIngredients().isEmpty() && consumed.isEmpty()
+                    || deduct( combined, location, consumed ) == null ) {
+                return results;
+            }
+        }
+        // the counters kept moving, so make the planned recipes one by one
+        for ( int n = 0; n < results.size(); n++ ) {
+            if ( results.get( n ) == null ) {
+                results.set( n, orders.get( n ) == null ? deductIngredients( recipes.get( n ), location )
+                        : deductIngredients( recipes.get( n ), orders.get( n ), location ) );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Checks whether a recipe fits in what the counters hold once the recipes
+     * already planned are taken out, and takes it out too if so.
+     *
+     * @param shard
+     *            the location's state
+     * @param recipe
+     *            the recipe to plan
+     * @param left
+     *            the amount of each ingredient left after the recipes already
+     *            planned; ingredients not yet used are not in it
+     * @return null if the recipe was planned, otherwise the name of the
+     *         ingredient there is not enough of
+     */
+    private static String plan ( final Shard shard, final Recipe recipe, final Map<String, Integer> left ) {
+        final Map<String, Integer> needed = needed( recipe );
+        for ( final Map.Entry<String, Integer> e : needed.entrySet() ) {
+            final int amount = left.containsKey( e.getKey() ) ? left.get( e.getKey() )
+                    : shard.reservations.amount( e.getKey() );
+            // ingredients the inventory does not stock are ignored
+            if ( amount >= 0 && amount < e.getValue() ) {
+                return e.getKey();
+            }
+        }
+        for ( final Map.Entry<String, Integer> e : needed.entrySet() ) {
+            final int amount = left.containsKey( e.getKey() ) ? left.get( e.getKey() )
+                    : shard.reservations.amount( e.getKey() );
+            if ( amount >= 0 ) {
+                left.put( e.getKey(), amount - e.getValue() );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Holds the ingredients of an order that has just been placed, so that
+     * nothing else can use them before it is made. They are taken off the
+     * location's counters straight away. The hold is dropped if the
+     * transaction rolls back, and otherwise kept until the order is made, its
+     * hold is released, or it expires.
+     *
+     * @param order
+     *            the name of the order
+     * @param recipe
+     *            the ingredients of every drink of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return null if the ingredients are held, otherwise the name of the
+     *         ingredient there is not enough of
+     */
+    public String hold ( final String order, final Recipe recipe, final String location ) {
+        return hold( shard( location ), order, recipe, location, System.currentTimeMillis() );
+    }
+
+    /**
+     * Holds the ingredients of an order that was placed before the
+     * application started, as when the holds are rebuilt from the orders
+     * waiting to be made. The hold of an order that has not been started
+     * expires when it would have if it had been kept since the order was
+     * placed, so orders placed longer ago than `coffeemaker.holds.ttl-ms` are
+     * not held at all. The hold of an order that has been started is pinned,
+     * as by pinHold, however long ago it was placed.
+     *
+     * @param order
+     *            the name of the order
+     * @param recipe
+     *            the ingredients of every drink of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param placed
+     *            when the order was placed, or null if that was not recorded
+     * @param started
+     *            whether the order has been started
+     * @return true if the ingredients are held
+     */
+    public boolean restoreHold ( final String order, final Recipe recipe, final String location,
+            final Instant placed, final boolean started ) {
+        final long now = System.currentTimeMillis();
+        final long since = placed == null || started ? now : Math.min( now, placed.toEpochMilli() );
+        if ( since + holdTtl <= now || !hasLocation( location ) ) {
+            return false;
+        }
+        final Shard shard = shard( location );
+        if ( hold( shard, order, recipe, location, since ) != null || !shard.holds.isHeld( order ) ) {
+            return false;
+        }
+        if ( started ) {
+            shard.holds.pin( order );
+        }
+        return true;
+    }
+
+    /**
+     * Keeps the hold of an order until its drinks are made or it is canceled,
+     * as when it is started: a hold that expired while staff were making the
+     * order would let its ingredients go to another. If the transaction rolls
+     * back, the hold can expire again. Nothing happens if the order has no
+     * hold.
+     *
+     * @param order
+     *            the name of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    public void pinHold ( final String order, final String location ) {
+        final Shard shard = shard( location );
+        if ( shard.holds.pin( order ) ) {
+            TransactionWrites.onCompletion( null, () -> shard.holds.unpin( order ) );
+        }
+    }
+
+    /**
+     * Takes the ingredients of an order off the location's counters and holds
+     * them for it. Nothing happens if the order already has a hold.
+     *
+     * @param shard
+     *            the location's state
+     * @param order
+     *            the name of the order
+     * @param recipe
+     *            the ingredients of every drink of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param since
+     *            when the hold starts, in milliseconds
+     * @return null if the ingredients are held, otherwise the name of the
+     *         ingredient there is not enough of
+     */
+    private String hold ( final Shard shard, final String order, final Recipe recipe, final String location,
+            final long since ) {
+        final Hold hold;
+        synchronized ( shard.holds ) {
+            if ( !shard.reservations.isLoaded() ) {
+                loadReservations( shard, location );
+            }
+            if ( shard.holds.isHeld( order ) ) {
+                return null;
+            }
+            if ( shard.reservations.reserve( recipe ) == null ) {
+                return shard.reservations.shortIngredient( recipe );
+            }
+            hold = shard.holds.add( order, needed( recipe ), since );
+        }
+        TransactionWrites.onCompletion( null, () -> drop( shard, hold ) );
+        return null;
+    }
+
+    /**
+     * Releases the ingredients held for an order, as when it is canceled,
+     * giving them back to the location's counters. If the transaction rolls
+     * back, the hold is put back as long as its ingredients are still free.
+     *
+     * @param order
+     *            the name of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    public void releaseHold ( final String order, final String location ) {
+        final Shard shard = shard( location );
+        final Hold hold;
+        synchronized ( shard.holds ) {
+            hold = shard.holds.remove( order );
+            if ( hold == null ) {
+                return;
+            }
+            shard.reservations.release( recipeOf( hold.getDemand() ) );
+        }
+        TransactionWrites.onCompletion( null, () -> reinstate( shard, hold ) );
+    }
+
+    /**
+     * Checks whether ingredients are held for an order.
+     *
+     * @param order
+     *            the name of the order
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return true if they are
+     */
+    public boolean isHeld ( final String order, final String location ) {
+        return shard( location ).holds.isHeld( order );
+    }
+
+    /**
+     * Releases every hold that has been kept for longer than
+     * `coffeemaker.holds.ttl-ms`, giving its ingredients back to the
+     * counters. Runs every `coffeemaker.holds.tick-ms` (a second by default).
+     *
+     * @return the names of the orders whose holds were released
+     */
+    @Scheduled ( fixedDelayString = "${coffeemaker.holds.tick-ms:1000}" )
+    @Transactional ( Transactional.TxType.SUPPORTS )
+    public List<String> expireHolds () {
+        final long now = System.currentTimeMillis();
+        final List<String> expired = new ArrayList<String>();
+        for ( final Shard shard : shards.values() ) {
+            synchronized ( shard.holds ) {
+                for ( final Hold hold : shard.holds.expire( now ) ) {
+                    shard.reservations.release( recipeOf( hold.getDemand() ) );
+                    expired.add( hold.getOrder() );
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * Removes a hold for good, as when the transaction that placed its order
+     * rolls back, and gives its ingredients back to the counters if it was
+     * still kept.
+     *
+     * @param shard
+     *            the location's state
+     * @param hold
+     *            the hold
+     */
+    private static void drop ( final Shard shard, final Hold hold ) {
+        synchronized ( shard.holds ) {
+            if ( shard.holds.drop( hold ) ) {
+                shard.reservations.release( recipeOf( hold.getDemand() ) );
+            }
+        }
+    }
+
+    /**
+     * Puts back a hold that was released by a transaction that rolled back,
+     * taking its ingredients off the counters again. If they have been used
+     * meanwhile, the hold stays released.
+     *
+     * @param shard
+     *            the location's state
+     * @param hold
+     *            the hold
+     */
+    private static void reinstate ( final Shard shard, final Hold hold ) {
+        synchronized ( shard.holds ) {
+            if ( !shard.reservations.isLoaded() ) {
+                // the counters take it off when they are loaded
+                shard.holds.restore( hold );
+                return;
+            }
+            final Recipe held = recipeOf( hold.getDemand() );
+            if ( shard.reservations.reserve( held ) != null && !shard.holds.restore( hold ) ) {
+                shard.reservations.release( held );
+            }
+        }
+    }
+
+    /**
+     * Turns the amounts held for an order back into a recipe.
+     *
+     * @param demand
+     *            the amount of each ingredient, by name
+     * @return a recipe with one line per ingredient
+     */
+    private static Recipe recipeOf ( final Map<String, Integer> demand ) {
+        final Recipe recipe = new Recipe();
+        for ( final Map.Entry<String, Integer> e : demand.entrySet() ) {
+            recipe.addIngredient( new Ingredient( e.getKey(), e.getValue() ) );
+        }
+        return recipe;
+    }
+
+    /**
+     * Adds up the amount of each ingredient a recipe needs.
+     *
+     * @param recipe
+     *            the recipe
+     * @return the amounts, by ingredient name
+     */
+    private static Map<String, Integer> needed ( final Recipe recipe ) {
+        final Map<String, Integer> needed = new HashMap<String, Integer>();
+        for ( final Ingredient line : recipe.getIngredients() ) {
+            needed.merge( line.getName(), line.getAmount(), Integer::sum );
+        }
+        return needed;
+    }
+
+    /**
+     * Returns how many cups of each recipe the default Inventory can make
+     * right now. See getAvailability(String).
+     *
+     * @return cups by recipe name
+     */
+    public Map<String, Integer> getAvailability () {
+        return getAvailability( null );
+    }
+
+    /**
+     * Returns how many cups of each recipe a location's Inventory can make
+     * right now. The counts are kept up to date as the Inventory and the
+     * recipes change, so this does not look at either.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return cups by recipe name
+     */
+    public Map<String, Integer> getAvailability ( final String location ) {
+        final RecipeAvailability availability = shard( location ).availability;
+        if ( !WRITTEN.pending() && availability.isLoaded() ) {
+            return availability.cups();
+        }
+        final long seen = availability.changes();
+        final Inventory inventory = getInventory( location );
+        final List<Recipe> recipes = recipeRepository.findAll();
+        if ( !WRITTEN.pending()
+                && availability.load( inventory, recipes, seen ) ) {
+            return availability.cups();
+        }
+        // uncommitted or changed meanwhile, so count without keeping it
+        final RecipeAvailability counted = new RecipeAvailability();
+        counted.load( inventory, recipes, counted.changes() );
+        return counted.cups();
+    }
+
+    /**
+     * Returns the low-stock watermarks of a location.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the watermarks
+     */
+    public List<StockWatermark> getWatermarks ( final String location ) {
+        return watermarkRepository.findForLocation( canonical( location ) );
+    }
+
+    /**
+     * Sets the low-stock watermark of an ingredient. Once its amount falls to
+     * the watermark or below, the ingredient is reported as low on stock.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @param level
+     *            the watermark
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return true if the watermark was set, false if the location has no
+     *         such ingredient
+     * @throws IllegalArgumentException
+     *             if the watermark is negative
+     */
+    public boolean setWatermark ( final String name, final int level, final String location ) {
+        if ( getInventory( location ).getIngredientAmount( new Ingredient( name, 0 ) ) < 0 ) {
+            return false;
+        }
+        StockWatermark watermark = findWatermark( name, location );
+        if ( watermark == null ) {
+            watermark = new StockWatermark( canonical( location ), name, level );
+        }
+        else {
+            watermark.setLevel( level );
+        }
+        watermarkRepository.save( watermark );
+        watermarksChanged( shard( location ) );
+        return true;
+    }
+
+    /**
+     * Removes the low-stock watermark of an ingredient.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return true if there was a watermark to remove
+     */
+    public boolean removeWatermark ( final String name, final String location ) {
+        final StockWatermark watermark = findWatermark( name, location );
+        if ( watermark == null ) {
+            return false;
+        }
+        watermarkRepository.delete( watermark );
+        watermarksChanged( shard( location ) );
+        return true;
+    }
+
+    /**
+     * Returns the ingredients of a location that are at or below their
+     * watermark right now.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the low ingredients
+     */
+    public List<Crossing> getLowStock ( final String location ) {
+        final Shard shard = shard( location );
+        if ( !shard.watermarks.isLoaded() ) {
+            loadWatermarks( shard, location );
+        }
+        if ( !WRITTEN.pending() && shard.watermarks.isLoaded() ) {
+            return shard.watermarks.lowStock();
+        }
+        // uncommitted or changed meanwhile, so work it out without keeping it
+        final LowStockWatermarks counted = new LowStockWatermarks( canonical( location ) );
+        counted.load( getInventory( location ), getWatermarks( location ), counted.changes() );
+        return counted.lowStock();
+    }
+
+    /**
+     * Tells every Inventory that a recipe was created or edited, so that brews
+     * and availability use its new ingredients. Must be called whenever a
+     * recipe is saved.
+     *
+     * @param recipe
+     *            the recipe that changed
+     */
+    public void recipeChanged ( final Recipe recipe ) {
+        for ( final Shard shard : shards.values() ) {
+            shard.reservations.forget( recipe );
+        }
+        WRITTEN.afterCommit( new Runnable() {
+            @Override
+            public void run () {
+                for ( final Shard shard : shards.values() ) {
+                    shard.availability.recipeSaved( recipe );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Tells every Inventory that a recipe was deleted.
+     *
+     * @param recipe
+     *            the recipe that was deleted
+     */
+    public void recipeRemoved ( final Recipe recipe ) {
+        for ( final Shard shard : shards.values() ) {
+            shard.reservations.forget( recipe );
+        }
+        WRITTEN.afterCommit( new Runnable() {
+            @Override
+            public void run () {
+                for ( final Shard shard : shards.values() ) {
+                    shard.availability.recipeRemoved( recipe );
+                }
+            }
+        } );
+    }
+
+    /**
+     * Tells every Inventory that every recipe was deleted.
+     */
+    public void recipesRemoved () {
+        WRITTEN.afterCommit( new Runnable() {
+            @Override
+            public void run () {
+                for ( final Shard shard : shards.values() ) {
+                    shard.availability.clear();
+                }
+            }
+        } );
+    }
+
+    /**
+     * Returns the in-memory state of a location, creating it on first use.
+     * State is only created for locations that have an Inventory, so a
+     * mistyped location costs nothing once it has been refused.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the location's state
+     * @throws UnknownLocationException
+     *             if there is no Inventory at the location
+     */
+    private Shard shard ( final String location ) {
+        final String key = location == null ? DEFAULT : location;
+        final Shard shard = shards.get( key );
+        if ( shard != null ) {
+            return shard;
+        }
+        checkLocation( key );
+        return shards.computeIfAbsent( key, k -> new Shard( canonical( k ), holdTtl, holdTick ) );
+    }
+
+    /**
+     * Returns the location as it is stored on the Inventory.
+     *
+     * @param location
+     *            the location, or null or empty for the default Inventory
+     * @return the location, or null for the default Inventory
+     */
+    private static String canonical ( final String location ) {
+        return DEFAULT.equals( location ) ? null : location;
+    }
+
+    /**
+     * Finds the watermark of an ingredient.
+     *
+     * @param name
+     *            the name of the ingredient
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the watermark, or null if it has none
+     */
+    private StockWatermark findWatermark ( final String name, final String location ) {
+        for ( final StockWatermark w : getWatermarks( location ) ) {
+            if ( w.getIngredient().equals( name ) ) {
+                return w;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops a location's tracked watermarks once the current transaction
+     * commits, so that they are loaded again with the change.
+     *
+     * @param shard
+     *            the location's state
+     */
+    private void watermarksChanged ( final Shard shard ) {
+        WRITTEN.afterCommit( new Runnable() {
+            @Override
+            public void run () {
+                synchronized ( shard.availability ) {
+                    shard.watermarks.clear();
+                }
+            }
+        } );
+    }
+
+    /**
+     * Loads a location's watermarks and the amounts of the ingredients they
+     * watch, unless the current transaction has uncommitted writes or the
+     * Inventory changed while they were being read.
+     *
+     * @param shard
+     *            the location's state
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    private void loadWatermarks ( final Shard shard, final String location ) {
+        if ( WRITTEN.pending() ) {
+            return;
+        }
+        final long seen = shard.watermarks.changes();
+        final List<StockWatermark> watermarks = getWatermarks( location );
+        shard.watermarks.load( getInventory( location ), watermarks, seen );
+    }
+
+    /**
+     * Loads a location's ingredient counters from its persisted Inventory,
+     * unless another thread got there first.
+     *
+     * @param shard
+     *            the location's state
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    private void loadReservations ( final Shard shard, final String location ) {
+        synchronized ( shard.holds ) {
+            if ( !shard.reservations.isLoaded() ) {
+                loadReservations( shard, getInventory( location ) );
+            }
+        }
+    }
+
+    /**
+     * Loads a location's ingredient counters from an Inventory, less what is
+     * held for orders. Holds cannot change while the counters are loaded.
+     *
+     * @param shard
+     *            the location's state
+     * @param inventory
+     *            the Inventory
+     */
+    private static void loadReservations ( final Shard shard, final Inventory inventory ) {
+        synchronized ( shard.holds ) {
+            shard.reservations.load( inventory, shard.holds.held() );
+            shard.inventoryId = inventory.getId();
+        }
+    }
+
+    /**
+     * Drops a location's ingredient counters so that they are loaded again
+     * before next use. Never happens while a hold is being made or let go.
+     *
+     * @param shard
+     *            the location's state
+     */
+    private static void clearReservations ( final Shard shard ) {
+        synchronized ( shard.holds ) {
+            shard.reservations.clear();
+        }
+    }
+
+    /**
+     * Records that the current transaction has written to a location's
+     * Inventory. Until it completes, reads in the transaction bypass the
+     * cached copies. Once it commits, onCommit brings the cached copy up to
+     * date; without an onCommit the cached copy is dropped. If the transaction
+     * rolls back, the cached copy and the ingredient counters are both
+     * dropped.
+     *
+     * @param shard
+     *            the location's state
+     * @param onCommit
+     *            what to do to the cached copy on commit, may be null
+     */
+    private void written ( final Shard shard, final Runnable onCommit ) {
+        WRITTEN.afterCompletion( onCommit != null ? onCommit : () -> invalidate( shard ), () -> {
+            clearReservations( shard );
+            invalidate( shard );
+        } );
+    }
+
+    /**
+     * Drops a location's cached copy so that the next read goes to the
+     * database, and its availability counts along with it.
+     *
+     * @param shard
+     *            the location's state
+     */
+    private void invalidate ( final Shard shard ) {
+        synchronized ( shard.availability ) {
+            Snapshot current;
+            do {
+                current = shard.snapshot.get();
+            }
+            while ( !shard.snapshot.compareAndSet( current, new Snapshot( null, current.generation + 1 ) ) );
+            shard.availability.clear();
+            shard.watermarks.clear();
+        }
+    }
+
+    /**
+     * Brings a location's cached copy and availability counts forward after a
+     * committed write, either by replacing the Inventory outright or by
+     * applying a brewed recipe to it. Both are updated under the availability
+     * lock so that a concurrent getAvailability cannot load counts from an
+     * Inventory this write has already been applied to. Ingredients that
+     * crossed their watermark are then pushed to subscribers.
+     *
+     * @param shard
+     *            the location's state
+     * @param brewed
+     *            a recipe whose ingredients were used, or null
+     * @param replacement
+     *            a saved Inventory to cache instead, or null
+     */
+    private void advance ( final Shard shard, final Recipe brewed, final Inventory replacement ) {
+        final List<Crossing> crossings;
+        synchronized ( shard.availability ) {
+            Snapshot current;
+            Inventory next;
+            do {
+                current = shard.snapshot.get();
+                next = replacement;
+                if ( next == null && current.inventory != null ) {
+                    next = current.inventory.copy();
+                    next.advanceVersion();
+                    for ( final Ingredient line : brewed.getIngredients() ) {
+                        final int left = next.getIngredientAmount( line );
+                        if ( left >= 0 ) {
+                            next.setIngredientAmount( line.getName(), left - line.getAmount() );
+                        }
+                    }
+                }
+            }
+            while ( !shard.snapshot.compareAndSet( current, new Snapshot( next, current.generation + 1 ) ) );
+
+            if ( replacement != null ) {
+                shard.availability.restocked( replacement );
+                crossings = shard.watermarks.restocked( replacement );
+            }
+            else {
+                shard.availability.brewed( brewed );
+                crossings = shard.watermarks.brewed( brewed );
+            }
+        }
+        if ( !crossings.isEmpty() ) {
+            notifier.publish( crossings );
+        }
+    }
+
+    /**
+     * The in-memory state kept for one location's Inventory.
+     */
+    private static final class Shard {
+
+        /** Lock-free ingredient counters that brews are reserved against */
+        private final InventoryReservations     reservations = new InventoryReservations();
+
+        /** How many cups of each recipe can be made */
+        private final RecipeAvailability        availability = new RecipeAvailability();
+
+        /** Which ingredients are low on stock */
+        private final LowStockWatermarks        watermarks;
+
+        /** The cached Inventory */
+        private final AtomicReference<Snapshot> snapshot     = new AtomicReference<Snapshot>(
+                new Snapshot( null, 0 ) );
+
+        /** Ingredients held for orders not yet made */
+        private final InventoryHolds            holds;
+
+        /** Id of the location's Inventory, once the counters are loaded */
+        private volatile Long                   inventoryId;
+
+        /**
+         * Creates the state of a location.
+         *
+         * @param location
+         *            the location, or null for the default Inventory
+         * @param holdTtl
+         *            how long an order's ingredients are held, in milliseconds
+         * @param holdTick
+         *            how often expired holds are let go, in milliseconds
+         */
+        private Shard ( final String location, final long holdTtl, final long holdTick ) {
+            watermarks = new LowStockWatermarks( location );
+            holds = new InventoryHolds( holdTtl, holdTick );
+        }
+    }
+
+    /**
+     * An immutable cached copy of an Inventory, or its absence, together with
+     * a generation that moves forward on every committed write. A read only
+     * caches what it loaded if the generation has not moved in the meantime,
+     * so a slow read can never overwrite a newer write.
+     */
+    private static final class Snapshot {
+
+        /** The cached Inventory, or null if there is none */
+        private final Inventory inventory;
+
+        /** Number of committed writes seen */
+        private final long      generation;
+
+        /**
+         * Creates a snapshot.
+         *
+         * @param inventory
+         *            the cached Inventory, or null
+         * @param generation
+         *            the generation
+         */
+        private Snapshot ( final Inventory inventory, final long generation ) {
+            this.inventory = inventory;
+            this.generation = generation;
+        }
     }
 
 }
@@ -0,0 +1,88 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.List;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import edu.ncsu.csc.CoffeeMaker.services.LowStockWatermarks.Crossing;
+
+/**
+ * Pushes low-stock crossings to the clients watching each location, as
+ * Server-Sent Events named `low-stock`. Clients subscribe once and are told
+ * whenever an ingredient goes low or is restocked, so they need not poll the
+ * inventory.
+ *
+ */
+@Component
+public class LowStockNotifier {
+
+    /** Name of the events sent */
+    static final String            EVENT       = "low-stock";
+
+    /** Key under which the default Inventory's subscribers are kept */
+    private static final String    DEFAULT     = "";
+
+    /** Subscribers of each location */
+    private final EventBroadcaster broadcaster = new EventBroadcaster( EVENT );
+
+    /**
+     * Subscribes a client to a location's crossings. The client is first sent
+     * the ingredients that are low right now.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @param current
+     *            the ingredients of the location that are low right now
+     * @return the event stream to hand to the client
+     */
+    public SseEmitter subscribe ( final String location, final List<Crossing> current ) {
+        return broadcaster.subscribe( key( location ), current );
+    }
+
+    /**
+     * Sends crossings to the subscribers of their locations, without waiting
+     * for them to be sent.
+     *
+     * @param crossings
+     *            the crossings
+     */
+    public void publish ( final List<Crossing> crossings ) {
+        for ( final Crossing crossing : crossings ) {
+            broadcaster.publish( key( crossing.getLocation() ), crossing );
+        }
+    }
+
+    /**
+     * Returns the number of clients subscribed to a location.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the number of subscribers
+     */
+    public int subscriberCount ( final String location ) {
+        return broadcaster.subscriberCount( key( location ) );
+    }
+
+    /**
+     * Stops sending crossings.
+     */
+    @PreDestroy
+    public void stop () {
+        broadcaster.shutdown();
+    }
+
+    /**
+     * Returns the key a location's subscribers are kept under.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     * @return the key
+     */
+    private static String key ( final String location ) {
+        return location == null ? DEFAULT : location;
+    }
+
+}
@@ -0,0 +1,306 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.StockWatermark;
+
+/**
+ * Keeps track of which of one location's ingredients are low on stock, that
+ * is, at or below their watermark. Only ingredients with a watermark are
+ * tracked, and a brew only looks at the ingredients of the recipe, so the
+ * cost of a brew does not grow with the size of the inventory or the number
+ * of watermarks.
+ *
+ * Each change reports the ingredients that crossed their watermark, in either
+ * direction, so that they can be pushed to whoever is listening.
+ */
+public class LowStockWatermarks {
+
+    /** Location the watermarks belong to, or null for the default Inventory */
+    private final String             location;
+
+    /** Tracked ingredients, by name */
+    private final Map<String, Gauge> gauges  = new HashMap<String, Gauge>();
+
+    /** Whether the watermarks are loaded */
+    private boolean                  loaded;
+
+    /** Number of changes seen */
+    private final ChangeCount        changes = new ChangeCount();
+
+    /**
+     * Creates the watermarks of a location, not yet loaded.
+     *
+     * @param location
+     *            the location, or null for the default Inventory
+     */
+    public LowStockWatermarks ( final String location ) {
+        this.location = location;
+    }
+
+    /**
+     * Checks whether the watermarks have been loaded.
+     *
+     * @return true if the ingredients are being tracked
+     */
+    public synchronized boolean isLoaded () {
+        return loaded;
+    }
+
+    /**
+     * Returns the number of changes seen so far. Pass this to load to make
+     * sure nothing changed while the inventory and watermarks were being read.
+     *
+     * @return the number of changes
+     */
+    public synchronized long changes () {
+        return changes.get();
+    }
+
+    /**
+     * Loads the watermarks and the current amounts, unless something has
+     * changed since the given number of changes was read. Nothing is reported
+     * for ingredients that are already low.
+     *
+     * @param inventory
+     *            the inventory; it is not kept
+     * @param watermarks
+     *            the watermarks of the location
+     * @param seen
+     *            the number of changes when the inventory and watermarks were
+     *            read
+     * @return true if the watermarks were loaded
+     */
+    public synchronized boolean load ( final Inventory inventory, final List<StockWatermark> watermarks,
+            final long seen ) {
+        if ( !changes.isCurrent( seen ) ) {
+            return false;
+        }
+        gauges.clear();
+        for ( final StockWatermark w : watermarks ) {
+            final int amount = inventory.getIngredientAmount( new Ingredient( w.getIngredient(), 0 ) );
+            if ( amount >= 0 ) {
+                gauges.put( w.getIngredient(), new Gauge( w.getLevel(), amount ) );
+            }
+        }
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Forgets everything, so that the watermarks are loaded again before they
+     * are next used.
+     */
+    public synchronized void clear () {
+        changes.changed();
+        loaded = false;
+        gauges.clear();
+    }
+
+    /**
+     * Applies a brewed recipe to the tracked amounts.
+     *
+     * @param brewed
+     *            the recipe that was made
+     * @return the ingredients that crossed their watermark
+     */
+    public synchronized List<Crossing> brewed ( final Recipe brewed ) {
+        changes.changed();
+        if ( !loaded ) {
+            return Collections.emptyList();
+        }
+        final List<Crossing> crossings = new ArrayList<Crossing>();
+        for ( final Ingredient line : brewed.getIngredients() ) {
+            final Gauge gauge = gauges.get( line.getName() );
+            if ( gauge != null && line.getAmount() != null ) {
+                gauge.amount -= line.getAmount();
+                check( line.getName(), gauge, crossings );
+            }
+        }
+        return crossings;
+    }
+
+    /**
+     * Brings the tracked amounts in line with a saved inventory.
+     *
+     * @param inventory
+     *            the saved inventory; it is not kept
+     * @return the ingredients that crossed their watermark
+     */
+    public synchronized List<Crossing> restocked ( final Inventory inventory ) {
+        changes.changed();
+        if ( !loaded ) {
+            return Collections.emptyList();
+        }
+        final List<Crossing> crossings = new ArrayList<Crossing>();
+        for ( final Map.Entry<String, Gauge> e : gauges.entrySet() ) {
+            final int amount = inventory.getIngredientAmount( new Ingredient( e.getKey(), 0 ) );
+            if ( amount >= 0 && amount != e.getValue().amount ) {
+                e.getValue().amount = amount;
+                check( e.getKey(), e.getValue(), crossings );
+            }
+        }
+        return crossings;
+    }
+
+    /**
+     * Returns every tracked ingredient that is currently low on stock.
+     *
+     * @return the low ingredients, each as a crossing into low stock
+     */
+    public synchronized List<Crossing> lowStock () {
+        final List<Crossing> low = new ArrayList<Crossing>();
+        for ( final Map.Entry<String, Gauge> e : gauges.entrySet() ) {
+            if ( e.getValue().low ) {
+                low.add( new Crossing( location, e.getKey(), e.getValue().amount, e.getValue().level, true ) );
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reports an ingredient if its amount has moved to the other side of its
+     * watermark.
+     *
+     * @param name
+     *            the ingredient
+     * @param gauge
+     *            its tracked amount and watermark
+     * @param crossings
+     *            where to report it
+     */
+    private void check ( final String name, final Gauge gauge, final List<Crossing> crossings ) {
+        final boolean low = gauge.amount <= gauge.level;
+        if ( low != gauge.low ) {
+            gauge.low = low;
+            crossings.add( new Crossing( location, name, gauge.amount, gauge.level, low ) );
+        }
+    }
+
+    /**
+     * The tracked amount of one ingredient and its watermark.
+     */
+    private static final class Gauge {
+
+        /** The watermark */
+        private final int level;
+
+        /** The amount */
+        private int       amount;
+
+        /** Whether the amount is at or below the watermark */
+        private boolean   low;
+
+        /**
+         * Creates a gauge.
+         *
+         * @param level
+         *            the watermark
+         * @param amount
+         *            the current amount
+         */
+        private Gauge ( final int level, final int amount ) {
+            this.level = level;
+            this.amount = amount;
+            this.low = amount <= level;
+        }
+    }
+
+    /**
+     * An ingredient that has gone low on stock, or has been restocked above
+     * its watermark.
+     */
+    public static final class Crossing {
+
+        /** Location of the Inventory, or null for the default Inventory */
+        private final String  location;
+
+        /** Name of the ingredient */
+        private final String  ingredient;
+
+        /** Amount of the ingredient */
+        private final int     amount;
+
+        /** The watermark */
+        private final int     level;
+
+        /** Whether the ingredient is now low on stock */
+        private final boolean low;
+
+        /**
+         * Creates a crossing.
+         *
+         * @param location
+         *            the location, or null for the default Inventory
+         * @param ingredient
+         *            the ingredient
+         * @param amount
+         *            its amount
+         * @param level
+         *            its watermark
+         * @param low
+         *            whether it is now low on stock
+         */
+        public Crossing ( final String location, final String ingredient, final int amount, final int level,
+                final boolean low ) {
+            this.location = location;
+            this.ingredient = ingredient;
+            this.amount = amount;
+            this.level = level;
+            this.low = low;
+        }
+
+        /**
+         * Returns the location of the Inventory.
+         *
+         * @return the location, or null for the default Inventory
+         */
+        public String getLocation () {
+            return location;
+        }
+
+        /**
+         * Returns the name of the ingredient.
+         *
+         * @return the ingredient
+         */
+        public String getIngredient () {
+            return ingredient;
+        }
+
+        /**
+         * Returns the amount of the ingredient.
+         *
+         * @return the amount
+         */
+        public int getAmount () {
+            return amount;
+        }
+
+        /**
+         * Returns the watermark of the ingredient.
+         *
+         * @return the watermark
+         */
+        public int getLevel () {
+            return level;
+        }
+
+        /**
+         * Returns whether the ingredient is now low on stock.
+         *
+         * @return true if low, false if it was restocked above its watermark
+         */
+        public boolean isLow () {
+            return low;
+        }
+    }
+
+}
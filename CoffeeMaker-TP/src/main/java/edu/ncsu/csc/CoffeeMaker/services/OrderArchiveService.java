@@ -0,0 +1,123 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import edu.ncsu.csc.CoffeeMaker.models.ArchivedOrder;
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+import edu.ncsu.csc.CoffeeMaker.repositories.ArchivedOrderRepository;
+import edu.ncsu.csc.CoffeeMaker.repositories.OrderRepository;
+
+/**
+ * The OrderArchiveService moves finished orders out of the live orders table
+ * and serves them back from the archive. Orders that were picked up or
+ * canceled are never changed again, so once they are old enough they only
+ * slow down queries over the orders still being worked on. Moving them keeps
+ * the live table, and the order_lines table joined to it, the size of the
+ * current workload.
+ *
+ * Orders are moved a chunk at a time, each chunk in its own transaction, so
+ * archiving never holds locks on more than a chunk of rows. See OrderArchiver
+ * for when it runs.
+ *
+ */
+@Component
+@Transactional
+public class OrderArchiveService extends Service<ArchivedOrder, Long> {
+
+    /** Statuses an order is finished with */
+    private static final EnumSet<OrderStatus> FINISHED = EnumSet.of( OrderStatus.PICKED_UP, OrderStatus.CANCELED );
+
+    /** ArchivedOrderRepository */
+    @Autowired
+    private ArchivedOrderRepository           archiveRepository;
+
+    /** OrderRepository, to move orders from */
+    @Autowired
+    private OrderRepository                   orderRepository;
+
+    /** EntityManager, used to insert archived orders without reading first */
+    @PersistenceContext
+    private EntityManager                     entityManager;
+
+    /**
+     * The archiveRepository to return
+     */
+    @Override
+    protected JpaRepository<ArchivedOrder, Long> getRepository () {
+        return archiveRepository;
+    }
+
+    /**
+     * Moves one chunk of orders picked up or canceled before a cutoff into
+     * the archive, oldest first.
+     *
+     * @param cutoff
+     *            orders picked up or canceled at or after this time are left
+     *            alone
+     * @param limit
+     *            the most orders to move
+     * @return the number of orders moved; fewer than limit once none are left
+     */
+    public int archive ( final Instant cutoff, final int limit ) {
+        final List<Order> orders = orderRepository.findArchivable( FINISHED, cutoff, PageRequest.of( 0, limit ) );
+        if ( orders.isEmpty() ) {
+            return 0;
+        }
+        final List<Long> ids = new ArrayList<Long>( orders.size() );
+        for ( final Order order : orders ) {
+            entityManager.persist( new ArchivedOrder( order ) );
+            ids.add( order.getId() );
+        }
+        entityManager.flush();
+        orderRepository.deleteLines( ids );
+        orderRepository.deleteOrders( ids );
+        return orders.size();
+    }
+
+    /**
+     * Finds an archived order by the name it had while it was live.
+     *
+     * @param name
+     *            the name of the order
+     * @return the order, or null if it has not been archived
+     */
+    public ArchivedOrder findByName ( final String name ) {
+        return archiveRepository.findByName( name );
+    }
+
+    /**
+     * Returns a page of a customer's archived orders, newest first. To get the
+     * next page, pass the id of the last order of this one as before.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for both
+     * @param before
+     *            only orders with a smaller id are returned, or null to start
+     *            from the newest
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    public List<ArchivedOrder> findHistory ( final Customer customer, final OrderStatus status, final Long before,
+            final int limit ) {
+        return archiveRepository.findHistory( customer, status, before == null ? Long.MAX_VALUE : before,
+                PageRequest.of( 0, limit ) );
+    }
+
+}
@@ -0,0 +1,65 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves finished orders into the archive in the background. Every
+ * `coffeemaker.archive.interval-ms` (an hour by default), orders that were
+ * picked up or canceled more than `coffeemaker.archive.age-days` ago (30 by
+ * default) are moved in chunks of `coffeemaker.archive.chunk` (500 by
+ * default) until none are left.
+ *
+ */
+@Component
+public class OrderArchiver {
+
+    /** Days an order is kept live after it was picked up or canceled */
+    @Value ( "${coffeemaker.archive.age-days:30}" )
+    private int                 ageDays;
+
+    /** Orders moved in each transaction */
+    @Value ( "${coffeemaker.archive.chunk:500}" )
+    private int                 chunk;
+
+    /** OrderArchiveService, which moves each chunk */
+    @Autowired
+    private OrderArchiveService archiveService;
+
+    /**
+     * Archives every finished order that is old enough.
+     *
+     * @return the number of orders moved
+     */
+    @Scheduled ( initialDelayString = "${coffeemaker.archive.interval-ms:3600000}",
+            fixedDelayString = "${coffeemaker.archive.interval-ms:3600000}" )
+    public int archive () {
+        return archive( Instant.now().minus( Duration.ofDays( ageDays ) ) );
+    }
+
+    /**
+     * Archives every order picked up or canceled before a cutoff, one chunk
+     * per transaction.
+     *
+     * @param cutoff
+     *            orders picked up or canceled at or after this time are left
+     *            alone
+     * @return the number of orders moved
+     */
+    public int archive ( final Instant cutoff ) {
+        int total = 0;
+        int moved;
+        do {
+            moved = archiveService.archive( cutoff, chunk );
+            total += moved;
+        }
+        while ( moved == chunk );
+        return total;
+    }
+
+}
@@ -0,0 +1,271 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.OrderLine;
+
+/**
+ * Orders accepted from customers but not yet placed. The queue is bounded:
+ * once it is full, offer refuses straight away rather than waiting, so a
+ * rush is turned away at the door instead of tying up request threads.
+ * Workers take orders off in batches and place them.
+ *
+ * Every order is given its public key when it is queued. Until it has been
+ * placed or rejected its key is pending; the reasons for the last few
+ * thousand rejections are kept so that clients can find out what happened to
+ * an order that was never placed. An idempotency key that is already queued
+ * for a customer gets back the key of the order already queued.
+ */
+public class OrderIntake {
+
+    /** Rejections remembered */
+    private static final int                REJECTIONS = 4096;
+
+    /** Orders waiting to be placed, oldest first */
+    private final BlockingQueue<Pending>    queue;
+
+    /** Keys of the orders queued or being placed */
+    private final Set<String>               pending    = ConcurrentHashMap.newKeySet();
+
+    /** Keys of the orders queued or being placed, by idempotency key */
+    private final Map<String, String>       retries    = new ConcurrentHashMap<String, String>();
+
+    /** Why the most recently rejected orders were rejected, by order key */
+    private final Map<String, String>       rejected   = Collections.synchronizedMap( new Rejections() );
+
+    /**
+     * Creates an empty intake.
+     *
+     * @param capacity
+     *            the most orders that can wait at once
+     */
+    public OrderIntake ( final int capacity ) {
+        queue = new ArrayBlockingQueue<Pending>( capacity );
+    }
+
+    /**
+     * Queues an order if there is room.
+     *
+     * @param pending
+     *            the order
+     * @return the key of the order queued, which is that of an order already
+     *         queued with the same idempotency key if there is one, or null if
+     *         the intake is full
+     */
+    public String offer ( final Pending pending ) {
+        final String retry = pending.retryKey();
+        if ( retry != null ) {
+            final String queued = retries.putIfAbsent( retry, pending.name );
+            if ( queued != null ) {
+                return queued;
+            }
+        }
+        this.pending.add( pending.name );
+        if ( !queue.offer( pending ) ) {
+            forget( pending );
+            return null;
+        }
+        return pending.name;
+    }
+
+    /**
+     * Takes a batch of orders to place, waiting for the first if none is
+     * queued.
+     *
+     * @param max
+     *            the most orders to take
+     * @param timeout
+     *            how long to wait for the first order, in milliseconds
+     * @return the orders, oldest first; empty if none came in time
+     * @throws InterruptedException
+     *             if the thread was interrupted while waiting
+     */
+    public List<Pending> take ( final int max, final long timeout ) throws InterruptedException {
+        final Pending first = queue.poll( timeout, TimeUnit.MILLISECONDS );
+        if ( first == null ) {
+            return Collections.emptyList();
+        }
+        final List<Pending> batch = new ArrayList<Pending>( max );
+        batch.add( first );
+        queue.drainTo( batch, max - 1 );
+        return batch;
+    }
+
+    /**
+     * Records that an order was placed.
+     *
+     * @param pending
+     *            the order
+     */
+    public void placed ( final Pending pending ) {
+        forget( pending );
+    }
+
+    /**
+     * Records that an order could not be placed.
+     *
+     * @param pending
+     *            the order
+     * @param reason
+     *            why not
+     */
+    public void rejected ( final Pending pending, final String reason ) {
+        rejected.put( pending.name, reason );
+        forget( pending );
+    }
+
+    /**
+     * Checks whether an order is still queued or being placed.
+     *
+     * @param name
+     *            the key of the order
+     * @return true if it is
+     */
+    public boolean isPending ( final String name ) {
+        return pending.contains( name );
+    }
+
+    /**
+     * Returns why an order was rejected.
+     *
+     * @param name
+     *            the key of the order
+     * @return the reason, or null if it was not rejected or was rejected too
+     *         long ago to be remembered
+     */
+    public String rejection ( final String name ) {
+        return rejected.get( name );
+    }
+
+    /**
+     * Returns the number of orders waiting to be taken.
+     *
+     * @return the number of orders
+     */
+    public int size () {
+        return queue.size();
+    }
+
+    /**
+     * Stops tracking an order that has left the intake.
+     *
+     * @param pending
+     *            the order
+     */
+    private void forget ( final Pending pending ) {
+        final String retry = pending.retryKey();
+        if ( retry != null ) {
+            retries.remove( retry, pending.name );
+        }
+        this.pending.remove( pending.name );
+    }
+
+    /**
+     * The most recent rejections, oldest dropped first.
+     */
+    private static final class Rejections extends LinkedHashMap<String, String> {
+
+        /** Serial version */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry ( final Map.Entry<String, String> eldest ) {
+            return size() > REJECTIONS;
+        }
+    }
+
+    /**
+     * An order as it was received, with the key it was given. The lines are
+     * kept as sent, so the order can be built afresh for every attempt to
+     * place it.
+     */
+    public static final class Pending {
+
+        /** Key the order is given */
+        private final String          name;
+
+        /** The customer placing it */
+        private final Customer        customer;
+
+        /** Idempotency key sent with it, or null */
+        private final String          idempotencyKey;
+
+        /** The time the customer gave */
+        private final String          time;
+
+        /** The store or machine it is for, or null for the default */
+        private final String          location;
+
+        /** The lines as sent */
+        private final List<OrderLine> lines;
+
+        /**
+         * Creates a pending order.
+         *
+         * @param name
+         *            the key to give it
+         * @param order
+         *            the order as received
+         * @param customer
+         *            the customer placing it
+         * @param idempotencyKey
+         *            the idempotency key sent with it, or null
+         */
+        public Pending ( final String name, final Order order, final Customer customer,
+                final String idempotencyKey ) {
+            this.name = name;
+            this.customer = customer;
+            this.idempotencyKey = idempotencyKey;
+            this.time = order.getTime();
+            this.location = order.getLocation();
+            this.lines = new ArrayList<OrderLine>( order.getLines() );
+        }
+
+        /**
+         * Returns the key of the order.
+         *
+         * @return the key
+         */
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * Builds the order to place, with its key, customer and idempotency
+         * key set.
+         *
+         * @return a new order
+         */
+        public Order toOrder () {
+            final Order order = new Order();
+            order.setName( name );
+            order.setCustomer( customer );
+            order.setIdempotencyKey( idempotencyKey );
+            order.setTime( time );
+            order.setLocation( location );
+            order.setLines( lines );
+            return order;
+        }
+
+        /**
+         * Returns what identifies retries of this order.
+         *
+         * @return the customer and idempotency key, or null if no key was sent
+         */
+        private String retryKey () {
+            return idempotencyKey == null ? null : customer.getName() + "\n" + idempotencyKey;
+        }
+    }
+
+}
@@ -0,0 +1,254 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.services.OrderIntake.Pending;
+
+/**
+ * Places orders in the background, so that taking an order during a rush
+ * never waits on the database. Orders are queued in an OrderIntake of
+ * `coffeemaker.intake.capacity` orders (1000 by default) and placed by
+ * `coffeemaker.intake.workers` threads (2 by default), up to
+ * `coffeemaker.intake.batch` orders (50 by default) per transaction. When the
+ * intake is full, new orders are refused at once.
+ *
+ * If a batch fails as a whole, its orders are placed again one per
+ * transaction, so one bad order costs only itself. Like the order queue, the
+ * intake is kept in memory, so orders still queued when an instance stops are
+ * lost.
+ *
+ */
+@Component
+public class OrderIntakeService {
+
+    /** How long a worker waits for an order before checking it should stop */
+    private static final long   POLL_MS = 500;
+
+    /** Most orders waiting at once */
+    @Value ( "${coffeemaker.intake.capacity:1000}" )
+    private int                 capacity;
+
+    /** Threads placing orders */
+    @Value ( "${coffeemaker.intake.workers:2}" )
+    private int                 workers;
+
+    /** Most orders placed per transaction */
+    @Value ( "${coffeemaker.intake.batch:50}" )
+    private int                 batch;
+
+    /** Seconds a refused client should wait before trying again */
+    @Value ( "${coffeemaker.intake.retry-after-s:1}" )
+    private int                 retryAfter;
+
+    /** OrderService, which places the orders */
+    @Autowired
+    private OrderService        orderService;
+
+    /** Orders waiting to be placed */
+    private OrderIntake         intake;
+
+    /** The workers, or null if they have not been started */
+    private ExecutorService     pool;
+
+    /** Whether the workers should keep going */
+    private volatile boolean    running;
+
+    /**
+     * Creates the intake once the settings are known.
+     */
+    @PostConstruct
+    public void init () {
+        intake = new OrderIntake( capacity );
+    }
+
+    /**
+     * Starts the workers. Called when the application starts.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public synchronized void start () {
+        if ( pool != null ) {
+            return;
+        }
+        running = true;
+        pool = Executors.newFixedThreadPool( workers, task -> {
+            final Thread thread = new Thread( task, "order-intake" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        for ( int n = 0; n < workers; n++ ) {
+            pool.execute( this::work );
+        }
+    }
+
+    /**
+     * Stops the workers. Orders still queued are not placed.
+     */
+    @PreDestroy
+    public synchronized void stop () {
+        running = false;
+        if ( pool != null ) {
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    /**
+     * Queues an order to be placed for a customer.
+     *
+     * @param order
+     *            the order, as received
+     * @param customer
+     *            the customer placing it
+     * @param idempotencyKey
+     *            the key the client sent, or null if none was sent
+     * @return the key the order will be placed under, or null if the intake
+     *         is full
+     */
+    public String submit ( final Order order, final Customer customer, final String idempotencyKey ) {
+        return intake.offer( new Pending( orderService.newKey(), order, customer, idempotencyKey ) );
+    }
+
+    /**
+     * Returns how long a client whose order was refused should wait before
+     * trying again.
+     *
+     * @return the time, in seconds
+     */
+    public int getRetryAfter () {
+        return retryAfter;
+    }
+
+    /**
+     * Checks whether an order is still waiting to be placed.
+     *
+     * @param name
+     *            the key of the order
+     * @return true if it is
+     */
+    public boolean isPending ( final String name ) {
+        return intake.isPending( name );
+    }
+
+    /**
+     * Returns why a queued order could not be placed.
+     *
+     * @param name
+     *            the key of the order
+     * @return the reason, or null if it was not rejected
+     */
+    public String rejection ( final String name ) {
+        return intake.rejection( name );
+    }
+
+    /**
+     * Takes batches of orders off the intake and places them until stopped.
+     */
+    private void work () {
+        while ( running ) {
+            try {
+                final List<Pending> taken = intake.take( batch, POLL_MS );
+                if ( !taken.isEmpty() ) {
+                    place( taken );
+                }
+            }
+            catch ( final InterruptedException e ) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            catch ( final RuntimeException e ) {
+                // place deals with its own orders failing; nothing else may
+                // stop the worker
+            }
+        }
+    }
+
+    /**
+     * Places a batch of orders in one transaction, falling back to one
+     * transaction per order if the batch fails.
+     *
+     * @param taken
+     *            the orders
+     */
+    private void place ( final List<Pending> taken ) {
+        final List<Pending> ready = new ArrayList<Pending>( taken.size() );
+        final List<Order> orders = new ArrayList<Order>( taken.size() );
+        for ( final Pending pending : taken ) {
+            try {
+                orders.add( pending.toOrder() );
+                ready.add( pending );
+            }
+            catch ( final RuntimeException e ) {
+                intake.rejected( pending, reason( e ) );
+            }
+        }
+        if ( ready.isEmpty() ) {
+            return;
+        }
+        List<String> results;
+        try {
+            results = orderService.placeAll( orders );
+        }
+        catch ( final RuntimeException e ) {
+            // one order spoiled the batch, so place each on its own
+            results = new ArrayList<String>( ready.size() );
+            for ( final Pending pending : ready ) {
+                results.add( placeOne( pending ) );
+            }
+        }
+        for ( int n = 0; n < ready.size(); n++ ) {
+            if ( results.get( n ) == null ) {
+                intake.placed( ready.get( n ) );
+            }
+            else {
+                intake.rejected( ready.get( n ), results.get( n ) );
+            }
+        }
+    }
+
+    /**
+     * Places one order in its own transaction.
+     *
+     * @param pending
+     *            the order
+     * @return null if it was placed, otherwise why not
+     */
+    private String placeOne ( final Pending pending ) {
+        try {
+            return orderService.placeAll( Collections.singletonList( pending.toOrder() ) ).get( 0 );
+        }
+        catch ( final RuntimeException e ) {
+            return reason( e );
+        }
+    }
+
+    /**
+     * Describes why an order could not be placed.
+     *
+     * @param e
+     *            what went wrong
+     * @return the message of an IllegalArgumentException, which says what
+     *         was wrong with the order, otherwise a general message
+     */
+    private static String reason ( final RuntimeException e ) {
+        if ( e instanceof IllegalArgumentException && e.getMessage() != null ) {
+            return e.getMessage();
+        }
+        return "The order could not be placed";
+    }
+
+}
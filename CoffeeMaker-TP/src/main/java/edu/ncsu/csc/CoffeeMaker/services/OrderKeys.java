@@ -0,0 +1,77 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Hands out the public keys of new orders. Keys are made in memory before the
+ * order is saved, so that placing an order takes a single insert instead of
+ * an insert to learn the id and an update to copy it into the name.
+ *
+ * A key is a positive long, written in decimal like the ids used as names
+ * before: the time in milliseconds, then a number picked at random for this
+ * instance, then a counter. Keys therefore sort in the order they were made,
+ * and two instances only clash if they pick the same number.
+ */
+public class OrderKeys {
+
+    /** Bits given to the counter */
+    private static final int  SEQUENCE_BITS = 12;
+
+    /** Bits given to the instance */
+    private static final int  NODE_BITS     = 10;
+
+    /** Largest value of the counter */
+    private static final long MAX_SEQUENCE  = ( 1L << SEQUENCE_BITS ) - 1;
+
+    /** Number of this instance */
+    private final long        node;
+
+    /** Time of the last key made, in ms */
+    private long              lastMillis    = -1;
+
+    /** Counter within lastMillis */
+    private long              sequence;
+
+    /**
+     * Creates a generator with a random instance number.
+     */
+    public OrderKeys () {
+        this( ThreadLocalRandom.current().nextLong( 1L << NODE_BITS ) );
+    }
+
+    /**
+     * Creates a generator with a given instance number.
+     *
+     * @param node
+     *            the instance number, from 0 to 1023
+     */
+    public OrderKeys ( final long node ) {
+        if ( node < 0 || node >= 1L << NODE_BITS ) {
+            throw new IllegalArgumentException( "Node must be between 0 and " + ( ( 1L << NODE_BITS ) - 1 ) );
+        }
+        this.node = node;
+    }
+
+    /**
+     * Makes the next key.
+     *
+     * @return the key, greater than any made before by this generator
+     */
+    public synchronized String next () {
+        long millis = Math.max( System.currentTimeMillis(), lastMillis );
+        if ( millis == lastMillis ) {
+            sequence = ( sequence + 1 ) & MAX_SEQUENCE;
+            if ( sequence == 0 ) {
+                // the counter ran out within this millisecond, so borrow the
+                // next one rather than wait for the clock
+                millis++;
+            }
+        }
+        else {
+            sequence = 0;
+        }
+        lastMillis = millis;
+        return Long.toString( millis << ( NODE_BITS + SEQUENCE_BITS ) | node << SEQUENCE_BITS | sequence );
+    }
+
+}
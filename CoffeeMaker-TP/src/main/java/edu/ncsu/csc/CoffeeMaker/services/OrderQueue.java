@@ -0,0 +1,223 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+
+/**
+ * The orders waiting to be made, first come first served, with one line per
+ * location. Taking the next order is a lock-free poll, and an order can only
+ * be taken once: every waiting order id is also held in a map, and whoever
+ * removes it from the map owns it. Orders that stop waiting for any other
+ * reason, as when staff pick a particular order, are removed from the map and
+ * from their line, so a line only ever holds waiting orders.
+ *
+ * The queue is an index over the orders table, not a replacement for it.
+ * OrderService still claims each order with a guarded update, so a stale
+ * queue can cost a retry but never hand one order to two people.
+ */
+public class OrderQueue {
+
+    /** Key under which the default location's line is kept */
+    private static final String                                          DEFAULT = "";
+
+    /** Ids of the orders waiting in each location, oldest first */
+    private final ConcurrentHashMap<String, ConcurrentLinkedDeque<Long>> lines   =
+            new ConcurrentHashMap<String, ConcurrentLinkedDeque<Long>>();
+
+    /** Line of every waiting order, by order id */
+    private final Map<Long, String>                                      waiting =
+            new ConcurrentHashMap<Long, String>();
+
+    /** Whether the queue is loaded */
+    private volatile boolean                                             loaded;
+
+    /** Number of changes seen */
+    private final ChangeCount                                            changes = new ChangeCount();
+
+    /**
+     * Checks whether the queue has been loaded.
+     *
+     * @return true if the waiting orders are being tracked
+     */
+    public boolean isLoaded () {
+        return loaded;
+    }
+
+    /**
+     * Returns the number of changes seen so far. Pass this to load to make
+     * sure nothing changed while the orders were being read.
+     *
+     * @return the number of changes
+     */
+    public synchronized long changes () {
+        return changes.get();
+    }
+
+    /**
+     * Loads the queue from the waiting orders, unless something has changed
+     * since the given number of changes was read.
+     *
+     * @param orders
+     *            the orders that have not been started, oldest first
+     * @param seen
+     *            the number of changes when the orders were read
+     * @return true if the queue was loaded
+     */
+    public synchronized boolean load ( final List<Order> orders, final long seen ) {
+        if ( !changes.isCurrent( seen ) ) {
+            return false;
+        }
+        lines.clear();
+        waiting.clear();
+        for ( final Order order : orders ) {
+            if ( waiting.putIfAbsent( order.getId(), key( order.getLocation() ) ) == null ) {
+                line( order.getLocation() ).offerLast( order.getId() );
+            }
+        }
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Forgets everything, so that the queue is loaded again before it is next
+     * used.
+     */
+    public synchronized void clear () {
+        changes.changed();
+        loaded = false;
+        lines.clear();
+        waiting.clear();
+    }
+
+    /**
+     * Brings the queue in line with a saved order: adds it to the back of its
+     * line if it has not been started, and removes it otherwise.
+     *
+     * @param order
+     *            the saved order
+     */
+    public synchronized void saved ( final Order order ) {
+        changes.changed();
+        if ( !loaded || order.getId() == null ) {
+            return;
+        }
+        if ( order.getStatus() == Order.OrderStatus.NOT_STARTED ) {
+            if ( waiting.putIfAbsent( order.getId(), key( order.getLocation() ) ) == null ) {
+                line( order.getLocation() ).offerLast( order.getId() );
+            }
+        }
+        else {
+            take( order.getId() );
+        }
+    }
+
+    /**
+     * Removes an order from the queue, if it is waiting, and from its line.
+     *
+     * @param id
+     *            the id of the order
+     * @return true if this call removed it
+     */
+    public boolean take ( final Long id ) {
+        final String key = waiting.remove( id );
+        if ( key == null ) {
+            return false;
+        }
+        final ConcurrentLinkedDeque<Long> line = lines.get( key );
+        if ( line != null ) {
+            line.removeFirstOccurrence( id );
+        }
+        return true;
+    }
+
+    /**
+     * Takes the order at the front of a location's line.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the id of the order, or null if none is waiting
+     */
+    public Long poll ( final String location ) {
+        final ConcurrentLinkedDeque<Long> line = line( location );
+        Long id;
+        while ( ( id = line.pollFirst() ) != null ) {
+            if ( waiting.remove( id ) != null ) {
+                return id;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Puts an order that was taken back at the front of its line, as when
+     * the transaction that took it rolled back.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @param id
+     *            the id of the order
+     */
+    public void putBack ( final String location, final Long id ) {
+        if ( loaded && waiting.putIfAbsent( id, key( location ) ) == null ) {
+            line( location ).offerFirst( id );
+        }
+    }
+
+    /**
+     * Returns the ids of the orders waiting in a location, oldest first.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the ids
+     */
+    public List<Long> waiting ( final String location ) {
+        final Set<Long> ids = new LinkedHashSet<Long>();
+        for ( final Long id : line( location ) ) {
+            if ( waiting.containsKey( id ) ) {
+                ids.add( id );
+            }
+        }
+        return new ArrayList<Long>( ids );
+    }
+
+    /**
+     * Returns the number of ids in a location's line.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the length of the line
+     */
+    public int length ( final String location ) {
+        return line( location ).size();
+    }
+
+    /**
+     * Returns the line of a location, creating it on first use.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the ids in the line
+     */
+    private ConcurrentLinkedDeque<Long> line ( final String location ) {
+        return lines.computeIfAbsent( key( location ), key -> new ConcurrentLinkedDeque<Long>() );
+    }
+
+    /**
+     * Returns the key a location's line is kept under.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the key
+     */
+    private static String key ( final String location ) {
+        return location == null ? DEFAULT : location;
+    }
+
+}
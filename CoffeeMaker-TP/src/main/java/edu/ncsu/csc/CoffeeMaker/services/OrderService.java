@@ -1,24 +1,99 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.PersistenceContext;
+
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+import edu.ncsu.csc.CoffeeMaker.models.OrderLine;
+import edu.ncsu.csc.CoffeeMaker.models.OrderSummary;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.Staff;
+import edu.ncsu.csc.CoffeeMaker.repositories.ArchivedOrderRepository;
 import edu.ncsu.csc.CoffeeMaker.repositories.OrderRepository;
+import edu.ncsu.csc.CoffeeMaker.services.RecipePrices.Price;
 
 /**
  * The OrderService will handle CRUD operations on the Ingredient model.
  *
+ * Orders that have not been started are also kept in an in-memory OrderQueue,
+ * loaded when the application starts and kept up to date as orders are saved,
+ * so staff can find and claim work without reading every order ever placed.
+ *
+ * Placing an order holds the ingredients it needs in the Inventory, so an
+ * order that was accepted can always be made. The hold is used up when the
+ * order is completed and let go if it is canceled or deleted; one that is
+ * kept too long expires on its own. See InventoryService.hold.
+ *
  */
 @Component
 @Transactional
 public class OrderService extends Service<Order, Long> {
 
+    /**
+     * Marks a transaction that has saved an order. Such a transaction works
+     * from the database rather than the queue, so that it sees its own orders.
+     */
+    private static final TransactionWrites WRITTEN             = new TransactionWrites();
+
+    /** Times a status change is tried before giving up */
+    private static final int               TRANSITION_ATTEMPTS = 3;
+
     /** OrderRepository */
     @Autowired
-    private OrderRepository orderRepository;
+    private OrderRepository                orderRepository;
+
+    /** ArchivedOrderRepository, so reports count archived orders too */
+    @Autowired
+    private ArchivedOrderRepository        archiveRepository;
+
+    /** InventoryService, used to make the drinks of completed orders */
+    @Autowired
+    private InventoryService               inventoryService;
+
+    /** OrderStatusNotifier, telling customers when their orders change */
+    @Autowired
+    private OrderStatusNotifier            notifier;
+
+    /** RecipeService, used to price the lines of new orders */
+    @Autowired
+    private RecipeService                  recipeService;
+
+    /**
+     * EntityManager, used to tie new lines to their recipes without reading
+     * them, and to lock orders completed together
+     */
+    @PersistenceContext
+    private EntityManager                  entityManager;
+
+    /** Orders waiting to be started */
+    private final OrderQueue               queue               = new OrderQueue();
+
+    /** Public keys of new orders */
+    private final OrderKeys                keys                = new OrderKeys();
 
     /**
      * The orderReposiotry to return
@@ -37,4 +112,790 @@ public class OrderService extends Service<Order, Long> {
         return orderRepository.findByName( name );
     }
 
+    /**
+     * Places an order for a customer. The order is given its public key
+     * before it is saved, so placing it takes one insert. Each line is tied
+     * to the recipe of its name and priced as that recipe is now, whatever
+     * the client sent, and the total worked out again. Prices and ingredients
+     * come from RecipeService's in-memory table, so no recipe is read. The
+     * ingredients of every drink are then held, and the order is refused if
+     * the Inventory cannot cover them beside what is held for other orders.
+     *
+     * If the customer's client sent an idempotency key that it has already
+     * placed an order with, as when it retries after losing the response,
+     * that order is returned and nothing is saved.
+     *
+     * @param order
+     *            the order to place
+     * @param customer
+     *            the customer placing it
+     * @param idempotencyKey
+     *            the key the client sent, or null if none was sent
+     * @return the placed order
+     * @throws IllegalArgumentException
+     *             if the order fails checkOrder, the location has no
+     *             Inventory, or there is not enough of an ingredient
+     */
+    public Order place ( final Order order, final Customer customer, final String idempotencyKey ) {
+        return place( order, customer, idempotencyKey, keys.next() );
+    }
+
+    /**
+     * Places an order under a public key it was given beforehand, as when it
+     * was queued by OrderIntakeService. Otherwise as place(Order, Customer,
+     * String).
+     *
+     * @param order
+     *            the order to place
+     * @param customer
+     *            the customer placing it
+     * @param idempotencyKey
+     *            the key the client sent, or null if none was sent
+     * @param name
+     *            the public key of the order, from newKey
+     * @return the placed order, which has another name if the idempotency key
+     *         had already been used
+     * @throws IllegalArgumentException
+     *             if the order fails checkOrder, the location has no
+     *             Inventory, or there is not enough of an ingredient
+     */
+    public Order place ( final Order order, final Customer customer, final String idempotencyKey,
+            final String name ) {
+        if ( idempotencyKey != null ) {
+            final Order placed = findPlaced( customer, idempotencyKey );
+            if ( placed != null ) {
+                return placed;
+            }
+        }
+        checkOrder( order );
+        inventoryService.checkLocation( order.getLocation() );
+        final List<OrderLine> lines = new ArrayList<OrderLine>( order.getLines().size() );
+        final Recipe drinks = new Recipe();
+        for ( final OrderLine line : order.getLines() ) {
+            final Price price = recipeService.price( line.getName() );
+            lines.add( new OrderLine( entityManager.getReference( Recipe.class, price.getId() ), price.getName(),
+                    price.getPrice(), line.getQuantity() ) );
+            for ( final Map.Entry<String, Integer> needed : price.getIngredients().entrySet() ) {
+                drinks.addIngredient( new Ingredient( needed.getKey(), needed.getValue() * line.getQuantity() ) );
+            }
+        }
+        order.setLines( lines );
+        order.setCustomer( customer );
+        order.setStatus( OrderStatus.NOT_STARTED, Instant.now() );
+        order.setName( name );
+        order.setIdempotencyKey( idempotencyKey );
+        final String missing = inventoryService.hold( order.getName(), drinks, order.getLocation() );
+        if ( missing != null ) {
+            throw new IllegalArgumentException( "Not enough " + missing );
+        }
+        save( order );
+        return order;
+    }
+
+    /**
+     * Checks that an order sent by a client could be placed: it must have a
+     * time and at least one line, and every line must name a recipe that
+     * exists and order at least one of it. Placing an order checks this
+     * first, and so does queueing one, so both accept the same orders.
+     *
+     * @param order
+     *            the order as it was sent
+     * @throws IllegalArgumentException
+     *             if the order could never be placed
+     */
+    public void checkOrder ( final Order order ) {
+        if ( order == null || order.getTime() == null || order.getLines() == null || order.getLines().isEmpty() ) {
+            throw new IllegalArgumentException( "Invalid Order" );
+        }
+        for ( final OrderLine line : order.getLines() ) {
+            if ( line == null || line.getQuantity() == null || line.getQuantity() < 1
+                    || recipeService.price( line.getName() ) == null ) {
+                throw new IllegalArgumentException( "Invalid order line " + ( line == null ? null : line.getName() ) );
+            }
+        }
+    }
+
+    /**
+     * Places several orders in one transaction, each with the customer,
+     * idempotency key and public key already set on it. An order that cannot
+     * be placed is skipped without affecting the others.
+     *
+     * @param orders
+     *            the orders to place
+     * @return for each order, null if it was placed, otherwise why not
+     */
+    public List<String> placeAll ( final List<Order> orders ) {
+        final List<String> results = new ArrayList<String>( orders.size() );
+        for ( final Order order : orders ) {
+            try {
+                final Order placed = place( order, order.getCustomer(), order.getIdempotencyKey(),
+                        order.getName() );
+                results.add( placed == order ? null : "Already placed as " + placed.getName() );
+            }
+            catch ( final IllegalArgumentException e ) {
+                results.add( e.getMessage() );
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Returns a new public key for an order that will be placed later.
+     *
+     * @return the key
+     */
+    public String newKey () {
+        return keys.next();
+    }
+
+    /**
+     * Finds the order a customer placed with an idempotency key.
+     *
+     * @param customer
+     *            the customer
+     * @param idempotencyKey
+     *            the key sent when the order was placed
+     * @return the order, or null if there is none
+     */
+    public Order findPlaced ( final Customer customer, final String idempotencyKey ) {
+        return orderRepository.findByCustomerAndIdempotencyKey( customer, idempotencyKey );
+    }
+
+    /**
+     * Returns a page of orders, oldest first. To get the next page, pass the
+     * id of the last order of this one as after.
+     *
+     * @param statuses
+     *            only orders with one of these statuses are returned; every
+     *            status if null or empty
+     * @param from
+     *            only orders placed at or after this time are returned, or
+     *            null for no lower bound
+     * @param to
+     *            only orders placed before this time are returned, or null for
+     *            no upper bound
+     * @param after
+     *            only orders with a greater id are returned, or null to start
+     *            from the oldest
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    public List<Order> findPage ( final Collection<OrderStatus> statuses, final Instant from, final Instant to,
+            final Long after, final int limit ) {
+        return orderRepository.findPage(
+                statuses == null || statuses.isEmpty() ? EnumSet.allOf( OrderStatus.class ) : statuses, from, to,
+                after == null ? 0L : after, PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Returns a page of a customer's orders, newest first. To get the next
+     * page, pass the id of the last order of this one as before.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for every
+     *            status
+     * @param before
+     *            only orders with a smaller id are returned, or null to start
+     *            from the newest
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    public List<Order> findHistory ( final Customer customer, final OrderStatus status, final Long before,
+            final int limit ) {
+        return orderRepository.findHistory( customer, status, before == null ? Long.MAX_VALUE : before,
+                PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Returns the orders with a status that were placed in a range of time,
+     * oldest first.
+     *
+     * @param status
+     *            the status
+     * @param from
+     *            only orders placed at or after this time are returned
+     * @param to
+     *            only orders placed before this time are returned
+     * @param limit
+     *            the most orders to return
+     * @return the orders
+     */
+    public List<Order> findPlacedBetween ( final OrderStatus status, final Instant from, final Instant to,
+            final int limit ) {
+        return orderRepository.findPlacedBetween( status, from, to, PageRequest.of( 0, limit ) );
+    }
+
+    /**
+     * Counts the orders placed in a range of time, by their status now,
+     * including those that have since been archived. Takes one grouped query
+     * on the orders and one on the archive, however many statuses there are.
+     *
+     * @param from
+     *            only orders placed at or after this time are counted
+     * @param to
+     *            only orders placed before this time are counted
+     * @return the number of orders with each status
+     */
+    public Map<OrderStatus, Long> countPlacedBetween ( final Instant from, final Instant to ) {
+        final Map<OrderStatus, Long> counts = new EnumMap<OrderStatus, Long>( OrderStatus.class );
+        for ( final OrderStatus status : OrderStatus.values() ) {
+            counts.put( status, 0L );
+        }
+        for ( final Object[] row : orderRepository.countPlacedBetween( from, to ) ) {
+            counts.merge( (OrderStatus) row[0], (Long) row[1], Long::sum );
+        }
+        for ( final Object[] row : archiveRepository.countPlacedBetween( from, to ) ) {
+            counts.merge( (OrderStatus) row[0], (Long) row[1], Long::sum );
+        }
+        return counts;
+    }
+
+    /**
+     * Counts the orders completed in a range of time, including those that
+     * have since been archived.
+     *
+     * @param from
+     *            only orders completed at or after this time are counted
+     * @param to
+     *            only orders completed before this time are counted
+     * @return the number of orders
+     */
+    public long countCompletedBetween ( final Instant from, final Instant to ) {
+        return orderRepository.countCompletedBetween( from, to ) + archiveRepository.countCompletedBetween( from, to );
+    }
+
+    /**
+     * Returns a page of order summaries, oldest first. Takes the same
+     * arguments as findPage. Reading a page takes two queries however many
+     * orders and recipes it has, and loads no entities.
+     *
+     * @param statuses
+     *            only orders with one of these statuses are returned; every
+     *            status if null or empty
+     * @param from
+     *            only orders placed at or after this time are returned, or
+     *            null for no lower bound
+     * @param to
+     *            only orders placed before this time are returned, or null for
+     *            no upper bound
+     * @param after
+     *            only orders with a greater id are returned, or null to start
+     *            from the oldest
+     * @param limit
+     *            the most orders to return
+     * @return the summaries
+     */
+    public List<OrderSummary> findSummaryPage ( final Collection<OrderStatus> statuses, final Instant from,
+            final Instant to, final Long after, final int limit ) {
+        return withLines( orderRepository.findSummaryPage(
+                statuses == null || statuses.isEmpty() ? EnumSet.allOf( OrderStatus.class ) : statuses, from, to,
+                after == null ? 0L : after, PageRequest.of( 0, limit ) ) );
+    }
+
+    /**
+     * Returns a page of summaries of a customer's orders, newest first. Takes
+     * the same arguments as findHistory.
+     *
+     * @param customer
+     *            the customer
+     * @param status
+     *            only orders with this status are returned, or null for every
+     *            status
+     * @param before
+     *            only orders with a smaller id are returned, or null to start
+     *            from the newest
+     * @param limit
+     *            the most orders to return
+     * @return the summaries
+     */
+    public List<OrderSummary> findSummaryHistory ( final Customer customer, final OrderStatus status,
+            final Long before, final int limit ) {
+        return withLines( orderRepository.findSummaryHistory( customer, status,
+                before == null ? Long.MAX_VALUE : before, PageRequest.of( 0, limit ) ) );
+    }
+
+    /**
+     * Fills in the lines of order summaries with one query.
+     *
+     * @param summaries
+     *            the summaries, without lines
+     * @return the summaries
+     */
+    private List<OrderSummary> withLines ( final List<OrderSummary> summaries ) {
+        if ( summaries.isEmpty() ) {
+            return summaries;
+        }
+        final Map<Long, OrderSummary> byId = new HashMap<Long, OrderSummary>();
+        for ( final OrderSummary summary : summaries ) {
+            byId.put( summary.getId(), summary );
+        }
+        for ( final Object[] row : orderRepository.findLines( byId.keySet() ) ) {
+            byId.get( row[0] ).getLines()
+                    .add( new OrderSummary.Line( (String) row[1], (Integer) row[2], (Integer) row[3] ) );
+        }
+        return summaries;
+    }
+
+    /**
+     * Makes the drinks of an order from exactly the ingredients held for it
+     * when it was placed, or from its recipes as they are now if its hold
+     * expired. The order's status is left as it is.
+     *
+     * @param order
+     *            the order to make
+     * @return null if the drinks were made, otherwise the name of the
+     *         ingredient there was not enough of, which can only happen if
+     *         the order's hold expired or the Inventory was cut
+     */
+    public String make ( final Order order ) {
+        return inventoryService.deductIngredients( drinks( order ), order.getName(), order.getLocation() );
+    }
+
+    /**
+     * Returns one recipe holding the ingredients of all the drinks of an
+     * order, each scaled by how many of it were ordered.
+     *
+     * @param order
+     *            the order
+     * @return the ingredients
+     */
+    private static Recipe drinks ( final Order order ) {
+        final Recipe drinks = new Recipe();
+        for ( final OrderLine line : order.getLines() ) {
+            for ( final Ingredient ingredient : line.getRecipe().getIngredients() ) {
+                drinks.addIngredient(
+                        new Ingredient( ingredient.getName(), ingredient.getAmount() * line.getQuantity() ) );
+            }
+        }
+        return drinks;
+    }
+
+    /**
+     * Completes an order: makes its drinks from the ingredients held for it
+     * and marks it complete, in one transaction, so the ingredients are only
+     * used if the order is completed. The order must be in progress.
+     *
+     * @param order
+     *            the order to complete
+     * @return null if the order was completed, otherwise the name of the
+     *         ingredient there was not enough of, in which case the order is
+     *         left as it is
+     * @throws OptimisticLockingFailureException
+     *             if the order could not be moved to completed, or the
+     *             Inventory held less than expected, in which case nothing is
+     *             used; the order is given the status it now has
+     */
+    public String complete ( final Order order ) {
+        final String missing = make( order );
+        if ( missing == null && !transition( order, OrderStatus.COMPLETED ) ) {
+            throw new OptimisticLockingFailureException( "Order " + order.getName() + " was changed" );
+        }
+        return missing;
+    }
+
+    /**
+     * Completes many orders at once, as staff do at rush hour. Each order is
+     * locked first, in id order, so no other request can move it meanwhile;
+     * an order that another request already moved, as when it was canceled,
+     * is given the status it now has and left out, without affecting the
+     * rest. The orders of each location are then made together, so their
+     * combined ingredients are checked and deducted in one pass rather than
+     * one Inventory write per recipe; see
+     * InventoryService.deductIngredients(List, List, String). The ingredients
+     * held for the orders are used, so only orders whose holds expired can
+     * fail for want of ingredients. Orders there is not enough for are left
+     * as they are, and every order that was made is marked complete in the
+     * same transaction. Orders must be in progress to be completed.
+     *
+     * @param orders
+     *            the orders to complete
+     * @return for each order, null if it was completed, otherwise why not
+     */
+    public List<String> complete ( final List<Order> orders ) {
+        final List<String> results = new ArrayList<String>( Collections.nCopies( orders.size(), (String) null ) );
+        final List<Integer> byId = new ArrayList<Integer>( orders.size() );
+        for ( int n = 0; n < orders.size(); n++ ) {
+            byId.add( n );
+        }
+        byId.sort( ( a, b ) -> orders.get( a ).getId().compareTo( orders.get( b ).getId() ) );
+
+        // lock and read every order before the first write: the status
+        // updates clear the persistence context, after which the orders'
+        // lazy recipes can no longer be loaded
+        final Order[] locked = new Order[orders.size()];
+        final Recipe[] drinks = new Recipe[orders.size()];
+        final Map<String, List<Integer>> byLocation = new LinkedHashMap<String, List<Integer>>();
+        for ( final Integer n : byId ) {
+            final Order order = orders.get( n );
+            final Order current = entityManager.find( Order.class, order.getId(), LockModeType.PESSIMISTIC_WRITE );
+            if ( current == null ) {
+                results.set( n, "Order does not exist" );
+            }
+            else if ( !current.getStatus().canBecome( OrderStatus.COMPLETED ) ) {
+                order.setStatus( current.getStatus() );
+                results.set( n, "Order is now " + current.getStatus() );
+            }
+            else {
+                locked[n] = current;
+                drinks[n] = drinks( current );
+            }
+        }
+        for ( int n = 0; n < orders.size(); n++ ) {
+            if ( locked[n] != null ) {
+                final String location = locked[n].getLocation();
+                byLocation.computeIfAbsent( location == null ? "" : location, key -> new ArrayList<Integer>() )
+                        .add( n );
+            }
+        }
+
+        for ( final List<Integer> positions : byLocation.values() ) {
+            final List<Recipe> demand = new ArrayList<Recipe>( positions.size() );
+            final List<String> names = new ArrayList<String>( positions.size() );
+            for ( final Integer n : positions ) {
+                demand.add( drinks[n] );
+                names.add( locked[n].getName() );
+            }
+            final List<String> made = inventoryService.deductIngredients( demand, names,
+                    locked[positions.get( 0 )].getLocation() );
+            for ( int k = 0; k < positions.size(); k++ ) {
+                final int n = positions.get( k );
+                if ( made.get( k ) != null ) {
+                    results.set( n, "Not enough " + made.get( k ) );
+                }
+                else {
+                    // the order is locked, so nobody can have moved it
+                    transition( locked[n], OrderStatus.COMPLETED );
+                    orders.get( n ).setStatus( OrderStatus.COMPLETED );
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Moves an order to a new status, if the transition is allowed from the
+     * status it has. The change is only made if the order is still at the
+     * version that was read, so it never overwrites someone else's change;
+     * no row lock is held while deciding.
+     *
+     * If someone else changed the order first, it is read again and the
+     * transition is retried from its new status, a few times at most. A cancel
+     * that loses to a claim, for example, still cancels the order in
+     * progress, while a claim that loses to a cancel is refused. The time of
+     * the change is recorded for the new status. The order's customer is told
+     * once the transaction commits. A canceled order's ingredients are let
+     * go, and a started order's are kept until it is made.
+     *
+     * @param order
+     *            the order to move
+     * @param to
+     *            the new status
+     * @return true if the order was moved, false if the transition is not
+     *         allowed from the status the order has, or it no longer exists
+     * @throws OptimisticLockingFailureException
+     *             if the order kept changing on every attempt
+     */
+    public boolean transition ( final Order order, final OrderStatus to ) {
+        Order current = order;
+        for ( int attempt = 0; attempt < TRANSITION_ATTEMPTS; attempt++ ) {
+            if ( !current.getStatus().canBecome( to ) ) {
+                order.setStatus( current.getStatus() );
+                return false;
+            }
+            final Instant now = Instant.now();
+            if ( orderRepository.changeStatus( current.getId(), current.getVersion(), to,
+                    reached( current, OrderStatus.IN_PROGRESS, to, now ),
+                    reached( current, OrderStatus.COMPLETED, to, now ),
+                    reached( current, OrderStatus.PICKED_UP, to, now ),
+                    reached( current, OrderStatus.CANCELED, to, now ) ) == 1 ) {
+                order.setStatus( to, now );
+                if ( to == OrderStatus.CANCELED ) {
+                    inventoryService.releaseHold( order.getName(), order.getLocation() );
+                }
+                else if ( to == OrderStatus.IN_PROGRESS ) {
+                    inventoryService.pinHold( order.getName(), order.getLocation() );
+                }
+                WRITTEN.afterCommit( () -> {
+                    queue.saved( order );
+                    notifier.publish( order );
+                } );
+                return true;
+            }
+            // the update cleared the persistence context, so this reads the
+            // order as it is now
+            current = orderRepository.findById( order.getId() ).orElse( null );
+            if ( current == null ) {
+                return false;
+            }
+        }
+        throw new OptimisticLockingFailureException( "Order " + order.getName() + " kept changing" );
+    }
+
+    /**
+     * Returns when an order reached a status, as it will be once it moves to
+     * another.
+     *
+     * @param order
+     *            the order, as last read
+     * @param status
+     *            the status
+     * @param to
+     *            the status the order is moving to
+     * @param now
+     *            the time of the move
+     * @return now if the order is moving to the status, otherwise when it
+     *         reached it as last read
+     */
+    private static Instant reached ( final Order order, final OrderStatus status, final OrderStatus to,
+            final Instant now ) {
+        return status == to ? now : order.getReached( status );
+    }
+
+    /**
+     * Saves an order, and adds it to or removes it from the queue once the
+     * transaction commits.
+     *
+     * @param order
+     *            the order to save
+     */
+    @Override
+    public void save ( final Order order ) {
+        super.save( order );
+        WRITTEN.afterCommit( () -> queue.saved( order ) );
+    }
+
+    /**
+     * Saves several orders. See save.
+     *
+     * @param orders
+     *            the orders to save
+     */
+    @Override
+    public void saveAll ( final List<Order> orders ) {
+        super.saveAll( orders );
+        WRITTEN.afterCommit( () -> orders.forEach( queue::saved ) );
+    }
+
+    /**
+     * Deletes an order, letting go of anything held for it.
+     *
+     * @param order
+     *            the order to delete
+     */
+    @Override
+    public void delete ( final Order order ) {
+        super.delete( order );
+        inventoryService.releaseHold( order.getName(), order.getLocation() );
+        WRITTEN.afterCommit( () -> queue.take( order.getId() ) );
+    }
+
+    /**
+     * Deletes every order.
+     */
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        WRITTEN.afterCommit( queue::clear );
+    }
+
+    /**
+     * Loads the queue from the database. Called when the application starts,
+     * and again whenever the queue has been dropped.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public void loadQueue () {
+        final long seen = queue.changes();
+        queue.load( orderRepository.findByStatusOrderByIdAsc( OrderStatus.NOT_STARTED ), seen );
+    }
+
+    /**
+     * Holds the ingredients of the orders waiting to be made again when the
+     * application starts, since holds are only kept in memory. Orders already
+     * started are held first, for as long as they take, then the orders
+     * waiting to be started, oldest first, only while their holds would not
+     * yet have expired. Both are held from their recipes as they are now.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public void loadHolds () {
+        for ( final Order order : orderRepository.findByStatusOrderByIdAsc( OrderStatus.IN_PROGRESS ) ) {
+            inventoryService.restoreHold( order.getName(), drinks( order ), order.getLocation(), order.getPlaced(),
+                    true );
+        }
+        for ( final Order order : orderRepository.findByStatusOrderByIdAsc( OrderStatus.NOT_STARTED ) ) {
+            inventoryService.restoreHold( order.getName(), drinks( order ), order.getLocation(), order.getPlaced(),
+                    false );
+        }
+    }
+
+    /**
+     * Returns the orders at a location that are waiting to be started, oldest
+     * first.
+     *
+     * @param location
+     *            the location, or null for the default location
+     * @return the orders
+     */
+    public List<Order> findWaiting ( final String location ) {
+        if ( !useQueue() ) {
+            final List<Order> waiting = new ArrayList<Order>();
+            for ( final Order order : orderRepository.findByStatusOrderByIdAsc( OrderStatus.NOT_STARTED ) ) {
+                if ( sameLocation( order.getLocation(), location ) ) {
+                    waiting.add( order );
+                }
+            }
+            return waiting;
+        }
+        final List<Long> ids = queue.waiting( location );
+        final Map<Long, Order> byId = new HashMap<Long, Order>();
+        for ( final Order order : orderRepository.findAllById( ids ) ) {
+            byId.put( order.getId(), order );
+        }
+        final List<Order> waiting = new ArrayList<Order>( ids.size() );
+        for ( final Long id : ids ) {
+            if ( byId.containsKey( id ) ) {
+                waiting.add( byId.get( id ) );
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Assigns an order to a member of staff and starts it, but only if no one
+     * else has started it already. The order's hold no longer expires.
+     *
+     * @param order
+     *            the order to claim
+     * @param staff
+     *            the staff claiming it
+     * @return true if the order was claimed, false if it had already been
+     *         started, completed or canceled
+     */
+    public boolean claim ( final Order order, final Staff staff ) {
+        final boolean queued = queue.take( order.getId() );
+        final Instant now = Instant.now();
+        if ( orderRepository.start( order.getId(), OrderStatus.NOT_STARTED, OrderStatus.IN_PROGRESS, staff,
+                now ) == 0 ) {
+            return false;
+        }
+        if ( queued ) {
+            putBackOnRollback( order.getLocation(), order.getId() );
+        }
+        inventoryService.pinHold( order.getName(), order.getLocation() );
+        order.setStatus( OrderStatus.IN_PROGRESS, now );
+        publishOnCommit( order );
+        return true;
+    }
+
+    /**
+     * Assigns the oldest waiting order at a location to a member of staff and
+     * starts it.
+     *
+     * @param staff
+     *            the staff claiming an order
+     * @param location
+     *            the location, or null for the default location
+     * @return the order, or null if no order is waiting
+     */
+    public Order claimNext ( final Staff staff, final String location ) {
+        if ( !useQueue() ) {
+            for ( final Order order : findWaiting( location ) ) {
+                if ( orderRepository.start( order.getId(), OrderStatus.NOT_STARTED, OrderStatus.IN_PROGRESS,
+                        staff, Instant.now() ) == 1 ) {
+                    return claimed( order.getId() );
+                }
+            }
+            return null;
+        }
+        Long id;
+        while ( ( id = queue.poll( location ) ) != null ) {
+            // an order taken from the queue may have been started by another
+            // instance, in which case it is dropped and the next one tried
+            if ( orderRepository.start( id, OrderStatus.NOT_STARTED, OrderStatus.IN_PROGRESS, staff,
+                    Instant.now() ) == 1 ) {
+                putBackOnRollback( location, id );
+                return claimed( id );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads an order that was just claimed, keeps its hold until it is made
+     * and tells its customer once the transaction commits.
+     *
+     * @param id
+     *            the id of the order
+     * @return the order
+     */
+    private Order claimed ( final Long id ) {
+        final Order order = orderRepository.findById( id ).orElse( null );
+        if ( order != null ) {
+            inventoryService.pinHold( order.getName(), order.getLocation() );
+            publishOnCommit( order );
+        }
+        return order;
+    }
+
+    /**
+     * Checks whether the queue can be used by the current transaction, loading
+     * it if need be. It cannot if the transaction has saved orders it has not
+     * yet committed, or if the queue could not be loaded.
+     *
+     * @return true if the queue is loaded and up to date for this transaction
+     */
+    private boolean useQueue () {
+        if ( WRITTEN.pending() ) {
+            return false;
+        }
+        if ( !queue.isLoaded() ) {
+            loadQueue();
+        }
+        return queue.isLoaded();
+    }
+
+    /**
+     * Puts an order taken from the queue back if the current transaction rolls
+     * back.
+     *
+     * @param location
+     *            the location of the order
+     * @param id
+     *            the id of the order
+     */
+    private void putBackOnRollback ( final String location, final Long id ) {
+        TransactionWrites.onCompletion( null, () -> queue.putBack( location, id ) );
+    }
+
+    /**
+     * Tells an order's customer about its new status once the current
+     * transaction commits, or straight away if there is no transaction.
+     * Unlike WRITTEN.afterCommit, this leaves the transaction using the queue.
+     *
+     * @param order
+     *            the order whose status changed
+     */
+    private void publishOnCommit ( final Order order ) {
+        TransactionWrites.onCompletion( () -> notifier.publish( order ), null );
+    }
+
+    /**
+     * Checks whether two locations are the same, treating null and empty as
+     * the default location.
+     *
+     * @param a
+     *            a location
+     * @param b
+     *            another location
+     * @return true if they are the same
+     */
+    private static boolean sameLocation ( final String a, final String b ) {
+        final String x = a == null ? "" : a;
+        final String y = b == null ? "" : b;
+        return x.equals( y );
+    }
+
 }
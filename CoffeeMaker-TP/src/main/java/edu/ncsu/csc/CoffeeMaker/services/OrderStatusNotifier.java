@@ -0,0 +1,132 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collections;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+
+/**
+ * Pushes the status changes of each customer's orders to the clients that
+ * customer has open, as Server-Sent Events named `order-status`. Customers
+ * are told as soon as an order is started, completed, picked up or canceled,
+ * so their pages need not poll the order list.
+ *
+ */
+@Component
+public class OrderStatusNotifier {
+
+    /** Name of the events sent */
+    static final String            EVENT       = "order-status";
+
+    /** Subscribers of each customer, by customer name */
+    private final EventBroadcaster broadcaster = new EventBroadcaster( EVENT );
+
+    /**
+     * Subscribes a client to the status changes of a customer's orders.
+     *
+     * @param customer
+     *            the name of the customer
+     * @return the event stream to hand to the client
+     */
+    public SseEmitter subscribe ( final String customer ) {
+        return broadcaster.subscribe( customer, Collections.emptyList() );
+    }
+
+    /**
+     * Sends an order's new status to the subscribers of its customer, without
+     * waiting for it to be sent. Orders with no customer are ignored.
+     *
+     * @param order
+     *            the order whose status changed
+     */
+    public void publish ( final Order order ) {
+        if ( order.getCustomer() == null ) {
+            return;
+        }
+        broadcaster.publish( order.getCustomer().getName(),
+                new Change( order.getId(), order.getName(), order.getStatus() ) );
+    }
+
+    /**
+     * Returns the number of clients subscribed to a customer's orders.
+     *
+     * @param customer
+     *            the name of the customer
+     * @return the number of subscribers
+     */
+    public int subscriberCount ( final String customer ) {
+        return broadcaster.subscriberCount( customer );
+    }
+
+    /**
+     * Stops sending status changes.
+     */
+    @PreDestroy
+    public void stop () {
+        broadcaster.shutdown();
+    }
+
+    /**
+     * The new status of an order.
+     */
+    public static final class Change {
+
+        /** Id of the order */
+        private final Long        id;
+
+        /** Name of the order */
+        private final String      name;
+
+        /** The new status */
+        private final OrderStatus status;
+
+        /**
+         * Creates a change.
+         *
+         * @param id
+         *            the id of the order
+         * @param name
+         *            the name of the order
+         * @param status
+         *            its new status
+         */
+        public Change ( final Long id, final String name, final OrderStatus status ) {
+            this.id = id;
+            this.name = name;
+            this.status = status;
+        }
+
+        /**
+         * Returns the id of the order.
+         *
+         * @return the id
+         */
+        public Long getId () {
+            return id;
+        }
+
+        /**
+         * Returns the name of the order.
+         *
+         * @return the name
+         */
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * Returns the new status of the order.
+         *
+         * @return the status
+         */
+        public OrderStatus getStatus () {
+            return status;
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.ncsu.csc.CoffeeMaker.models.BillOfMaterials;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryLedger;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * Keeps track of how many cups of each recipe the inventory can make, which
+ * is the smallest, over the recipe's ingredients, of the amount in stock
+ * divided by the amount the recipe needs. A recipe none of whose ingredients
+ * are limited can be made any number of times and is counted as
+ * Integer.MAX_VALUE.
+ *
+ * The counts are kept up to date incrementally: a change to the inventory
+ * only recounts the recipes that use the ingredients that changed, and a
+ * change to a recipe only recounts that recipe. Reading the counts takes no
+ * locks.
+ */
+public class RecipeAvailability {
+
+    /** Cups of each recipe, by recipe name */
+    private volatile Map<String, Integer> cups    = new ConcurrentHashMap<String, Integer>();
+
+    /** Private copy of the inventory amounts, or null if not loaded */
+    private InventoryLedger               ledger;
+
+    /** Recipes being counted, by recipe id */
+    private final Map<Long, Entry>        recipes = new HashMap<Long, Entry>();
+
+    /** For each inventory slot, the ids of the recipes that use it */
+    private final List<Set<Long>>         users   = new ArrayList<Set<Long>>();
+
+    /** Number of changes seen */
+    private final ChangeCount             changes = new ChangeCount();
+
+    /**
+     * Checks whether the index has been loaded.
+     *
+     * @return true if the counts are being kept
+     */
+    public synchronized boolean isLoaded () {
+        return ledger != null;
+    }
+
+    /**
+     * Returns the number of changes seen so far. Pass this to load to make
+     * sure nothing changed while the inventory and recipes were being read.
+     *
+     * @return the number of changes
+     */
+    public synchronized long changes () {
+        return changes.get();
+    }
+
+    /**
+     * Returns the number of cups of each recipe that can be made.
+     *
+     * @return cups by recipe name; the map is read-only
+     */
+    public Map<String, Integer> cups () {
+        return Collections.unmodifiableMap( cups );
+    }
+
+    /**
+     * Loads the index from an inventory and the recipes, unless something
+     * has changed since the given number of changes was read.
+     *
+     * @param inventory
+     *            the inventory; it is copied, not kept
+     * @param recipeList
+     *            the recipes
+     * @param seen
+     *            the number of changes when the inventory and recipes were
+     *            read
+     * @return true if the index was loaded
+     */
+    public synchronized boolean load ( final Inventory inventory, final List<Recipe> recipeList, final long seen ) {
+        if ( !changes.isCurrent( seen ) ) {
+            return false;
+        }
+        recipes.clear();
+        for ( final Recipe recipe : recipeList ) {
+            recipes.put( recipe.getId(), new Entry( recipe ) );
+        }
+        rebuild( inventory );
+        return true;
+    }
+
+    /**
+     * Forgets everything, so that the index is loaded again before it is next
+     * used.
+     */
+    public synchronized void clear () {
+        changes.changed();
+        ledger = null;
+        recipes.clear();
+        users.clear();
+        cups = new ConcurrentHashMap<String, Integer>();
+    }
+
+    /**
+     * Applies a brewed recipe to the inventory amounts and recounts the
+     * recipes that share ingredients with it.
+     *
+     * @param brewed
+     *            the recipe that was made
+     */
+    public synchronized void brewed ( final Recipe brewed ) {
+        changes.changed();
+        if ( ledger == null ) {
+            return;
+        }
+        final BillOfMaterials bom = ledger.compile( brewed );
+        ledger.consume( bom );
+        final Set<Long> affected = new HashSet<Long>();
+        for ( int n = 0; n < bom.size(); n++ ) {
+            affected.addAll( users.get( bom.slot( n ) ) );
+        }
+        recount( affected );
+    }
+
+    /**
+     * Brings the inventory amounts in line with a saved inventory and recounts
+     * the recipes that use an ingredient whose amount changed. If ingredients
+     * were added, every recipe is recounted.
+     *
+     * @param inventory
+     *            the saved inventory; it is copied, not kept
+     */
+    public synchronized void restocked ( final Inventory inventory ) {
+        changes.changed();
+        if ( ledger == null ) {
+            return;
+        }
+        final List<Ingredient> ingredients = inventory.getIngredients();
+        boolean sameLayout = ingredients.size() == ledger.size();
+        for ( int slot = 0; sameLayout && slot < ledger.size(); slot++ ) {
+            sameLayout = ledger.ingredient( slot ).getName().equals( ingredients.get( slot ).getName() );
+        }
+        if ( !sameLayout ) {
+            rebuild( inventory );
+            return;
+        }
+        final Set<Long> affected = new HashSet<Long>();
+        for ( int slot = 0; slot < ledger.size(); slot++ ) {
+            final Integer amount = ingredients.get( slot ).getAmount();
+            final int now = amount == null ? 0 : amount;
+            if ( now != ledger.amount( slot ) ) {
+                ledger.set( slot, now );
+                affected.addAll( users.get( slot ) );
+            }
+        }
+        recount( affected );
+    }
+
+    /**
+     * Starts counting a new recipe, or recounts one that was edited.
+     *
+     * @param recipe
+     *            the saved recipe
+     */
+    public synchronized void recipeSaved ( final Recipe recipe ) {
+        changes.changed();
+        if ( ledger == null || recipe.getId() == null ) {
+            return;
+        }
+        final Entry old = recipes.get( recipe.getId() );
+        if ( old != null ) {
+            unlink( recipe.getId(), old );
+        }
+        final Entry entry = new Entry( recipe );
+        recipes.put( recipe.getId(), entry );
+        link( recipe.getId(), entry );
+        recount( Collections.singleton( recipe.getId() ) );
+    }
+
+    /**
+     * Stops counting a deleted recipe.
+     *
+     * @param recipe
+     *            the deleted recipe
+     */
+    public synchronized void recipeRemoved ( final Recipe recipe ) {
+        changes.changed();
+        if ( ledger == null ) {
+            return;
+        }
+        final Entry old = recipes.remove( recipe.getId() );
+        if ( old != null ) {
+            unlink( recipe.getId(), old );
+        }
+    }
+
+    /**
+     * Rebuilds the inventory amounts and every count from scratch.
+     *
+     * @param inventory
+     *            the inventory; it is copied, not kept
+     */
+    private void rebuild ( final Inventory inventory ) {
+        final List<Ingredient> copies = new ArrayList<Ingredient>();
+        for ( final Ingredient i : inventory.getIngredients() ) {
+            copies.add( new Ingredient( i.getName(), i.getAmount() ) );
+        }
+        ledger = new InventoryLedger( copies );
+        users.clear();
+        for ( int slot = 0; slot < ledger.size(); slot++ ) {
+            users.add( new HashSet<Long>() );
+        }
+        cups = new ConcurrentHashMap<String, Integer>();
+        for ( final Map.Entry<Long, Entry> e : recipes.entrySet() ) {
+            link( e.getKey(), e.getValue() );
+        }
+        recount( recipes.keySet() );
+    }
+
+    /**
+     * Compiles a recipe against the inventory layout and records which slots
+     * it uses.
+     *
+     * @param id
+     *            the recipe id
+     * @param entry
+     *            the recipe
+     */
+    private void link ( final Long id, final Entry entry ) {
+        entry.bom = ledger.compile( entry.lines );
+        for ( int n = 0; n < entry.bom.size(); n++ ) {
+            users.get( entry.bom.slot( n ) ).add( id );
+        }
+    }
+
+    /**
+     * Removes a recipe from the slots it uses and from the counts.
+     *
+     * @param id
+     *            the recipe id
+     * @param entry
+     *            the recipe
+     */
+    private void unlink ( final Long id, final Entry entry ) {
+        for ( int n = 0; n < entry.bom.size(); n++ ) {
+            users.get( entry.bom.slot( n ) ).remove( id );
+        }
+        cups.remove( entry.name );
+    }
+
+    /**
+     * Recounts the cups of some recipes.
+     *
+     * @param ids
+     *            the ids of the recipes to recount
+     */
+    private void recount ( final Set<Long> ids ) {
+        for ( final Long id : ids ) {
+            final Entry entry = recipes.get( id );
+            final BillOfMaterials bom = entry.bom;
+            int most = Integer.MAX_VALUE;
+            for ( int n = 0; n < bom.size(); n++ ) {
+                if ( bom.amount( n ) > 0 ) {
+                    most = Math.min( most, Math.max( 0, ledger.amount( bom.slot( n ) ) ) / bom.amount( n ) );
+                }
+            }
+            cups.put( entry.name, most );
+        }
+    }
+
+    /**
+     * A recipe being counted. Holds its own copy of the recipe's ingredients,
+     * so later changes to the Recipe object do not leak in.
+     */
+    private static final class Entry {
+
+        /** Name of the recipe */
+        private final String    name;
+
+        /** Copy of the recipe's ingredients */
+        private final Recipe    lines;
+
+        /** The ingredients compiled against the current layout */
+        private BillOfMaterials bom;
+
+        /**
+         * Copies a recipe.
+         *
+         * @param recipe
+         *            the recipe to copy
+         */
+        private Entry ( final Recipe recipe ) {
+            name = recipe.getName();
+            lines = new Recipe();
+            for ( final Ingredient i : recipe.getIngredients() ) {
+                lines.addIngredient( new Ingredient( i.getName(), i.getAmount() == null ? 0 : i.getAmount() ) );
+            }
+        }
+    }
+
+}
@@ -0,0 +1,233 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * The current name, price and ingredients of every recipe, keyed by recipe id
+ * with an index by name, so that new orders can be priced and their
+ * ingredients held without reading a single recipe. Looking a recipe up takes
+ * no locks.
+ */
+public class RecipePrices {
+
+    /** Every recipe, by recipe id */
+    private final Map<Long, Price>   byId    = new ConcurrentHashMap<Long, Price>();
+
+    /** Id of every recipe, by recipe name */
+    private final Map<String, Long>  byName  = new ConcurrentHashMap<String, Long>();
+
+    /** Whether the table is loaded */
+    private volatile boolean         loaded;
+
+    /** Number of changes seen */
+    private final ChangeCount        changes = new ChangeCount();
+
+    /**
+     * Checks whether the table has been loaded.
+     *
+     * @return true if the recipes are being kept
+     */
+    public boolean isLoaded () {
+        return loaded;
+    }
+
+    /**
+     * Returns the number of changes seen so far. Pass this to load to make
+     * sure nothing changed while the recipes were being read.
+     *
+     * @return the number of changes
+     */
+    public synchronized long changes () {
+        return changes.get();
+    }
+
+    /**
+     * Loads the table from every recipe, unless something has changed since
+     * the given number of changes was read.
+     *
+     * @param recipes
+     *            every recipe
+     * @param seen
+     *            the number of changes when the recipes were read
+     * @return true if the table was loaded
+     */
+    public synchronized boolean load ( final List<Recipe> recipes, final long seen ) {
+        if ( !changes.isCurrent( seen ) ) {
+            return false;
+        }
+        byId.clear();
+        byName.clear();
+        for ( final Recipe recipe : recipes ) {
+            put( recipe );
+        }
+        loaded = true;
+        return true;
+    }
+
+    /**
+     * Forgets everything, so that the table is loaded again before it is next
+     * used.
+     */
+    public synchronized void clear () {
+        changes.changed();
+        loaded = false;
+        byId.clear();
+        byName.clear();
+    }
+
+    /**
+     * Brings the table in line with a created or edited recipe.
+     *
+     * @param recipe
+     *            the saved recipe
+     */
+    public synchronized void saved ( final Recipe recipe ) {
+        changes.changed();
+        if ( !loaded || recipe.getId() == null ) {
+            return;
+        }
+        remove( recipe.getId() );
+        put( recipe );
+    }
+
+    /**
+     * Drops a deleted recipe from the table.
+     *
+     * @param recipe
+     *            the deleted recipe
+     */
+    public synchronized void removed ( final Recipe recipe ) {
+        changes.changed();
+        if ( !loaded || recipe.getId() == null ) {
+            return;
+        }
+        remove( recipe.getId() );
+    }
+
+    /**
+     * Looks a recipe up by id.
+     *
+     * @param id
+     *            the id of the recipe
+     * @return the recipe as it now is, or null if there is none
+     */
+    public Price get ( final Long id ) {
+        return id == null ? null : byId.get( id );
+    }
+
+    /**
+     * Looks a recipe up by name.
+     *
+     * @param name
+     *            the name of the recipe
+     * @return the recipe as it now is, or null if there is none
+     */
+    public Price find ( final String name ) {
+        return name == null ? null : get( byName.get( name ) );
+    }
+
+    /**
+     * Adds a recipe to the table.
+     *
+     * @param recipe
+     *            the recipe
+     */
+    private void put ( final Recipe recipe ) {
+        final Price price = new Price( recipe );
+        byId.put( price.id, price );
+        byName.put( price.name, price.id );
+    }
+
+    /**
+     * Removes a recipe from the table, under whatever name it had.
+     *
+     * @param id
+     *            the id of the recipe
+     */
+    private void remove ( final Long id ) {
+        final Price old = byId.remove( id );
+        if ( old != null ) {
+            byName.remove( old.name, id );
+        }
+    }
+
+    /**
+     * A recipe as it was when it was last saved. Never changes once made, so
+     * it can be handed out freely.
+     */
+    public static final class Price {
+
+        /** Id of the recipe */
+        private final Long                 id;
+
+        /** Name of the recipe */
+        private final String               name;
+
+        /** Price of one of the recipe */
+        private final Integer              price;
+
+        /** Amount of each ingredient one of the recipe needs, by name */
+        private final Map<String, Integer> ingredients;
+
+        /**
+         * Copies what is needed of a recipe.
+         *
+         * @param recipe
+         *            the recipe, which must have been saved
+         */
+        public Price ( final Recipe recipe ) {
+            this.id = recipe.getId();
+            this.name = recipe.getName();
+            this.price = recipe.getPrice();
+            final Map<String, Integer> amounts = new LinkedHashMap<String, Integer>();
+            for ( final Ingredient ingredient : recipe.getIngredients() ) {
+                amounts.merge( ingredient.getName(), ingredient.getAmount(), Integer::sum );
+            }
+            this.ingredients = Collections.unmodifiableMap( amounts );
+        }
+
+        /**
+         * Returns the id of the recipe.
+         *
+         * @return the id
+         */
+        public Long getId () {
+            return id;
+        }
+
+        /**
+         * Returns the name of the recipe.
+         *
+         * @return the name
+         */
+        public String getName () {
+            return name;
+        }
+
+        /**
+         * Returns the price of one of the recipe.
+         *
+         * @return the price
+         */
+        public Integer getPrice () {
+            return price;
+        }
+
+        /**
+         * Returns the amount of each ingredient one of the recipe needs.
+         *
+         * @return the amounts, by ingredient name
+         */
+        public Map<String, Integer> getIngredients () {
+            return ingredients;
+        }
+    }
+
+}
@@ -1,19 +1,29 @@
 package edu.ncsu.csc.CoffeeMaker.services;
 
+import java.util.List;
+
 import javax.transaction.Transactional;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Component;
 
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.repositories.RecipeRepository;
+import edu.ncsu.csc.CoffeeMaker.services.RecipePrices.Price;
 
 /**
  * The RecipeService is used to handle CRUD operations on the Recipe model. In
  * addition to all functionality from `Service`, we also have functionality for
  * retrieving a single Recipe by name.
  *
+ * The name, price and ingredients of every recipe are also kept in an
+ * in-memory RecipePrices table, loaded when the application starts and kept
+ * up to date as recipes are saved and deleted, so that orders can be priced
+ * without reading the recipes; see price.
+ *
  * @author Kai Presler-Marshall
  *
  */
@@ -21,18 +31,65 @@ import edu.ncsu.csc.CoffeeMaker.repositories.RecipeRepository;
 @Transactional
 public class RecipeService extends Service<Recipe, Long> {
 
+    /**
+     * Marks a transaction that has changed a recipe. Such a transaction
+     * prices from the database rather than the table, so that it sees its own
+     * changes.
+     */
+    private static final TransactionWrites WRITTEN = new TransactionWrites();
+
     /**
      * RecipeRepository, to be autowired in by Spring and provide CRUD
      * operations on Recipe model.
      */
     @Autowired
-    private RecipeRepository recipeRepository;
+    private RecipeRepository               recipeRepository;
+
+    /**
+     * InventoryService, told about every change to the recipes so that it can
+     * keep brewing and availability up to date.
+     */
+    @Autowired
+    private InventoryService               inventoryService;
+
+    /** Current price of every recipe */
+    private final RecipePrices             prices  = new RecipePrices();
 
     @Override
     protected JpaRepository<Recipe, Long> getRepository () {
         return recipeRepository;
     }
 
+    @Override
+    public void save ( final Recipe recipe ) {
+        super.save( recipe );
+        inventoryService.recipeChanged( recipe );
+        WRITTEN.afterCommit( () -> prices.saved( recipe ) );
+    }
+
+    @Override
+    public void saveAll ( final List<Recipe> recipes ) {
+        super.saveAll( recipes );
+        for ( final Recipe recipe : recipes ) {
+            inventoryService.recipeChanged( recipe );
+            WRITTEN.afterCommit( () -> prices.saved( recipe ) );
+        }
+    }
+
+    @Override
+    public void delete ( final Recipe recipe ) {
+        super.delete( recipe );
+        inventoryService.recipeRemoved( recipe );
+        WRITTEN.afterCommit( () -> prices.removed( recipe ) );
+    }
+
+    @Override
+    public void deleteAll () {
+        super.deleteAll();
+        inventoryService.recipesRemoved();
+        WRITTEN.afterCommit( prices::clear );
+    }
+
     /**
      * Find a recipe with the provided name
      *
@@ -44,4 +101,40 @@ public class RecipeService extends Service<Recipe, Long> {
         return recipeRepository.findByName( name );
     }
 
+    /**
+     * Returns the current name, price and ingredients of a recipe, as new
+     * orders are priced. This reads nothing from the database unless the
+     * table has not been loaded yet, or the current transaction has itself
+     * changed a recipe.
+     *
+     * @param name
+     *            name of the recipe
+     * @return the recipe as it now is, or null if there is none
+     */
+    public Price price ( final String name ) {
+        if ( WRITTEN.pending() ) {
+            final Recipe recipe = findByName( name );
+            return recipe == null ? null : new Price( recipe );
+        }
+        if ( !prices.isLoaded() ) {
+            loadPrices();
+        }
+        if ( !prices.isLoaded() ) {
+            // a recipe changed while loading; try again next time
+            final Recipe recipe = findByName( name );
+            return recipe == null ? null : new Price( recipe );
+        }
+        return prices.find( name );
+    }
+
+    /**
+     * Loads the price table from the database. Called when the application
+     * starts, and again whenever the table is needed but not loaded.
+     */
+    @EventListener ( ApplicationReadyEvent.class )
+    public void loadPrices () {
+        final long seen = prices.changes();
+        prices.load( recipeRepository.findAll(), seen );
+    }
+
 }
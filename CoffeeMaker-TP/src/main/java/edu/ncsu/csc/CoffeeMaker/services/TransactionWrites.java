@@ -0,0 +1,108 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Defers changes to a service's in-memory state until the transaction that
+ * made them commits, and keeps track of whether the current transaction has
+ * made any. A transaction that has cannot trust the in-memory state, which
+ * does not yet show its own writes, and should read from the database until
+ * it completes.
+ *
+ * Each service keeps its own instance, so that writes to one kind of state do
+ * not send reads of another to the database.
+ */
+public class TransactionWrites {
+
+    /**
+     * Checks whether the current transaction has made writes that the
+     * in-memory state does not show yet.
+     *
+     * @return true if reads should go to the database
+     */
+    public boolean pending () {
+        return TransactionSynchronizationManager.hasResource( this );
+    }
+
+    /**
+     * Runs a task once the current transaction commits, or straight away if
+     * there is no transaction. Nothing is run if the transaction rolls back.
+     * Until the transaction completes, it has pending writes.
+     *
+     * @param onCommit
+     *            the task
+     */
+    public void afterCommit ( final Runnable onCommit ) {
+        afterCompletion( onCommit, null );
+    }
+
+    /**
+     * Runs one task once the current transaction commits and another if it
+     * rolls back. With no transaction, the first is run straight away. Until
+     * the transaction completes, it has pending writes.
+     *
+     * @param onCommit
+     *            what to do on commit, may be null
+     * @param onRollback
+     *            what to do on rollback, may be null
+     */
+    public void afterCompletion ( final Runnable onCommit, final Runnable onRollback ) {
+        if ( TransactionSynchronizationManager.isSynchronizationActive()
+                && !TransactionSynchronizationManager.hasResource( this ) ) {
+            TransactionSynchronizationManager.bindResource( this, Boolean.TRUE );
+        }
+        onCompletion( () -> {
+            unbind();
+            run( onCommit );
+        }, () -> {
+            unbind();
+            run( onRollback );
+        } );
+    }
+
+    /**
+     * Runs one task once the current transaction commits and another if it
+     * rolls back, without marking the transaction as having pending writes.
+     * With no transaction, the first is run straight away.
+     *
+     * @param onCommit
+     *            what to do on commit, may be null
+     * @param onRollback
+     *            what to do on rollback, may be null
+     */
+    public static void onCompletion ( final Runnable onCommit, final Runnable onRollback ) {
+        if ( !TransactionSynchronizationManager.isSynchronizationActive() ) {
+            run( onCommit );
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization( new TransactionSynchronization() {
+            @Override
+            public void afterCompletion ( final int status ) {
+                run( status == STATUS_COMMITTED ? onCommit : onRollback );
+            }
+        } );
+    }
+
+    /**
+     * Clears the current transaction's pending writes, if it has any.
+     */
+    private void unbind () {
+        if ( TransactionSynchronizationManager.hasResource( this ) ) {
+            TransactionSynchronizationManager.unbindResource( this );
+        }
+    }
+
+    /**
+     * Runs a task, if there is one.
+     *
+     * @param task
+     *            the task, may be null
+     */
+    private static void run ( final Runnable task ) {
+        if ( task != null ) {
+            task.run();
+        }
+    }
+
+}
@@ -0,0 +1,24 @@
+package edu.ncsu.csc.CoffeeMaker.services;
+
+/**
+ * Thrown when a request names a location that has no Inventory. Locations are
+ * only opened through InventoryService.createInventory, so this usually means
+ * the location was mistyped. The API controllers answer it with NOT_FOUND.
+ *
+ */
+public class UnknownLocationException extends IllegalArgumentException {
+
+    /** Version of the serialized form */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the exception for a location.
+     *
+     * @param location
+     *            the location that has no Inventory
+     */
+    public UnknownLocationException ( final String location ) {
+        super( "No inventory found at " + location );
+    }
+
+}
@@ -2,9 +2,13 @@ package edu.ncsu.csc.CoffeeMaker.api;
 
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.transaction.Transactional;
 
 import org.junit.jupiter.api.Assertions;
@@ -191,4 +195,42 @@ public class APICoffeeTest {
 
     }
 
+    /**
+     * Tests restocking several ingredients in one request
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testBatchRestock () throws Exception {
+        iService.deleteAll();
+        final Inventory ivt = iService.getInventory();
+        ivt.addIngredient( "Coffee", 10 );
+        ivt.addIngredient( "Milk", 10 );
+        iService.save( ivt );
+
+        final List<Ingredient> delivery = new ArrayList<Ingredient>();
+        delivery.add( new Ingredient( "Coffee", 5 ) );
+        delivery.add( new Ingredient( "Milk", 95 ) );
+        delivery.add( new Ingredient( "Sugar", 3 ) );
+        delivery.add( new Ingredient( "Coffee", 2 ) );
+
+        mvc.perform( put( "/api/v1/inventory/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( delivery ) ) ).andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$[0].status" ).value( "success" ) )
+                .andExpect( jsonPath( "$[1].status" ).value( "failed" ) )
+                .andExpect( jsonPath( "$[2].status" ).value( "failed" ) )
+                .andExpect( jsonPath( "$[3].status" ).value( "success" ) );
+
+        final Inventory restocked = iService.getInventory();
+        Assertions.assertEquals( 17, (int) restocked.getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+        Assertions.assertEquals( 10, (int) restocked.getIngredientAmount( new Ingredient( "Milk", 0 ) ) );
+
+        delivery.clear();
+        delivery.add( new Ingredient( "Milk", 5 ) );
+        mvc.perform( put( "/api/v1/inventory/batch" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( delivery ) ) ).andExpect( status().isOk() );
+    }
+
 }
@@ -4,10 +4,16 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.transaction.Transactional;
 
@@ -25,16 +31,19 @@ import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import edu.ncsu.csc.CoffeeMaker.common.TestUtils;
+import edu.ncsu.csc.CoffeeMaker.models.ArchivedOrder;
 import edu.ncsu.csc.CoffeeMaker.models.Customer;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Order;
 import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+import edu.ncsu.csc.CoffeeMaker.models.OrderSummary;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.models.Staff;
 import edu.ncsu.csc.CoffeeMaker.services.CustomerService;
 import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
+import edu.ncsu.csc.CoffeeMaker.services.OrderArchiveService;
 import edu.ncsu.csc.CoffeeMaker.services.OrderService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
 import edu.ncsu.csc.CoffeeMaker.services.StaffService;
@@ -83,6 +92,10 @@ public class APIOrderTest {
     @Autowired
     private RecipeService           recipeService;
 
+    /** The OrderArchiveService */
+    @Autowired
+    private OrderArchiveService     archiveService;
+
     /** Order name */
     public static final String      NAME     = "2";
     /** Order time placed */
@@ -114,6 +127,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testPlaceOrder () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -134,6 +148,44 @@ public class APIOrderTest {
 
     }
 
+    /**
+     * Testing that a retried placement returns the order already placed
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testPlaceOrderRetried () throws Exception {
+        recipes.add( plain() );
+        customerService.save( new Customer( "custUser1", "password1?" ) );
+        final String order = TestUtils.asJsonString( new Order( recipes, TIME ) );
+
+        final String first = mvc
+                .perform( post( "/api/v1/orders/place/custUser1" ).header( "Idempotency-Key", "checkout-1" )
+                        .contentType( MediaType.APPLICATION_JSON ).content( order ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        final String retried = mvc
+                .perform( post( "/api/v1/orders/place/custUser1" ).header( "Idempotency-Key", "checkout-1" )
+                        .contentType( MediaType.APPLICATION_JSON ).content( order ) )
+                .andExpect( status().isOk() ).andReturn().getResponse().getContentAsString();
+        Assertions.assertEquals( 1, (int) orderService.count() );
+        Assertions.assertEquals( first, retried );
+
+        final Order placed = orderService.findAll().get( 0 );
+        Assertions.assertFalse( placed.getName().isEmpty() );
+        Assertions.assertEquals( placed, orderService.findByName( placed.getName() ) );
+
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).header( "Idempotency-Key", "checkout-2" )
+                .contentType( MediaType.APPLICATION_JSON ).content( order ) ).andExpect( status().isOk() );
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( order ) ).andExpect( status().isOk() );
+        Assertions.assertEquals( 3, (int) orderService.count() );
+
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).header( "Idempotency-Key", "" )
+                .contentType( MediaType.APPLICATION_JSON ).content( order ) ).andExpect( status().isConflict() );
+    }
+
     /**
      * Testing that an invalid order cannot be placed
      *
@@ -143,6 +195,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testPlaceOrderInvalid () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -153,6 +206,22 @@ public class APIOrderTest {
         final Order order = new Order( recipes, TIME );
         final Order order2 = new Order( recipes, TIME );
 
+        // orders that could never be made are refused, not saved
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"time\":\"" + TIME + "\",\"lines\":[null]}" ) ).andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$.message" ).value( "Invalid order line null" ) );
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( new ArrayList<Recipe>(), TIME ) ) ) )
+                .andExpect( status().isConflict() ).andExpect( jsonPath( "$.message" ).value( "Invalid Order" ) );
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"lines\":[{\"name\":\"Plain\",\"quantity\":1}]}" ) )
+                .andExpect( status().isConflict() ).andExpect( jsonPath( "$.message" ).value( "Invalid Order" ) );
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"time\":\"" + TIME + "\",\"lines\":[{\"name\":\"Plain\",\"quantity\":0}]}" ) )
+                .andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$.message" ).value( "Invalid order line Plain" ) );
+        Assertions.assertEquals( 0, (int) orderService.count() );
+
         // cust does not exist
         mvc.perform( post( String.format( "/api/v1/orders/place/%s", "ntcampbe" ) )
                 .contentType( MediaType.APPLICATION_JSON ).content( TestUtils.asJsonString( order ) ) )
@@ -251,6 +320,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testInProgress () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -286,6 +356,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testInProgressInvalid () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -414,6 +485,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testCancelOrder () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -445,6 +517,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testCancelOrderInvalid () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -474,6 +547,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testGetOrder () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -507,6 +581,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testGetOrderInvalid () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -527,6 +602,635 @@ public class APIOrderTest {
         Assertions.assertEquals( 1, (int) orderService.count() );
     }
 
+    /**
+     * Testing that staff claiming the next order never get the same order
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testClaimNext () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        staffService.save( new Staff( "staffUser1", "password1?" ) );
+        staffService.save( new Staff( "staffUser2", "password1?" ) );
+
+        for ( int n = 0; n < 2; n++ ) {
+            mvc.perform( post( String.format( "/api/v1/orders/place/%s", "custUser1" ) )
+                    .contentType( MediaType.APPLICATION_JSON )
+                    .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) ).andExpect( status().isOk() );
+        }
+        Assertions.assertEquals( 2, orderService.findWaiting( null ).size() );
+
+        final Order first = orderService.claimNext( staffService.findByName( "staffUser1" ), null );
+        Assertions.assertNotNull( first );
+        Assertions.assertEquals( OrderStatus.IN_PROGRESS, first.getStatus() );
+        Assertions.assertEquals( 1, orderService.findWaiting( null ).size() );
+
+        // an order that was already claimed cannot be claimed again
+        mvc.perform( put( String.format( "/api/v1/orders/inprogress/%s", "staffUser2" ) )
+                .contentType( MediaType.APPLICATION_JSON ).content( TestUtils.asJsonString( first ) ) )
+                .andExpect( status().isConflict() );
+
+        mvc.perform( put( String.format( "/api/v1/orders/claim/%s", "staffUser2" ) ) ).andExpect( status().isOk() );
+        Assertions.assertTrue( orderService.findWaiting( null ).isEmpty() );
+        mvc.perform( put( String.format( "/api/v1/orders/claim/%s", "staffUser2" ) ) )
+                .andExpect( status().isConflict() );
+    }
+
+    /**
+     * Testing that a customer's orders are paged newest first
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testCustomerHistory () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Customer c2 = new Customer( "custUser2", "password1?" );
+        customerService.save( c2 );
+
+        for ( final String name : new String[] { "custUser1", "custUser2", "custUser1", "custUser1" } ) {
+            mvc.perform( post( String.format( "/api/v1/orders/place/%s", name ) )
+                    .contentType( MediaType.APPLICATION_JSON )
+                    .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) ).andExpect( status().isOk() );
+        }
+        final Customer customer = customerService.findByName( "custUser1" );
+        final List<Order> firstPage = orderService.findHistory( customer, null, null, 2 );
+        Assertions.assertEquals( 2, firstPage.size() );
+        Assertions.assertTrue( firstPage.get( 0 ).getId() > firstPage.get( 1 ).getId() );
+
+        final List<Order> secondPage = orderService.findHistory( customer, null, firstPage.get( 1 ).getId(), 2 );
+        Assertions.assertEquals( 1, secondPage.size() );
+        Assertions.assertTrue( secondPage.get( 0 ).getId() < firstPage.get( 1 ).getId() );
+
+        final Order canceled = secondPage.get( 0 );
+        canceled.setStatus( OrderStatus.CANCELED );
+        orderService.save( canceled );
+        Assertions.assertEquals( 1, orderService.findHistory( customer, OrderStatus.CANCELED, null, 10 ).size() );
+        Assertions.assertEquals( 2, orderService.findHistory( customer, OrderStatus.NOT_STARTED, null, 10 ).size() );
+
+        mvc.perform( get( String.format( "/api/v1/orders/customer/%s?status=CANCELED", "custUser1" ) ) )
+                .andExpect( status().isOk() );
+    }
+
+    /**
+     * Testing that many orders are completed at once, each with its own
+     * outcome, from the ingredients held for them
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testCompleteOrders () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Chocolate Syrup", 5 );
+        ivt.addIngredient( "Coffee", 10 );
+        inventoryService.save( ivt );
+
+        final Recipe r1 = createRecipe( "Mocha", 5, new Ingredient( "Chocolate Syrup", 2 ) );
+        r1.addIngredient( new Ingredient( "Coffee", 3 ) );
+        recipeService.save( r1 );
+        recipes.add( r1 );
+
+        final Order o1 = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Order o2 = orderService.place( new Order( recipes, TIME ), c1, null );
+        Assertions.assertTrue( inventoryService.isHeld( o1.getName(), null ) );
+        Assertions.assertTrue( inventoryService.isHeld( o2.getName(), null ) );
+
+        // the first two orders hold 4 of the 5 Chocolate Syrup
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) )
+                .andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$.message" ).value( "Not enough Chocolate Syrup" ) );
+        Assertions.assertEquals( 2, (int) orderService.count() );
+
+        // nor can the held ingredients be used by anything else
+        Assertions.assertEquals( "Chocolate Syrup", inventoryService.deductIngredients( r1, null ) );
+
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+        for ( final Order o : Arrays.asList( o1, o2 ) ) {
+            Assertions.assertTrue( orderService.claim( o, s1 ) );
+        }
+
+        final Map<String, Integer> payments = new LinkedHashMap<String, Integer>();
+        payments.put( o1.getName(), 6 );
+        payments.put( o2.getName(), 1 );
+        payments.put( "nope", 5 );
+        mvc.perform( put( "/api/v1/orders/complete" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( payments ) ) ).andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$[0].status" ).value( "success" ) )
+                .andExpect( jsonPath( "$[0].message" ).value( "1" ) )
+                .andExpect( jsonPath( "$[1].status" ).value( "failed" ) )
+                .andExpect( jsonPath( "$[2].status" ).value( "failed" ) );
+
+        Assertions.assertEquals( OrderStatus.COMPLETED, orderService.findByName( o1.getName() ).getStatus() );
+        Assertions.assertEquals( OrderStatus.IN_PROGRESS, orderService.findByName( o2.getName() ).getStatus() );
+        Assertions.assertFalse( inventoryService.isHeld( o1.getName(), null ) );
+        Assertions.assertTrue( inventoryService.isHeld( o2.getName(), null ) );
+        final Inventory after = inventoryService.getInventory();
+        Assertions.assertEquals( 3, (int) after.getIngredientAmount( new Ingredient( "Chocolate Syrup", 0 ) ) );
+        Assertions.assertEquals( 7, (int) after.getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+
+        // completed orders cannot be completed again
+        payments.clear();
+        payments.put( o1.getName(), 6 );
+        mvc.perform( put( "/api/v1/orders/complete" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( payments ) ) ).andExpect( status().isConflict() );
+
+        // canceling the second order lets its ingredients go
+        mvc.perform( put( "/api/v1/orders/cancel/" + o2.getName() ) ).andExpect( status().isOk() );
+        Assertions.assertFalse( inventoryService.isHeld( o2.getName(), null ) );
+        final Order o3 = orderService.place( new Order( recipes, TIME ), c1, null );
+        Assertions.assertTrue( inventoryService.isHeld( o3.getName(), null ) );
+    }
+
+    /**
+     * Testing that orders from different locations can be completed together,
+     * and that an order someone else moved does not stop the rest
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testCompleteOrdersAtLocations () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Coffee", 10 );
+        inventoryService.save( ivt );
+        final Inventory window = inventoryService.createInventory( "Window" );
+        window.addIngredient( "Coffee", 10 );
+        inventoryService.save( window );
+
+        final Recipe r1 = createRecipe( "Coffee", 5, new Ingredient( "Coffee", 3 ) );
+        recipeService.save( r1 );
+        recipes.add( r1 );
+
+        final Order o1 = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Order order = new Order( recipes, TIME );
+        order.setLocation( "Window" );
+        final Order o2 = orderService.place( order, c1, null );
+        Assertions.assertTrue( orderService.claim( o1, s1 ) );
+        Assertions.assertTrue( orderService.claim( o2, s1 ) );
+
+        final Map<String, Integer> payments = new LinkedHashMap<String, Integer>();
+        payments.put( o1.getName(), 5 );
+        payments.put( o2.getName(), 5 );
+        mvc.perform( put( "/api/v1/orders/complete" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( payments ) ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$[0].status" ).value( "success" ) )
+                .andExpect( jsonPath( "$[1].status" ).value( "success" ) );
+
+        Assertions.assertEquals( OrderStatus.COMPLETED, orderService.findByName( o1.getName() ).getStatus() );
+        Assertions.assertEquals( OrderStatus.COMPLETED, orderService.findByName( o2.getName() ).getStatus() );
+        Assertions.assertEquals( 7,
+                (int) inventoryService.getInventory().getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+        Assertions.assertEquals( 7,
+                (int) inventoryService.getInventory( "Window" ).getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+
+        // an order canceled after it was read is left out, and the rest are
+        // still completed
+        final Order o3 = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Order o4 = orderService.place( new Order( recipes, TIME ), c1, null );
+        Assertions.assertTrue( orderService.claim( o3, s1 ) );
+        Assertions.assertTrue( orderService.claim( o4, s1 ) );
+        final Order read3 = orderService.findByName( o3.getName() );
+        final Order read4 = orderService.findByName( o4.getName() );
+        Assertions.assertTrue( orderService.transition( o4, OrderStatus.CANCELED ) );
+
+        final List<String> results = orderService.complete( Arrays.asList( read3, read4 ) );
+        Assertions.assertNull( results.get( 0 ) );
+        Assertions.assertNotNull( results.get( 1 ) );
+        Assertions.assertEquals( OrderStatus.CANCELED, read4.getStatus() );
+        Assertions.assertEquals( OrderStatus.COMPLETED, orderService.findByName( o3.getName() ).getStatus() );
+        Assertions.assertEquals( OrderStatus.CANCELED, orderService.findByName( o4.getName() ).getStatus() );
+        Assertions.assertEquals( 4,
+                (int) inventoryService.getInventory().getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+    }
+
+    /**
+     * Testing that an order is made from exactly what was held for it, even
+     * if its recipe changed since, and that holds are rebuilt for the orders
+     * waiting to be started
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testMakeFromHold () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Coffee", 10 );
+        inventoryService.save( ivt );
+
+        final Recipe r1 = createRecipe( "Coffee", 5, new Ingredient( "Coffee", 3 ) );
+        recipeService.save( r1 );
+        recipes.add( r1 );
+        final Order o1 = orderService.place( new Order( recipes, TIME ), c1, null );
+
+        // the recipe gets stronger after the order was placed
+        r1.getIngredients().get( 0 ).setAmount( 5 );
+        recipeService.save( r1 );
+
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+        Assertions.assertTrue( orderService.claim( o1, s1 ) );
+        Assertions.assertNull( orderService.complete( o1 ) );
+        Assertions.assertEquals( 7,
+                (int) inventoryService.getInventory().getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+
+        // holds lost with the application are rebuilt when it starts, for
+        // orders already started as well as those waiting
+        final Order o2 = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Recipe r2 = createRecipe( "Espresso", 3, new Ingredient( "Coffee", 1 ) );
+        recipeService.save( r2 );
+        final Order o3 = orderService.place( new Order( Arrays.asList( r2 ), TIME ), c1, null );
+        Assertions.assertTrue( orderService.claim( o3, s1 ) );
+        inventoryService.releaseHold( o2.getName(), null );
+        inventoryService.releaseHold( o3.getName(), null );
+        Assertions.assertFalse( inventoryService.isHeld( o2.getName(), null ) );
+        orderService.loadHolds();
+        Assertions.assertTrue( inventoryService.isHeld( o2.getName(), null ) );
+        Assertions.assertTrue( inventoryService.isHeld( o3.getName(), null ) );
+        Assertions.assertEquals( "Coffee", inventoryService.deductIngredients( r1, null ) );
+    }
+
+    /**
+     * Testing that locations must be created before they can be used, rather
+     * than being created by any request that names them
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testUnknownLocation () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Recipe r1 = createRecipe( "Coffee", 5, new Ingredient( "Coffee", 2 ) );
+        recipeService.save( r1 );
+        recipes.add( r1 );
+
+        final Order order = new Order( recipes, TIME );
+        order.setLocation( "Nowhere" );
+        mvc.perform( post( "/api/v1/orders/place/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order ) ) ).andExpect( status().isNotFound() );
+        mvc.perform( get( "/api/v1/inventory?location=Nowhere" ) ).andExpect( status().isNotFound() );
+        mvc.perform( get( "/api/v1/orders/queue?location=Nowhere" ) ).andExpect( status().isNotFound() );
+        mvc.perform( post( "/api/v1/orders/intake/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order ) ) ).andExpect( status().isNotFound() );
+        Assertions.assertFalse( inventoryService.hasLocation( "Nowhere" ) );
+        Assertions.assertEquals( 0, (int) orderService.count() );
+
+        mvc.perform( post( "/api/v1/inventory/locations/Nowhere" ) ).andExpect( status().isCreated() );
+        mvc.perform( post( "/api/v1/inventory/locations/Nowhere" ) ).andExpect( status().isConflict() );
+        mvc.perform( get( "/api/v1/inventory?location=Nowhere" ) ).andExpect( status().isOk() );
+        mvc.perform( get( "/api/v1/orders/queue?location=Nowhere" ) ).andExpect( status().isOk() );
+    }
+
+    /**
+     * Testing that placed orders are priced as the recipes are now, whatever
+     * price the client sent
+     */
+    @Test
+    @Transactional
+    public void testPlaceReprices () {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Coffee", 10 );
+        inventoryService.save( ivt );
+
+        final Recipe r1 = createRecipe( "Coffee", 5, new Ingredient( "Coffee", 3 ) );
+        recipeService.save( r1 );
+
+        // the client claims the coffee costs 1
+        final List<Recipe> sent = Arrays.asList( createRecipe( "Coffee", 1, new Ingredient( "Coffee", 3 ) ) );
+        final Order o1 = orderService.place( new Order( sent, TIME ), c1, null );
+        Assertions.assertEquals( 5, (int) o1.getTotalCost() );
+        Assertions.assertEquals( r1, o1.getLines().get( 0 ).getRecipe() );
+
+        // a new price applies to later orders only
+        r1.setPrice( 7 );
+        recipeService.save( r1 );
+        final Order o2 = orderService.place( new Order( sent, TIME ), c1, null );
+        Assertions.assertEquals( 7, (int) o2.getTotalCost() );
+        Assertions.assertEquals( 5, (int) orderService.findByName( o1.getName() ).getTotalCost() );
+
+        final List<Recipe> unknown = Arrays.asList( createRecipe( "Latte", 1, new Ingredient( "Coffee", 1 ) ) );
+        Assertions.assertThrows( IllegalArgumentException.class,
+                () -> orderService.place( new Order( unknown, TIME ), c1, null ) );
+    }
+
+    /**
+     * Testing that queued orders are checked before they are queued, and
+     * given a key to find them by
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testQueueOrder () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Recipe r1 = createRecipe( "Coffee", 5, new Ingredient( "Coffee", 2 ) );
+        recipeService.save( r1 );
+        recipes.add( r1 );
+
+        mvc.perform( post( "/api/v1/orders/intake/nobody" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) ).andExpect( status().isConflict() );
+        mvc.perform( post( "/api/v1/orders/intake/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( new ArrayList<Recipe>(), TIME ) ) ) )
+                .andExpect( status().isConflict() );
+
+        // orders that could never be placed are refused before they are queued
+        mvc.perform( post( "/api/v1/orders/intake/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( "{\"lines\":[{\"name\":\"Coffee\",\"quantity\":1}]}" ) )
+                .andExpect( status().isConflict() );
+        final List<Recipe> unknown = Arrays.asList( createRecipe( "Latte", 1, new Ingredient( "Coffee", 1 ) ) );
+        mvc.perform( post( "/api/v1/orders/intake/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( unknown, TIME ) ) ) ).andExpect( status().isConflict() )
+                .andExpect( jsonPath( "$.message" ).value( "Invalid order line Latte" ) );
+
+        // a retry of an order that was already placed gets its key back
+        final Order placed = orderService.place( new Order( recipes, TIME ), c1, "retry-1" );
+        mvc.perform( post( "/api/v1/orders/intake/custUser1" ).header( "Idempotency-Key", "retry-1" )
+                .contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) ).andExpect( status().isAccepted() )
+                .andExpect( jsonPath( "$.message" ).value( placed.getName() ) );
+        Assertions.assertEquals( 1, (int) orderService.count() );
+
+        mvc.perform( get( "/api/v1/orders/intake/" + placed.getName() ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.name" ).value( placed.getName() ) );
+        mvc.perform( get( "/api/v1/orders/intake/nope" ) ).andExpect( status().isNotFound() );
+    }
+
+    /**
+     * Testing that orders only move along the allowed transitions
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testIllegalTransitions () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Order order = orderService.place( new Order( recipes, TIME ), c1, null );
+
+        // cannot be picked up or completed before it is made
+        mvc.perform( put( "/api/v1/orders/pickup/custUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order ) ) ).andExpect( status().isConflict() );
+        mvc.perform( put( "/api/v1/orders/complete/100" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order ) ) ).andExpect( status().isConflict() );
+        Assertions.assertEquals( OrderStatus.NOT_STARTED, orderService.findByName( order.getName() ).getStatus() );
+
+        mvc.perform( put( "/api/v1/orders/cancel/" + order.getName() ) ).andExpect( status().isOk() );
+        Assertions.assertEquals( OrderStatus.CANCELED, orderService.findByName( order.getName() ).getStatus() );
+
+        // nothing leaves CANCELED
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+        mvc.perform( put( "/api/v1/orders/inprogress/staffUser1" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( order ) ) ).andExpect( status().isConflict() );
+        mvc.perform( put( "/api/v1/orders/cancel/" + order.getName() ) ).andExpect( status().isConflict() );
+
+        mvc.perform( get( "/api/v1/orders/customer/custUser1/events" ) ).andExpect( status().isOk() );
+    }
+
+    /**
+     * Testing that finished orders are moved to the archive and can still be
+     * read from it
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testArchive () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Order canceled = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Order live = orderService.place( new Order( recipes, TIME ), c1, null );
+        Assertions.assertTrue( orderService.transition( canceled, OrderStatus.CANCELED ) );
+
+        // nothing is old enough yet
+        Assertions.assertEquals( 0, archiveService.archive( Instant.now().minusSeconds( 3600 ), 10 ) );
+
+        Assertions.assertEquals( 1, archiveService.archive( Instant.now().plusSeconds( 3600 ), 10 ) );
+        Assertions.assertNull( orderService.findByName( canceled.getName() ) );
+        Assertions.assertNotNull( orderService.findByName( live.getName() ) );
+        Assertions.assertEquals( 1, (int) orderService.count() );
+
+        // the archived copy keeps what reports need
+        final ArchivedOrder archived = archiveService.findByName( canceled.getName() );
+        Assertions.assertNotNull( archived.getCanceled() );
+        Assertions.assertEquals( canceled.getLines().get( 0 ).getPrice(), archived.getLines().get( 0 ).getPrice() );
+        Assertions.assertEquals( 1L, (long) orderService
+                .countPlacedBetween( Instant.now().minusSeconds( 3600 ), Instant.now().plusSeconds( 3600 ) )
+                .get( OrderStatus.CANCELED ) );
+
+        mvc.perform( get( "/api/v1/orders/archive/" + canceled.getName() ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.status" ).value( "CANCELED" ) );
+        mvc.perform( get( "/api/v1/orders/archive/" + live.getName() ) ).andExpect( status().isNotFound() );
+        mvc.perform( get( "/api/v1/orders/archive/customer/custUser1" ) )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) );
+        mvc.perform( get( "/api/v1/orders/customer/custUser1" ) ).andExpect( jsonPath( "$.length()" ).value( 1 ) );
+    }
+
+    /**
+     * Testing that a status change made from an out-of-date copy of an order
+     * is retried against the order as it is now, and never overwrites it
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testStaleTransitions () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+
+        final Order placed = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Long version = placed.getVersion();
+        Assertions.assertTrue( orderService.claim( placed, s1 ) );
+        final Order claimed = orderService.findByName( placed.getName() );
+        Assertions.assertEquals( version + 1, (long) claimed.getVersion() );
+
+        // the copy from before the claim is out of date, so the cancel is
+        // retried against the order as it is now
+        Assertions.assertTrue( orderService.transition( placed, OrderStatus.CANCELED ) );
+        final Order canceled = orderService.findByName( placed.getName() );
+        Assertions.assertEquals( OrderStatus.CANCELED, canceled.getStatus() );
+        Assertions.assertEquals( version + 2, (long) canceled.getVersion() );
+
+        // a copy from before the cancel cannot complete it
+        Assertions.assertFalse( orderService.transition( claimed, OrderStatus.COMPLETED ) );
+        Assertions.assertEquals( OrderStatus.CANCELED, claimed.getStatus() );
+        Assertions.assertEquals( OrderStatus.CANCELED, orderService.findByName( placed.getName() ).getStatus() );
+    }
+
+    /**
+     * Testing that orders are paged with a cursor and filtered
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testOrderPages () throws Exception {
+        recipes.add( plain() );
+        customerService.save( new Customer( "custUser1", "password1?" ) );
+        for ( int n = 0; n < 3; n++ ) {
+            mvc.perform( post( String.format( "/api/v1/orders/place/%s", "custUser1" ) )
+                    .contentType( MediaType.APPLICATION_JSON )
+                    .content( TestUtils.asJsonString( new Order( recipes, TIME ) ) ) ).andExpect( status().isOk() );
+        }
+
+        final String cursor = mvc.perform( get( "/api/v1/orders?limit=2" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 2 ) ).andReturn().getResponse()
+                .getHeader( "X-Next-Cursor" );
+        Assertions.assertNotNull( cursor );
+        mvc.perform( get( "/api/v1/orders?limit=2&after=" + cursor ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 1 ) ).andExpect( header().doesNotExist( "X-Next-Cursor" ) );
+
+        mvc.perform( get( "/api/v1/orders?status=CANCELED" ) ).andExpect( jsonPath( "$.length()" ).value( 0 ) );
+        mvc.perform( get( "/api/v1/orders?status=NOT_STARTED&status=CANCELED" ) )
+                .andExpect( jsonPath( "$.length()" ).value( 3 ) );
+        mvc.perform( get( "/api/v1/orders?from=2999-01-01T00:00:00Z" ) )
+                .andExpect( jsonPath( "$.length()" ).value( 0 ) );
+        mvc.perform( get( "/api/v1/orders?to=2999-01-01T00:00:00Z" ) ).andExpect( jsonPath( "$.length()" ).value( 3 ) );
+    }
+
+    /**
+     * Testing that the server records when orders reach each status, and
+     * that orders can be counted by when they were placed
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testOrderTimes () throws Exception {
+        recipes.add( plain() );
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+        final Staff s1 = new Staff( "staffUser1", "password1?" );
+        staffService.save( s1 );
+        final Instant before = Instant.now().minusSeconds( 60 );
+
+        final Order o1 = orderService.place( new Order( recipes, TIME ), c1, null );
+        final Order o2 = orderService.place( new Order( recipes, TIME ), c1, null );
+        orderService.place( new Order( recipes, TIME ), c1, null );
+        Assertions.assertNotNull( o1.getPlaced() );
+        Assertions.assertNull( o1.getStarted() );
+
+        Assertions.assertTrue( orderService.claim( o1, s1 ) );
+        Assertions.assertTrue( orderService.transition( orderService.findByName( o1.getName() ),
+                OrderStatus.COMPLETED ) );
+        Assertions.assertTrue( orderService.transition( o2, OrderStatus.CANCELED ) );
+
+        final Order completed = orderService.findByName( o1.getName() );
+        Assertions.assertNotNull( completed.getStarted() );
+        Assertions.assertNotNull( completed.getCompleted() );
+        Assertions.assertFalse( completed.getCompleted().isBefore( completed.getStarted() ) );
+        Assertions.assertNull( completed.getCanceled() );
+        Assertions.assertNotNull( orderService.findByName( o2.getName() ).getCanceled() );
+
+        final Instant after = Instant.now().plusSeconds( 60 );
+        Assertions.assertEquals( 1, orderService.countCompletedBetween( before, after ) );
+        Assertions.assertEquals( 0, orderService.countCompletedBetween( after, after.plusSeconds( 60 ) ) );
+        Assertions.assertEquals( 1,
+                orderService.findPlacedBetween( OrderStatus.NOT_STARTED, before, after, 10 ).size() );
+        final Map<OrderStatus, Long> counts = orderService.countPlacedBetween( before, after );
+        Assertions.assertEquals( 1, (long) counts.get( OrderStatus.COMPLETED ) );
+        Assertions.assertEquals( 1, (long) counts.get( OrderStatus.CANCELED ) );
+        Assertions.assertEquals( 0, (long) counts.get( OrderStatus.PICKED_UP ) );
+
+        mvc.perform( get( "/api/v1/orders/counts?from=" + before + "&to=" + after ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.NOT_STARTED" ).value( 1 ) );
+        mvc.perform( get( "/api/v1/orders/counts?from=" + after + "&to=" + before ) )
+                .andExpect( status().isConflict() );
+    }
+
+    /**
+     * Testing that order listings hold summaries of orders rather than the
+     * orders themselves
+     *
+     * @throws Exception
+     *             the exception
+     */
+    @Test
+    @Transactional
+    public void testOrderSummaries () throws Exception {
+        final Customer c1 = new Customer( "custUser1", "password1?" );
+        customerService.save( c1 );
+
+        final Ingredient i1 = new Ingredient( "Coffee", 2 );
+        final Ingredient i2 = new Ingredient( "Matcha", 3 );
+        ingredientService.save( i1 );
+        ingredientService.save( i2 );
+        final Recipe r1 = createRecipe( "Coffee", 5, i1 );
+        final Recipe r2 = createRecipe( "Green Tea", 6, i2 );
+        recipeService.save( r1 );
+        recipeService.save( r2 );
+        recipes.add( r1 );
+        recipes.add( r2 );
+        final Order placed = orderService.place( new Order( recipes, TIME ), c1, null );
+        orderService.place( new Order( Arrays.asList( r1 ), TIME ), c1, null );
+
+        final List<OrderSummary> page = orderService.findSummaryPage( null, null, null, null, 10 );
+        Assertions.assertEquals( 2, page.size() );
+        final OrderSummary summary = page.get( 0 );
+        Assertions.assertEquals( placed.getId(), summary.getId() );
+        Assertions.assertEquals( placed.getName(), summary.getName() );
+        Assertions.assertEquals( "custUser1", summary.getCustomer() );
+        Assertions.assertEquals( 11, (int) summary.getTotalCost() );
+        Assertions.assertEquals( 2, summary.getLines().size() );
+        Assertions.assertEquals( 1, page.get( 1 ).getLines().size() );
+
+        mvc.perform( get( "/api/v1/orders/customer/custUser1" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$[1].name" ).value( placed.getName() ) )
+                .andExpect( jsonPath( "$[1].customer" ).value( "custUser1" ) )
+                .andExpect( jsonPath( "$[1].lines.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$[1].lines[0].price" ).value( 5 ) )
+                .andExpect( jsonPath( "$[1].lines[0].ingredients" ).doesNotExist() )
+                .andExpect( jsonPath( "$[1].staff" ).doesNotExist() );
+        mvc.perform( get( "/api/v1/orders" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$[0].customer" ).value( "custUser1" ) );
+
+        // the order itself is still there for whoever needs all of it
+        mvc.perform( get( "/api/v1/orders/" + placed.getName() ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.lines.length()" ).value( 2 ) )
+                .andExpect( jsonPath( "$.customer.name" ).value( "custUser1" ) );
+    }
+
     /**
      * Testing getting an order from a customer
      *
@@ -536,6 +1240,7 @@ public class APIOrderTest {
     @Test
     @Transactional
     public void testGetOrderByCustomer () throws Exception {
+        recipes.add( plain() );
         // have one customer saved in the service so that an order can be placed
         final Customer c1 = new Customer( "custUser1", "password1?" );
         mvc.perform( post( "/api/v1/customers" ).contentType( MediaType.APPLICATION_JSON )
@@ -554,6 +1259,20 @@ public class APIOrderTest {
         mvc.perform( get( String.format( "/api/v1/orders/customer/%s", "custUser1" ) ) ).andExpect( status().isOk() );
     }
 
+    /**
+     * Saves a recipe that needs no ingredients, for tests that only need an
+     * order to have a line.
+     *
+     * @return the recipe
+     */
+    private Recipe plain () {
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Plain" );
+        recipe.setPrice( 1 );
+        recipeService.save( recipe );
+        return recipe;
+    }
+
     private Recipe createRecipe ( final String name, final Integer price, final Ingredient i ) {
         final Recipe recipe = new Recipe();
         recipe.setName( name );
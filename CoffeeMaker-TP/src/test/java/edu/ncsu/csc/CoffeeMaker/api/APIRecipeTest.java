@@ -4,6 +4,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 import javax.transaction.Transactional;
@@ -23,8 +24,10 @@ import org.springframework.web.context.WebApplicationContext;
 
 import edu.ncsu.csc.CoffeeMaker.common.TestUtils;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
 
 @SpringBootTest
@@ -47,6 +50,9 @@ public class APIRecipeTest {
     @Autowired
     private IngredientService     ingredientService;
 
+    @Autowired
+    private InventoryService      inventoryService;
+
     /**
      * Sets up the tests.
      */
@@ -416,4 +422,39 @@ public class APIRecipeTest {
 
     }
 
+    /**
+     * Test the number of cups of each recipe that can be made
+     */
+    @Test
+    @Transactional
+    public void testAvailability () throws Exception {
+        inventoryService.deleteAll();
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Coffee", 10 );
+        ivt.addIngredient( "Milk", 7 );
+        inventoryService.save( ivt );
+
+        final Recipe latte = new Recipe();
+        latte.setName( "Latte" );
+        latte.setPrice( 5 );
+        latte.addIngredient( new Ingredient( "Coffee", 2 ) );
+        latte.addIngredient( new Ingredient( "Milk", 3 ) );
+        service.save( latte );
+
+        final Recipe black = new Recipe();
+        black.setName( "Black" );
+        black.setPrice( 5 );
+        black.addIngredient( new Ingredient( "Coffee", 3 ) );
+        service.save( black );
+
+        mvc.perform( get( "/api/v1/recipes/availability" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.Latte" ).value( 2 ) ).andExpect( jsonPath( "$.Black" ).value( 3 ) );
+
+        mvc.perform( post( "/api/v1/makecoffee/Latte" ).contentType( MediaType.APPLICATION_JSON )
+                .content( TestUtils.asJsonString( 5 ) ) ).andExpect( status().isOk() );
+
+        mvc.perform( get( "/api/v1/recipes/availability" ) ).andExpect( status().isOk() )
+                .andExpect( jsonPath( "$.Latte" ).value( 1 ) ).andExpect( jsonPath( "$.Black" ).value( 2 ) );
+    }
+
 }
@@ -0,0 +1,133 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.services.InventoryHolds;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryHolds.Hold;
+
+/**
+ * Tests the ingredients held for orders and their expiry.
+ *
+ */
+public class InventoryHoldsTest {
+
+    /**
+     * Creates the demand of an order.
+     *
+     * @param coffee
+     *            the amount of Coffee
+     * @param milk
+     *            the amount of Milk
+     * @return the demand
+     */
+    private Map<String, Integer> demand ( final int coffee, final int milk ) {
+        final Map<String, Integer> demand = new HashMap<String, Integer>();
+        demand.put( "Coffee", coffee );
+        demand.put( "Milk", milk );
+        return demand;
+    }
+
+    /**
+     * Tests that what is held is summed by ingredient and given back when a
+     * hold is removed.
+     */
+    @Test
+    public void testHoldAndRemove () {
+        final InventoryHolds holds = new InventoryHolds( 3000, 1000 );
+        Assertions.assertNotNull( holds.add( "a", demand( 3, 1 ), 10000 ) );
+        Assertions.assertNotNull( holds.add( "b", demand( 2, 4 ), 10000 ) );
+        Assertions.assertNull( holds.add( "a", demand( 9, 9 ), 10000 ) );
+
+        Assertions.assertEquals( 5, holds.held( "Coffee" ) );
+        Assertions.assertEquals( 5, holds.held( "Milk" ) );
+        Assertions.assertEquals( 0, holds.held( "Sugar" ) );
+        Assertions.assertEquals( 5, (int) holds.held().get( "Coffee" ) );
+        Assertions.assertFalse( holds.held().containsKey( "Sugar" ) );
+
+        final Hold a = holds.remove( "a" );
+        Assertions.assertEquals( 3, (int) a.getDemand().get( "Coffee" ) );
+        Assertions.assertFalse( holds.isHeld( "a" ) );
+        Assertions.assertNull( holds.remove( "a" ) );
+        Assertions.assertEquals( 2, holds.held( "Coffee" ) );
+
+        // a removed hold can be put back, unless it was dropped for good
+        Assertions.assertTrue( holds.restore( a ) );
+        Assertions.assertEquals( 5, holds.held( "Coffee" ) );
+        Assertions.assertTrue( holds.drop( a ) );
+        Assertions.assertFalse( holds.drop( a ) );
+        Assertions.assertFalse( holds.restore( a ) );
+        Assertions.assertFalse( holds.isHeld( "a" ) );
+        Assertions.assertEquals( 2, holds.held( "Coffee" ) );
+    }
+
+    /**
+     * Tests that holds expire once their time to live has run out, and not
+     * before.
+     */
+    @Test
+    public void testExpiry () {
+        final InventoryHolds holds = new InventoryHolds( 3000, 1000 );
+        holds.add( "a", demand( 3, 1 ), 10000 );
+        holds.add( "b", demand( 2, 4 ), 11500 );
+        holds.add( "c", demand( 1, 1 ), 11500 );
+        holds.remove( "c" );
+
+        Assertions.assertEquals( Collections.emptyList(), holds.expire( 12999 ) );
+        final List<Hold> expired = holds.expire( 13000 );
+        Assertions.assertEquals( 1, expired.size() );
+        Assertions.assertEquals( "a", expired.get( 0 ).getOrder() );
+        Assertions.assertEquals( 3, (int) expired.get( 0 ).getDemand().get( "Coffee" ) );
+        Assertions.assertEquals( 2, holds.held( "Coffee" ) );
+        Assertions.assertEquals( Collections.emptyList(), holds.expire( 13999 ) );
+        Assertions.assertEquals( "b", holds.expire( 14000 ).get( 0 ).getOrder() );
+        Assertions.assertEquals( 0, holds.held( "Milk" ) );
+
+        // a hold put back after its time has passed expires on the next tick
+        final Hold d = holds.add( "d", demand( 1, 0 ), 14000 );
+        holds.remove( "d" );
+        holds.expire( 20000 );
+        holds.restore( d );
+        Assertions.assertTrue( holds.isHeld( "d" ) );
+        Assertions.assertEquals( "d", holds.expire( 21000 ).get( 0 ).getOrder() );
+
+        // after a long pause everything due is expired at once
+        holds.add( "e", demand( 1, 0 ), 22000 );
+        holds.add( "f", demand( 1, 0 ), 23000 );
+        Assertions.assertEquals( 2, holds.expire( 1000000 ).size() );
+        Assertions.assertEquals( 0, holds.held( "Coffee" ) );
+    }
+
+    /**
+     * Tests that a pinned hold is kept until it is removed, and expires as it
+     * would have once it is unpinned.
+     */
+    @Test
+    public void testPin () {
+        final InventoryHolds holds = new InventoryHolds( 3000, 1000 );
+        holds.add( "a", demand( 3, 1 ), 10000 );
+        Assertions.assertTrue( holds.pin( "a" ) );
+        Assertions.assertFalse( holds.pin( "a" ) );
+        Assertions.assertFalse( holds.pin( "b" ) );
+        Assertions.assertEquals( Collections.emptyList(), holds.expire( 100000 ) );
+        Assertions.assertTrue( holds.isHeld( "a" ) );
+        Assertions.assertEquals( 3, holds.held( "Coffee" ) );
+
+        // a pinned hold that is removed and put back stays pinned
+        final Hold a = holds.remove( "a" );
+        Assertions.assertEquals( 0, holds.held( "Coffee" ) );
+        Assertions.assertTrue( holds.restore( a ) );
+        Assertions.assertEquals( Collections.emptyList(), holds.expire( 200000 ) );
+
+        Assertions.assertTrue( holds.unpin( "a" ) );
+        Assertions.assertFalse( holds.unpin( "a" ) );
+        Assertions.assertEquals( "a", holds.expire( 201000 ).get( 0 ).getOrder() );
+        Assertions.assertEquals( 0, holds.held( "Coffee" ) );
+    }
+
+}
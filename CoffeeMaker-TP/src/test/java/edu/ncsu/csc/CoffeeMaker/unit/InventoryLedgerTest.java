@@ -0,0 +1,124 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.models.BillOfMaterials;
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.InventoryLedger;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+
+/**
+ * Tests the InventoryLedger index used by the Inventory.
+ *
+ */
+public class InventoryLedgerTest {
+
+    /**
+     * Tests that ingredients are given slots and can be found by name.
+     */
+    @Test
+    public void testSlots () {
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        ingredients.add( new Ingredient( "Coffee", 10 ) );
+        ingredients.add( new Ingredient( "Milk", 20 ) );
+
+        final InventoryLedger ledger = new InventoryLedger( ingredients );
+        Assertions.assertEquals( 2, ledger.size() );
+        Assertions.assertEquals( 0, ledger.slotOf( "Coffee" ) );
+        Assertions.assertEquals( 1, ledger.slotOf( "Milk" ) );
+        Assertions.assertEquals( -1, ledger.slotOf( "Sugar" ) );
+        Assertions.assertEquals( 20, ledger.amount( 1 ) );
+
+        Assertions.assertTrue( ledger.containsIgnoreCase( "coffee" ) );
+        Assertions.assertFalse( ledger.containsIgnoreCase( "sugar" ) );
+        Assertions.assertFalse( ledger.containsIgnoreCase( null ) );
+    }
+
+    /**
+     * Tests that changes made through the ledger reach the Ingredient, and
+     * that the ledger grows past its initial capacity.
+     */
+    @Test
+    public void testSetAndAppend () {
+        final Ingredient coffee = new Ingredient( "Coffee", 10 );
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        ingredients.add( coffee );
+
+        final InventoryLedger ledger = new InventoryLedger( ingredients );
+        ledger.set( 0, 4 );
+        Assertions.assertEquals( 4, ledger.amount( 0 ) );
+        Assertions.assertEquals( 4, (int) coffee.getAmount() );
+
+        for ( int i = 0; i < 40; i++ ) {
+            Assertions.assertEquals( i + 1, ledger.append( new Ingredient( "Syrup" + i, i ) ) );
+        }
+        Assertions.assertEquals( 41, ledger.size() );
+        Assertions.assertEquals( 39, ledger.amount( ledger.slotOf( "Syrup39" ) ) );
+        Assertions.assertEquals( 4, ledger.amount( ledger.slotOf( "Coffee" ) ) );
+    }
+
+    /**
+     * Tests that a recipe compiles into slot order with repeated ingredients
+     * merged and unstocked ones left out, and that adding an ingredient makes
+     * the compiled recipe stale.
+     */
+    @Test
+    public void testCompile () {
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        ingredients.add( new Ingredient( "Coffee", 10 ) );
+        ingredients.add( new Ingredient( "Milk", 20 ) );
+        final InventoryLedger ledger = new InventoryLedger( ingredients );
+
+        final Recipe recipe = new Recipe();
+        recipe.addIngredient( new Ingredient( "Milk", 3 ) );
+        recipe.addIngredient( new Ingredient( "Sugar", 1 ) );
+        recipe.addIngredient( new Ingredient( "Coffee", 2 ) );
+        recipe.addIngredient( new Ingredient( "Milk", 4 ) );
+
+        final BillOfMaterials bom = recipe.compileFor( ledger );
+        Assertions.assertEquals( 2, bom.size() );
+        Assertions.assertEquals( "Coffee", bom.name( 0 ) );
+        Assertions.assertEquals( 2, bom.amount( 0 ) );
+        Assertions.assertEquals( "Milk", bom.name( 1 ) );
+        Assertions.assertEquals( 7, bom.amount( 1 ) );
+        Assertions.assertSame( bom, recipe.compileFor( ledger ) );
+
+        Assertions.assertEquals( -1, ledger.findShortLine( bom ) );
+        ledger.consume( bom );
+        ledger.consume( bom );
+        Assertions.assertEquals( 6, ledger.amount( 0 ) );
+        Assertions.assertEquals( 6, ledger.amount( 1 ) );
+        Assertions.assertEquals( 1, ledger.findShortLine( bom ) );
+
+        ledger.append( new Ingredient( "Sugar", 5 ) );
+        Assertions.assertFalse( bom.isCompiledFor( ledger ) );
+        Assertions.assertEquals( 3, recipe.compileFor( ledger ).size() );
+    }
+
+    /**
+     * Tests that rebuilding a ledger after its ingredients were changed
+     * directly keeps measuring changes from the old baseline.
+     */
+    @Test
+    public void testRebuildKeepsBaseline () {
+        final Ingredient coffee = new Ingredient( "Coffee", 10 );
+        final List<Ingredient> ingredients = new ArrayList<Ingredient>();
+        ingredients.add( coffee );
+        final InventoryLedger ledger = new InventoryLedger( ingredients );
+
+        coffee.setAmount( 4 );
+        ingredients.add( new Ingredient( "Milk", 5 ) );
+        final InventoryLedger rebuilt = new InventoryLedger( ingredients, ledger );
+        Assertions.assertEquals( 4, rebuilt.amount( 0 ) );
+        Assertions.assertEquals( -6, rebuilt.change( 0 ) );
+        Assertions.assertEquals( 5, rebuilt.change( 1 ) );
+
+        rebuilt.settle();
+        Assertions.assertEquals( 0, rebuilt.change( 0 ) );
+    }
+
+}
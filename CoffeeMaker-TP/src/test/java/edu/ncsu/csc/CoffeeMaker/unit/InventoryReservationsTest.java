@@ -0,0 +1,112 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryReservations;
+
+/**
+ * Tests the lock-free ingredient counters used by the InventoryService.
+ *
+ */
+public class InventoryReservationsTest {
+
+    /**
+     * Creates a latte recipe that uses 2 Coffee and 3 Milk.
+     *
+     * @return the recipe
+     */
+    private Recipe latte () {
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Latte" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 2 ) );
+        recipe.addIngredient( new Ingredient( "Milk", 3 ) );
+        return recipe;
+    }
+
+    /**
+     * Tests that a recipe is reserved as a whole or not at all.
+     */
+    @Test
+    public void testReserveAllOrNothing () {
+        final Inventory ivt = new Inventory();
+        ivt.addIngredient( "Coffee", 10 );
+        ivt.addIngredient( "Milk", 4 );
+
+        final InventoryReservations reservations = new InventoryReservations();
+        Assertions.assertFalse( reservations.isLoaded() );
+        reservations.load( ivt );
+
+        Assertions.assertNotNull( reservations.reserve( latte() ) );
+        Assertions.assertEquals( 8, reservations.amount( "Coffee" ) );
+        Assertions.assertEquals( 1, reservations.amount( "Milk" ) );
+
+        // milk runs short, so the coffee taken for it must be given back
+        Assertions.assertNull( reservations.reserve( latte() ) );
+        Assertions.assertEquals( 8, reservations.amount( "Coffee" ) );
+        Assertions.assertEquals( 1, reservations.amount( "Milk" ) );
+
+        reservations.release( latte() );
+        Assertions.assertEquals( 10, reservations.amount( "Coffee" ) );
+        Assertions.assertEquals( 4, reservations.amount( "Milk" ) );
+        Assertions.assertEquals( -1, reservations.amount( "Sugar" ) );
+
+        reservations.clear();
+        Assertions.assertThrows( IllegalStateException.class, () -> reservations.reserve( latte() ) );
+    }
+
+    /**
+     * Tests that concurrent reservations never oversell an ingredient.
+     *
+     * @throws Exception
+     *             if a worker fails
+     */
+    @Test
+    public void testConcurrentReserve () throws Exception {
+        final Inventory ivt = new Inventory();
+        ivt.addIngredient( "Coffee", 100 );
+        ivt.addIngredient( "Milk", 99 );
+
+        final InventoryReservations reservations = new InventoryReservations();
+        reservations.load( ivt );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for ( int t = 0; t < 8; t++ ) {
+            results.add( pool.submit( new Callable<Integer>() {
+                @Override
+                public Integer call () {
+                    int made = 0;
+                    for ( int i = 0; i < 20; i++ ) {
+                        if ( reservations.reserve( latte() ) != null ) {
+                            made++;
+                        }
+                    }
+                    return made;
+                }
+            } ) );
+        }
+        int made = 0;
+        for ( final Future<Integer> f : results ) {
+            made += f.get();
+        }
+        pool.shutdown();
+
+        // 99 milk makes exactly 33 lattes
+        Assertions.assertEquals( 33, made );
+        Assertions.assertEquals( 0, reservations.amount( "Milk" ) );
+        Assertions.assertEquals( 100 - 2 * 33, reservations.amount( "Coffee" ) );
+    }
+
+}
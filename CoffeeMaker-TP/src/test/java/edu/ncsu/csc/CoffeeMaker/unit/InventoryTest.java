@@ -11,6 +11,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -18,6 +20,7 @@ import edu.ncsu.csc.CoffeeMaker.TestConfig;
 import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
 import edu.ncsu.csc.CoffeeMaker.models.Inventory;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.services.InventoryJournal;
 import edu.ncsu.csc.CoffeeMaker.services.InventoryService;
 
 @ExtendWith ( SpringExtension.class )
@@ -27,6 +30,12 @@ public class InventoryTest {
 
     @Autowired
     private InventoryService inventoryService;
+
+    @Autowired
+    private InventoryJournal journal;
+
+    @Autowired
+    private JdbcTemplate     jdbcTemplate;
     // creating the ingredients
     final Ingredient         i1 = new Ingredient( "Coffee", 5 );
     final Ingredient         i2 = new Ingredient( "Mocha", 5 );
@@ -244,4 +253,164 @@ public class InventoryTest {
 
     }
 
+    /**
+     * Checking that the ingredient list can only be changed through the
+     * Inventory, so its amounts stay in line with the list
+     */
+    @Test
+    public void testIngredientsReadOnly () {
+        final Inventory ivt = new Inventory( "Coffee", 5 );
+        assertThrows( UnsupportedOperationException.class,
+                () -> ivt.getIngredients().add( new Ingredient( "Milk", 5 ) ) );
+        assertThrows( UnsupportedOperationException.class, () -> ivt.getList().clear() );
+
+        ivt.setIngredientAmount( "Coffee", 3 );
+        assertEquals( 3, ivt.getIngredients().get( 0 ).getAmount() );
+        assertEquals( 3, ivt.getIngredientAmount( new Ingredient( "Coffee", 0 ) ) );
+        assertEquals( 1, ivt.changes().size() );
+    }
+
+    /**
+     * Checking that each location has its own inventory
+     */
+    @Test
+    @Transactional
+    public void testLocations () {
+        // a location must be created before it can be used
+        assertThrows( IllegalArgumentException.class, () -> inventoryService.getInventory( "Counter" ) );
+        Assertions.assertFalse( inventoryService.hasLocation( "Counter" ) );
+        final Inventory counter = inventoryService.createInventory( "Counter" );
+        Assertions.assertNull( inventoryService.createInventory( "Counter" ) );
+        Assertions.assertTrue( inventoryService.hasLocation( "Counter" ) );
+        counter.addIngredient( "Coffee", 10 );
+        inventoryService.save( counter );
+
+        final Inventory ivt = inventoryService.getInventory();
+        ivt.addIngredient( "Coffee", 50 );
+        inventoryService.save( ivt );
+        Assertions.assertEquals( 2, (int) inventoryService.count() );
+        Assertions.assertEquals( "Counter", inventoryService.getInventory( "Counter" ).getLocation() );
+        Assertions.assertNull( inventoryService.getInventory().getLocation() );
+
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Black" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 4 ) );
+
+        Assertions.assertTrue( inventoryService.useIngredients( recipe, "Counter" ) );
+        Assertions.assertTrue( inventoryService.useIngredients( recipe, "Counter" ) );
+        Assertions.assertFalse( inventoryService.useIngredients( recipe, "Counter" ) );
+
+        Assertions.assertEquals( 2, (int) inventoryService.getInventory( "Counter" ).getIngredientAmount( i1 ) );
+        Assertions.assertEquals( 50, (int) inventoryService.getInventory().getIngredientAmount( i1 ) );
+    }
+
+    @Test
+    @Transactional
+    public void testJournal () {
+        journal.deleteAll();
+        final Inventory kiosk = inventoryService.createInventory( "Kiosk" );
+        kiosk.addIngredient( "Coffee", 20 );
+        inventoryService.save( kiosk );
+
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Black" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 4 ) );
+        Assertions.assertTrue( inventoryService.useIngredients( recipe, "Kiosk" ) );
+        Assertions.assertEquals( 16, (int) journal.replay( "Kiosk" ).get( "Coffee" ) );
+
+        // a snapshot does not change what is replayed
+        journal.takeSnapshot( "Kiosk" );
+        Assertions.assertTrue( inventoryService.useIngredients( recipe, "Kiosk" ) );
+        Assertions.assertEquals( 12, (int) journal.replay( "Kiosk" ).get( "Coffee" ) );
+        Assertions.assertNull( journal.replay( null ).get( "Coffee" ) );
+
+        // a write that bypasses the journal is undone by a restore
+        final Inventory bad = inventoryService.getInventory( "Kiosk" );
+        bad.setIngredientAmount( "Coffee", 99 );
+        bad.settle();
+        inventoryService.save( bad );
+        Assertions.assertEquals( 99, (int) inventoryService.getInventory( "Kiosk" ).getIngredientAmount( i1 ) );
+
+        inventoryService.restore( "Kiosk" );
+        Assertions.assertEquals( 12, (int) inventoryService.getInventory( "Kiosk" ).getIngredientAmount( i1 ) );
+    }
+
+    /**
+     * Checking that a copy of the Inventory read before a brew cannot be saved
+     * over it
+     */
+    @Test
+    @Transactional
+    public void testStaleSaveAfterBrew () {
+        final Inventory kiosk = inventoryService.createInventory( "Kiosk" );
+        kiosk.addIngredient( "Coffee", 20 );
+        inventoryService.save( kiosk );
+
+        final Inventory stale = inventoryService.getInventory( "Kiosk" );
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Black" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 4 ) );
+        Assertions.assertTrue( inventoryService.useIngredients( recipe, "Kiosk" ) );
+
+        stale.updateIngredient( i1, 10 );
+        assertThrows( OptimisticLockingFailureException.class, () -> inventoryService.save( stale ) );
+    }
+
+    /**
+     * Checking that a brew the database cannot cover changes no ingredient
+     * and names the one that was short. Runs without a test transaction so
+     * that the rollback can be seen.
+     */
+    @Test
+    public void testShortLineChangesNothing () {
+        final Inventory kiosk = inventoryService.createInventory( "Kiosk" );
+        kiosk.addIngredient( "Coffee", 20 );
+        kiosk.addIngredient( "Milk", 5 );
+        inventoryService.save( kiosk );
+        Long coffee = null;
+        Long milk = null;
+        for ( final Ingredient i : inventoryService.getInventory( "Kiosk" ).getIngredients() ) {
+            if ( "Coffee".equals( i.getName() ) ) {
+                coffee = i.getId();
+            }
+            else {
+                milk = i.getId();
+            }
+        }
+
+        // take the milk behind the counters, so only the database is short
+        jdbcTemplate.update( "update ingredient set amount = 1 where id = ?", milk );
+
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Latte" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 5 ) );
+        recipe.addIngredient( new Ingredient( "Milk", 3 ) );
+        final OptimisticLockingFailureException e = assertThrows( OptimisticLockingFailureException.class,
+                () -> inventoryService.deductIngredients( recipe, "Kiosk" ) );
+        Assertions.assertTrue( e.getMessage().contains( "Milk" ) );
+        assertEquals( 20, amount( coffee ) );
+        assertEquals( 1, amount( milk ) );
+
+        // the counters were dropped with the rollback, so they now agree
+        assertEquals( "Milk", inventoryService.deductIngredients( recipe, "Kiosk" ) );
+        assertEquals( 20, amount( coffee ) );
+
+        inventoryService.deleteAll();
+    }
+
+    /**
+     * Reads the amount of an ingredient straight from the database.
+     *
+     * @param id
+     *            the id of the ingredient
+     * @return the amount
+     */
+    private int amount ( final Long id ) {
+        return jdbcTemplate.queryForObject( "select amount from ingredient where id = ?", Integer.class, id );
+    }
+
 }
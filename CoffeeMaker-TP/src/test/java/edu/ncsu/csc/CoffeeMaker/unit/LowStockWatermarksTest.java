@@ -0,0 +1,81 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.models.Ingredient;
+import edu.ncsu.csc.CoffeeMaker.models.Inventory;
+import edu.ncsu.csc.CoffeeMaker.models.Recipe;
+import edu.ncsu.csc.CoffeeMaker.models.StockWatermark;
+import edu.ncsu.csc.CoffeeMaker.services.LowStockWatermarks;
+import edu.ncsu.csc.CoffeeMaker.services.LowStockWatermarks.Crossing;
+
+/**
+ * Tests the low-stock watermarks kept by the InventoryService.
+ *
+ */
+public class LowStockWatermarksTest {
+
+    /**
+     * Tests that crossings are reported once in each direction.
+     */
+    @Test
+    public void testCrossings () {
+        final Inventory ivt = new Inventory();
+        ivt.addIngredient( "Coffee", 10 );
+        ivt.addIngredient( "Milk", 10 );
+
+        final Recipe recipe = new Recipe();
+        recipe.setName( "Latte" );
+        recipe.setPrice( 5 );
+        recipe.addIngredient( new Ingredient( "Coffee", 3 ) );
+        recipe.addIngredient( new Ingredient( "Milk", 1 ) );
+
+        final LowStockWatermarks watermarks = new LowStockWatermarks( "Kiosk" );
+        Assertions.assertFalse( watermarks.isLoaded() );
+        Assertions.assertTrue( watermarks.brewed( recipe ).isEmpty() );
+        Assertions.assertTrue( watermarks.load( ivt,
+                Arrays.asList( new StockWatermark( "Kiosk", "Coffee", 4 ), new StockWatermark( "Kiosk", "Sugar", 1 ) ),
+                watermarks.changes() ) );
+        Assertions.assertTrue( watermarks.lowStock().isEmpty() );
+
+        Assertions.assertTrue( watermarks.brewed( recipe ).isEmpty() );
+        final List<Crossing> low = watermarks.brewed( recipe );
+        Assertions.assertEquals( 1, low.size() );
+        Assertions.assertEquals( "Coffee", low.get( 0 ).getIngredient() );
+        Assertions.assertEquals( 4, low.get( 0 ).getAmount() );
+        Assertions.assertEquals( "Kiosk", low.get( 0 ).getLocation() );
+        Assertions.assertTrue( low.get( 0 ).isLow() );
+        Assertions.assertTrue( watermarks.brewed( recipe ).isEmpty() );
+        Assertions.assertEquals( 1, watermarks.lowStock().size() );
+
+        ivt.setIngredientAmount( "Coffee", 50 );
+        final List<Crossing> restocked = watermarks.restocked( ivt );
+        Assertions.assertEquals( 1, restocked.size() );
+        Assertions.assertFalse( restocked.get( 0 ).isLow() );
+        Assertions.assertTrue( watermarks.lowStock().isEmpty() );
+    }
+
+    /**
+     * Tests that a load which raced with a change is discarded.
+     */
+    @Test
+    public void testStaleLoad () {
+        final Inventory ivt = new Inventory( "Coffee", 2 );
+        final LowStockWatermarks watermarks = new LowStockWatermarks( null );
+        final long seen = watermarks.changes();
+        watermarks.clear();
+        Assertions.assertFalse(
+                watermarks.load( ivt, Arrays.asList( new StockWatermark( null, "Coffee", 5 ) ), seen ) );
+        Assertions.assertFalse( watermarks.isLoaded() );
+
+        Assertions.assertTrue( watermarks.load( ivt, Arrays.asList( new StockWatermark( null, "Coffee", 5 ) ),
+                watermarks.changes() ) );
+        Assertions.assertEquals( 1, watermarks.lowStock().size() );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> new StockWatermark( null, "Coffee", -1 ) );
+    }
+
+}
@@ -0,0 +1,119 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.models.Customer;
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.OrderLine;
+import edu.ncsu.csc.CoffeeMaker.services.OrderIntake;
+import edu.ncsu.csc.CoffeeMaker.services.OrderIntake.Pending;
+
+/**
+ * Tests the bounded intake of orders waiting to be placed.
+ *
+ */
+public class OrderIntakeTest {
+
+    /** Customer placing the orders */
+    private final Customer customer = new Customer( "custUser1", "password1?" );
+
+    /**
+     * Creates a pending order.
+     *
+     * @param name
+     *            the key to give it
+     * @param idempotencyKey
+     *            the idempotency key sent with it, or null
+     * @return the order
+     */
+    private Pending pending ( final String name, final String idempotencyKey ) {
+        final Order order = new Order( new ArrayList<>(), "29-Mar-2023 12:31:17PM" );
+        order.setLocation( "Kiosk" );
+        return new Pending( name, order, customer, idempotencyKey );
+    }
+
+    /**
+     * Tests that a full intake refuses orders at once, and takes them again
+     * once there is room.
+     *
+     * @throws Exception
+     *             if interrupted
+     */
+    @Test
+    public void testFull () throws Exception {
+        final OrderIntake intake = new OrderIntake( 2 );
+        Assertions.assertEquals( "a", intake.offer( pending( "a", null ) ) );
+        Assertions.assertEquals( "b", intake.offer( pending( "b", null ) ) );
+        Assertions.assertNull( intake.offer( pending( "c", null ) ) );
+        Assertions.assertFalse( intake.isPending( "c" ) );
+        Assertions.assertEquals( 2, intake.size() );
+
+        final List<Pending> batch = intake.take( 10, 0 );
+        Assertions.assertEquals( 2, batch.size() );
+        Assertions.assertEquals( "a", batch.get( 0 ).getName() );
+        Assertions.assertTrue( intake.isPending( "a" ) );
+        Assertions.assertEquals( "c", intake.offer( pending( "c", null ) ) );
+
+        // nothing waiting
+        intake.take( 10, 0 );
+        Assertions.assertTrue( intake.take( 10, 10 ).isEmpty() );
+    }
+
+    /**
+     * Tests that batches are no bigger than asked, oldest first.
+     *
+     * @throws Exception
+     *             if interrupted
+     */
+    @Test
+    public void testBatches () throws Exception {
+        final OrderIntake intake = new OrderIntake( 10 );
+        for ( final String name : Arrays.asList( "a", "b", "c" ) ) {
+            intake.offer( pending( name, null ) );
+        }
+        Assertions.assertEquals( 2, intake.take( 2, 0 ).size() );
+        final List<Pending> rest = intake.take( 2, 0 );
+        Assertions.assertEquals( 1, rest.size() );
+        Assertions.assertEquals( "c", rest.get( 0 ).getName() );
+    }
+
+    /**
+     * Tests what is known about an order once it leaves the intake, and that
+     * a retry gets the key of the order already queued.
+     *
+     * @throws Exception
+     *             if interrupted
+     */
+    @Test
+    public void testOutcomes () throws Exception {
+        final OrderIntake intake = new OrderIntake( 10 );
+        Assertions.assertEquals( "a", intake.offer( pending( "a", "key1" ) ) );
+        Assertions.assertEquals( "a", intake.offer( pending( "b", "key1" ) ) );
+        Assertions.assertEquals( "c", intake.offer( pending( "c", "key2" ) ) );
+        Assertions.assertEquals( 2, intake.size() );
+
+        final List<Pending> batch = intake.take( 10, 0 );
+        intake.placed( batch.get( 0 ) );
+        intake.rejected( batch.get( 1 ), "Not enough Coffee" );
+        Assertions.assertFalse( intake.isPending( "a" ) );
+        Assertions.assertNull( intake.rejection( "a" ) );
+        Assertions.assertFalse( intake.isPending( "c" ) );
+        Assertions.assertEquals( "Not enough Coffee", intake.rejection( "c" ) );
+
+        // once the first order has left, the key can be used again
+        Assertions.assertEquals( "d", intake.offer( pending( "d", "key1" ) ) );
+
+        final Order order = intake.take( 1, 0 ).get( 0 ).toOrder();
+        Assertions.assertEquals( "d", order.getName() );
+        Assertions.assertEquals( "key1", order.getIdempotencyKey() );
+        Assertions.assertEquals( "Kiosk", order.getLocation() );
+        Assertions.assertEquals( customer, order.getCustomer() );
+        Assertions.assertEquals( new ArrayList<OrderLine>(), order.getLines() );
+    }
+
+}
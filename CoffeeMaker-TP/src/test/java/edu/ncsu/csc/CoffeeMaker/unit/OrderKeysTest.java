@@ -0,0 +1,39 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.services.OrderKeys;
+
+/**
+ * Tests the keys given to new orders.
+ *
+ */
+public class OrderKeysTest {
+
+    /**
+     * Tests that keys are unique and increasing, even when many are made in
+     * the same millisecond.
+     */
+    @Test
+    public void testIncreasing () {
+        final OrderKeys keys = new OrderKeys( 7 );
+        long last = Long.parseLong( keys.next() );
+        for ( int i = 0; i < 10000; i++ ) {
+            final long key = Long.parseLong( keys.next() );
+            Assertions.assertTrue( key > last );
+            last = key;
+        }
+    }
+
+    /**
+     * Tests that instances with different numbers make different keys.
+     */
+    @Test
+    public void testNodes () {
+        Assertions.assertNotEquals( new OrderKeys( 1 ).next(), new OrderKeys( 2 ).next() );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> new OrderKeys( 1024 ) );
+        Assertions.assertThrows( IllegalArgumentException.class, () -> new OrderKeys( -1 ) );
+    }
+
+}
@@ -0,0 +1,149 @@
+package edu.ncsu.csc.CoffeeMaker.unit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import edu.ncsu.csc.CoffeeMaker.models.Order;
+import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
+import edu.ncsu.csc.CoffeeMaker.services.OrderQueue;
+
+/**
+ * Tests the queue of orders waiting to be started.
+ *
+ */
+public class OrderQueueTest {
+
+    /**
+     * Creates a waiting order.
+     *
+     * @param id
+     *            the id of the order
+     * @param location
+     *            the location of the order
+     * @return the order
+     */
+    private Order order ( final long id, final String location ) {
+        final Order order = new Order( new ArrayList<>(), "29-Mar-2023 12:31:17PM" );
+        order.setId( id );
+        order.setLocation( location );
+        order.setStatus( OrderStatus.NOT_STARTED );
+        return order;
+    }
+
+    /**
+     * Tests that orders taken by id, as when staff pick one, leave their line
+     * rather than waiting there to be skipped.
+     */
+    @Test
+    public void testTakeShrinksLine () {
+        final OrderQueue queue = new OrderQueue();
+        queue.load( Arrays.asList( order( 1, null ), order( 2, null ), order( 3, "Kiosk" ) ), queue.changes() );
+        Assertions.assertEquals( 2, queue.length( null ) );
+
+        Assertions.assertTrue( queue.take( 2L ) );
+        Assertions.assertFalse( queue.take( 2L ) );
+        Assertions.assertEquals( 1, queue.length( null ) );
+        Assertions.assertEquals( Arrays.asList( 1L ), queue.waiting( null ) );
+
+        // as do orders saved with another status
+        final Order started = order( 3, "Kiosk" );
+        started.setStatus( OrderStatus.IN_PROGRESS );
+        queue.saved( started );
+        Assertions.assertEquals( 0, queue.length( "Kiosk" ) );
+
+        for ( long id = 10; id < 110; id++ ) {
+            queue.saved( order( id, null ) );
+            queue.take( id );
+        }
+        Assertions.assertEquals( 1, queue.length( null ) );
+    }
+
+    /**
+     * Tests that orders come out oldest first, once each, per location.
+     */
+    @Test
+    public void testFirstComeFirstServed () {
+        final OrderQueue queue = new OrderQueue();
+        Assertions.assertTrue( queue.load( Arrays.asList( order( 1, null ), order( 2, "Kiosk" ), order( 3, null ) ),
+                queue.changes() ) );
+        queue.saved( order( 4, null ) );
+        Assertions.assertEquals( Arrays.asList( 1L, 3L, 4L ), queue.waiting( null ) );
+
+        // an order started some other way is skipped
+        final Order started = order( 3, null );
+        started.setStatus( OrderStatus.IN_PROGRESS );
+        queue.saved( started );
+
+        Assertions.assertEquals( 1L, (long) queue.poll( null ) );
+        Assertions.assertEquals( 4L, (long) queue.poll( null ) );
+        Assertions.assertNull( queue.poll( null ) );
+        Assertions.assertFalse( queue.take( 1L ) );
+
+        queue.putBack( null, 4L );
+        Assertions.assertEquals( 4L, (long) queue.poll( "" ) );
+        Assertions.assertEquals( 2L, (long) queue.poll( "Kiosk" ) );
+    }
+
+    /**
+     * Tests that a load which raced with a change is discarded.
+     */
+    @Test
+    public void testStaleLoad () {
+        final OrderQueue queue = new OrderQueue();
+        final long seen = queue.changes();
+        queue.saved( order( 1, null ) );
+        Assertions.assertFalse( queue.load( Arrays.asList( order( 2, null ) ), seen ) );
+        Assertions.assertFalse( queue.isLoaded() );
+        Assertions.assertNull( queue.poll( null ) );
+    }
+
+    /**
+     * Tests that concurrent staff never take the same order.
+     *
+     * @throws Exception
+     *             if a worker fails
+     */
+    @Test
+    public void testConcurrentPoll () throws Exception {
+        final OrderQueue queue = new OrderQueue();
+        final List<Order> orders = new ArrayList<Order>();
+        for ( int n = 1; n <= 1000; n++ ) {
+            orders.add( order( n, null ) );
+        }
+        queue.load( orders, queue.changes() );
+
+        final ExecutorService pool = Executors.newFixedThreadPool( 8 );
+        final List<Future<List<Long>>> results = new ArrayList<Future<List<Long>>>();
+        for ( int t = 0; t < 8; t++ ) {
+            results.add( pool.submit( (Callable<List<Long>>) () -> {
+                final List<Long> taken = new ArrayList<Long>();
+                Long id;
+                while ( ( id = queue.poll( null ) ) != null ) {
+                    taken.add( id );
+                }
+                return taken;
+            } ) );
+        }
+        final Set<Long> all = new HashSet<Long>();
+        int total = 0;
+        for ( final Future<List<Long>> f : results ) {
+            final List<Long> taken = f.get();
+            total += taken.size();
+            all.addAll( taken );
+        }
+        pool.shutdown();
+        Assertions.assertEquals( 1000, total );
+        Assertions.assertEquals( 1000, all.size() );
+    }
+
+}
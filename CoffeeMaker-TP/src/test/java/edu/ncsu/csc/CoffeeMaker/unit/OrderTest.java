@@ -1,7 +1,9 @@
 package edu.ncsu.csc.CoffeeMaker.unit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -23,9 +25,11 @@ import edu.ncsu.csc.CoffeeMaker.models.Order;
 import edu.ncsu.csc.CoffeeMaker.models.Order.OrderStatus;
 import edu.ncsu.csc.CoffeeMaker.models.Recipe;
 import edu.ncsu.csc.CoffeeMaker.models.Staff;
+import edu.ncsu.csc.CoffeeMaker.services.CustomerService;
 import edu.ncsu.csc.CoffeeMaker.services.IngredientService;
 import edu.ncsu.csc.CoffeeMaker.services.OrderService;
 import edu.ncsu.csc.CoffeeMaker.services.RecipeService;
+import edu.ncsu.csc.CoffeeMaker.services.StaffService;
 
 /**
  * Tests the Order class and its service model.
@@ -60,6 +64,14 @@ class OrderTest {
     @Autowired
     private RecipeService           recipeService;
 
+    /** CustomerService */
+    @Autowired
+    private CustomerService         customerService;
+
+    /** StaffService */
+    @Autowired
+    private StaffService            staffService;
+
     /**
      * deleting service before each tests
      */
@@ -77,6 +89,7 @@ class OrderTest {
         final Order order = new Order();
 
         order.setTime( TIME );
+        customerService.save( CUSTOMER );
         order.setCustomer( CUSTOMER );
 
         // saving the order to the order service
@@ -165,6 +178,7 @@ class OrderTest {
 
         final Order order = new Order( recipes, TIME );
 
+        staffService.save( STAFF );
         order.setStaff( STAFF );
         orderService.save( order );
 
@@ -190,6 +204,88 @@ class OrderTest {
         // ).getTotalCost() );
     }
 
+    /**
+     * Tests the transitions allowed between order statuses.
+     */
+    @Test
+    public void testTransitions () {
+        assertTrue( OrderStatus.NOT_STARTED.canBecome( OrderStatus.IN_PROGRESS ) );
+        assertTrue( OrderStatus.NOT_STARTED.canBecome( OrderStatus.CANCELED ) );
+        assertFalse( OrderStatus.NOT_STARTED.canBecome( OrderStatus.COMPLETED ) );
+        assertTrue( OrderStatus.IN_PROGRESS.canBecome( OrderStatus.COMPLETED ) );
+        assertTrue( OrderStatus.IN_PROGRESS.canBecome( OrderStatus.CANCELED ) );
+        assertTrue( OrderStatus.COMPLETED.canBecome( OrderStatus.PICKED_UP ) );
+        assertFalse( OrderStatus.COMPLETED.canBecome( OrderStatus.CANCELED ) );
+        assertFalse( OrderStatus.PICKED_UP.canBecome( OrderStatus.IN_PROGRESS ) );
+        for ( final OrderStatus status : OrderStatus.values() ) {
+            assertFalse( OrderStatus.CANCELED.canBecome( status ) );
+            assertFalse( status.canBecome( status ) );
+            assertFalse( status.canBecome( null ) );
+        }
+    }
+
+    /**
+     * Tests that repeats of a recipe become one line with a quantity, priced
+     * as the recipe was when it was ordered.
+     */
+    @Transactional
+    @Test
+    void testLines () {
+        final Ingredient i1 = new Ingredient( "Coffee", 2 );
+        final Recipe r1 = createRecipe( "Coffee", 5, i1 );
+        final Ingredient i2 = new Ingredient( "Matcha", 3 );
+        final Recipe r2 = createRecipe( "Green Tea", 6, i2 );
+        ingredientService.save( i1 );
+        ingredientService.save( i2 );
+        recipeService.save( r1 );
+        recipeService.save( r2 );
+        recipes.add( r1 );
+        recipes.add( r2 );
+        recipes.add( r1 );
+
+        final Order order = new Order( recipes, TIME );
+        assertEquals( 2, order.getLines().size() );
+        assertEquals( "Coffee", order.getLines().get( 0 ).getName() );
+        assertEquals( 2, (int) order.getLines().get( 0 ).getQuantity() );
+        assertEquals( 1, (int) order.getLines().get( 1 ).getQuantity() );
+        assertEquals( 16, (int) order.getTotalCost() );
+        assertEquals( 3, order.getRecipes().size() );
+        orderService.save( order );
+
+        r1.setPrice( 7 );
+        recipeService.save( r1 );
+        final Order saved = orderService.findById( order.getId() );
+        assertEquals( 5, (int) saved.getLines().get( 0 ).getPrice() );
+        assertEquals( 16, (int) saved.getTotalCost() );
+        assertEquals( r1, saved.getLines().get( 0 ).getRecipe() );
+    }
+
+    /**
+     * Tests that a customer and a member of staff can each have many orders,
+     * and that removing orders leaves them alone.
+     */
+    @Transactional
+    @Test
+    void testManyOrdersPerUser () {
+        customerService.save( CUSTOMER );
+        staffService.save( STAFF );
+        final long customers = customerService.count();
+        final long staff = staffService.count();
+
+        for ( int n = 0; n < 3; n++ ) {
+            final Order order = new Order( new ArrayList<Recipe>(), TIME );
+            order.setCustomer( CUSTOMER );
+            order.setStaff( STAFF );
+            orderService.save( order );
+        }
+        assertEquals( 3, orderService.count() );
+
+        orderService.deleteAll();
+        assertEquals( 0, orderService.count() );
+        assertEquals( customers, customerService.count() );
+        assertEquals( staff, staffService.count() );
+    }
+
     private Recipe createRecipe ( final String name, final Integer price, final Ingredient i ) {
         final Recipe recipe = new Recipe();
         recipe.setName( name );